@@ -0,0 +1,177 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.pixelflow.benchmark;
+
+import java.util.Random;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleBroadphase;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleGrid;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleIncrementalGrid;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleSortedGrid;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleStore;
+
+
+/**
+ * 
+ * Broad-phase comparison for the particle store:<br>
+ * DwParticleGrid (linked lists) vs. DwParticleSortedGrid (counting sort),
+ * with particles in random order and after a Morton reorder of the store.<br>
+ * One collision pass = build + solve for all particles, single threaded.<br>
+ * <br>
+ * Broad-phase comparison within DwPhysics.update(), including
+ * DwParticleIncrementalGrid, which only moves particles that changed their
+ * cell.<br>
+ * <br>
+ * usage: BroadphaseBenchmark [particle_count ...]
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class BroadphaseBenchmark {
+  
+  static public DwParticleStore createStore(int dim, int count, float fill_factor, long seed){
+    DwParticleStore store = new DwParticleStore(dim, count);
+    float size = 1000;
+    float volume = (dim == 3) ? size * size * size : size * size;
+    float radius = (float) Math.pow(volume * fill_factor / count, 1.0 / dim) * 0.5f;
+    
+    Random rand = new Random(seed);
+    for(int i = 0; i < count; i++){
+      float x = rand.nextFloat() * size;
+      float y = rand.nextFloat() * size;
+      float z = (dim == 3) ? rand.nextFloat() * size : 0;
+      float r = radius * (0.6f + 0.8f * rand.nextFloat());
+      store.add(x, y, z, r);
+    }
+    return store;
+  }
+  
+  
+  static private long collisions(DwParticleStore store){
+    long sum = 0;
+    for(int i = 0; i < store.count; i++){
+      sum += store.collision_count[i];
+    }
+    return sum;
+  }
+  
+  
+  static private DwBenchmark.Result benchmark(DwBenchmark bench, String name, final DwParticleStore store, final DwParticleBroadphase broadphase){
+    DwBenchmark.Result result = bench.run(name, new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        store.beforeCollision(0, store.count);
+        broadphase.build(store);
+        broadphase.solveCollisions(store, 0, store.count);
+      }
+    });
+    System.out.println("    collisions: "+collisions(store));
+    return result;
+  }
+  
+  
+  static public void run(int dim, int count){
+    System.out.println("\n"+dim+"D, particles: "+count);
+    
+    DwBenchmark bench = new DwBenchmark(3, count >= 500000 ? 5 : 15);
+    
+    DwParticleStore store = createStore(dim, count, 0.5f, 0);
+    
+    double t_ppll   = benchmark(bench, "random order, DwParticleGrid"      , store, new DwParticleGrid      ()).median;
+    double t_sorted = benchmark(bench, "random order, DwParticleSortedGrid", store, new DwParticleSortedGrid()).median;
+    
+    store.permute(store.computeMortonOrder(null));
+    
+    double t_ppll_z   = benchmark(bench, "morton order, DwParticleGrid"      , store, new DwParticleGrid      ()).median;
+    double t_sorted_z = benchmark(bench, "morton order, DwParticleSortedGrid", store, new DwParticleSortedGrid()).median;
+    
+    System.out.printf("speedup vs. DwParticleGrid (random order): sorted %.2fx, morton %.2fx, sorted + morton %.2fx%n", 
+        t_ppll / t_sorted, t_ppll / t_ppll_z, t_ppll / t_sorted_z);
+  }
+  
+  
+  static private DwBenchmark.Result benchmarkPhysics(DwBenchmark bench, String name, int dim, int count, DwParticleBroadphase broadphase){
+    DwPhysics.Param param = new DwPhysics.Param();
+    param.iterations_collisions = 4;
+    param.iterations_springs    = 0;
+    param.GRAVITY = new float[]{ 0, 0.05f, 0 };
+    param.bounds  = (dim == 3) ? new float[]{ 0, 0, 0, 1000, 1000, 1000 } : new float[]{ 0, 0, 1000, 1000 };
+
+    final DwPhysics<DwParticle> physics = new DwPhysics<DwParticle>(param);
+    physics.setParticleStore(createStore(dim, count, 0.5f, 0));
+    if(broadphase instanceof DwParticleIncrementalGrid){
+      ((DwParticleIncrementalGrid) broadphase).setBounds(param.bounds);
+    }
+    physics.setBroadphase(broadphase);
+
+    return bench.run(name, new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        physics.update(1);
+      }
+    });
+  }
+  
+  
+  static public void runPhysics(int dim, int count){
+    System.out.println("\n"+dim+"D, particles: "+count+", DwPhysics.update(), 4 collision iterations");
+    
+    DwBenchmark bench = new DwBenchmark(10, count >= 500000 ? 5 : 20);
+    
+    DwParticleIncrementalGrid grid_inc = new DwParticleIncrementalGrid(null);
+    double t_ppll   = benchmarkPhysics(bench, "DwParticleGrid"           , dim, count, new DwParticleGrid()).median;
+    double t_sorted = benchmarkPhysics(bench, "DwParticleSortedGrid"     , dim, count, new DwParticleSortedGrid()).median;
+    double t_inc    = benchmarkPhysics(bench, "DwParticleIncrementalGrid", dim, count, grid_inc).median;
+    
+    System.out.printf("speedup vs. DwParticleGrid: sorted %.2fx, incremental %.2fx (%d rebuilds, %d moved in the last pass)%n", 
+        t_ppll / t_sorted, t_ppll / t_inc, grid_inc.num_rebuilds, grid_inc.num_moved);
+    
+    // build only, particles at rest
+    final DwParticleStore store = createStore(dim, count, 0.5f, 0);
+    final DwParticleGrid            grid_ppll = new DwParticleGrid();
+    final DwParticleIncrementalGrid grid_incr = new DwParticleIncrementalGrid(null);
+    double b_ppll = bench.run("build only, DwParticleGrid", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        grid_ppll.build(store);
+      }
+    }).median;
+    double b_inc = bench.run("build only, DwParticleIncrementalGrid", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        grid_incr.build(store);
+      }
+    }).median;
+    System.out.printf("build speedup: incremental %.2fx%n", b_ppll / b_inc);
+  }
+  
+  
+  public static void main(String[] args){
+    int[] counts = {10000, 100000, 1000000};
+    if(args.length > 0){
+      counts = new int[args.length];
+      for(int i = 0; i < args.length; i++){
+        counts[i] = Integer.parseInt(args[i]);
+      }
+    }
+    for(int count : counts){
+      run(2, count);
+      run(3, count);
+    }
+    for(int count : counts){
+      runPhysics(2, count);
+      runPhysics(3, count);
+    }
+  }
+  
+}
@@ -0,0 +1,136 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+
+import com.thomasdiewald.pixelflow.java.utils.DwFrameSequence;
+
+
+/**
+ *
+ * Frame capture, per frame cost of ImageIO jpeg (DwFrameCapture default)
+ * vs. DwFrameSequence (lossless, Deflater level 1), writing and decoding.<br>
+ * <br>
+ * usage: CaptureBenchmark [-threads N] [width height]
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class CaptureBenchmark {
+
+  static DwBenchmark bench = new DwBenchmark(2, 5);
+
+  static final int FRAMES = 16;
+
+  /**
+   * smooth gradients, a moving pattern and some noise, roughly a rendered
+   * frame.
+   */
+  static public int[] createFrame(int w, int h, int frame){
+    int[] pixels = new int[w * h];
+    int seed = 0x12345678 + frame;
+    for(int y = 0; y < h; y++){
+      for(int x = 0; x < w; x++){
+        seed = seed * 1103515245 + 12345;
+        int noise = (seed >>> 28) & 3;
+        int r = (x * 255 / w + noise) & 0xFF;
+        int g = (y * 255 / h + noise) & 0xFF;
+        int b = ((((x + frame * 4) >> 4) ^ (y >> 4)) & 1) * 200 + noise;
+        pixels[y * w + x] = 0xFF000000 | r << 16 | g << 8 | b;
+      }
+    }
+    return pixels;
+  }
+
+
+  public static void main(String[] args) throws IOException{
+    int w = 1920, h = 1080;
+    int threads = Runtime.getRuntime().availableProcessors();
+    for(int i = 0; i < args.length; i++){
+      if(args[i].equals("-threads")){ threads = Integer.parseInt(args[++i]); continue; }
+      w = Integer.parseInt(args[i++]);
+      h = Integer.parseInt(args[i]);
+    }
+    final int W = w, H = h, THREADS = threads;
+
+    final int[][] frames = new int[FRAMES][];
+    for(int i = 0; i < FRAMES; i++){
+      frames[i] = createFrame(w, h, i);
+    }
+    System.out.println("\n"+FRAMES+" frames, "+w+"x"+h+", threads "+threads);
+
+    // jpeg
+    final BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    final ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(0.8f);
+    bench.run("ImageIO jpeg, single thread", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        try {
+          for(int i = 0; i < FRAMES; i++){
+            img.getRaster().setDataElements(0, 0, W, H, frames[i]);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            writer.setOutput(ImageIO.createImageOutputStream(output));
+            writer.write(null, new IIOImage(img, null, null), param);
+          }
+        } catch (IOException e) { throw new RuntimeException(e); }
+      }
+    });
+
+    // DwFrameSequence
+    final File file = File.createTempFile("capture", ".dwfs");
+    file.deleteOnExit();
+    bench.run("DwFrameSequence.Writer", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        try {
+          DwFrameSequence.Writer sequence = new DwFrameSequence.Writer();
+          sequence.num_threads = THREADS;
+          sequence.createRGBA8(file, W, H);
+          for(int i = 0; i < FRAMES; i++){
+            sequence.addFrame(frames[i]);
+          }
+          sequence.close();
+        } catch (IOException e) { throw new RuntimeException(e); }
+      }
+    });
+    System.out.printf("    %.2f MB/frame, raw %.2f MB/frame\n", file.length() / 1E6 / FRAMES, w * h * 4 / 1E6);
+
+    bench.run("DwFrameSequence.Reader.decode", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        try {
+          DwFrameSequence.Reader sequence = new DwFrameSequence.Reader();
+          sequence.open(file);
+          sequence.decode(0, sequence.frame_count, THREADS, new DwFrameSequence.Reader.Listener() {
+            @Override
+            public void frame(DwFrameSequence.Frame frame) {
+            }
+          });
+          sequence.close();
+        } catch (IOException e) { throw new RuntimeException(e); }
+      }
+    });
+    writer.dispose();
+  }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.pixelflow.benchmark;
+
+import java.util.Random;
+
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionGrid;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+
+
+/**
+ * 
+ * DwCollisionGrid, xy-binning (2D) vs. xyz-binning (3D) on the
+ * Softbody3D_ParticleCollisionSystem workload: particles with random radii,
+ * filling 50% of a 3000 x 3000 x 1500 box, gravity along -z.<br>
+ * <br>
+ * Times a full collision pass (build + solve) on the initial uniform
+ * distribution, after the particles settled on the ground and on a clustered
+ * distribution (16 gaussian clusters).<br>
+ * <br>
+ * usage: CollisionGridBenchmark [particle_count ...]
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class CollisionGridBenchmark {
+  
+  static public DwParticle3D[] createParticleSystem(int count, float[] bounds, float fill_factor, long seed){
+    
+    DwParticle.Param param = new DwParticle.Param();
+    param.DAMP_BOUNDS    = 0.99999f;
+    param.DAMP_COLLISION = 0.99999f;
+    param.DAMP_VELOCITY  = 0.99999f;
+    
+    float bsx = bounds[3] - bounds[0];
+    float bsy = bounds[4] - bounds[1];
+    float bsz = bounds[5] - bounds[2];
+    
+    float volume_per_particle = bsx * bsy * bsz * fill_factor / count;
+    float radius = (float) (Math.pow(volume_per_particle, 1/3.0) * 0.5);
+    radius = Math.max(radius, 1);
+    float r_min = radius * 0.6f;
+    float r_max = radius * 1.4f;
+    DwParticle3D.MAX_RAD = r_max;
+    
+    Random rand = new Random(seed);
+    DwParticle3D[] particles = new DwParticle3D[count];
+    for(int i = 0; i < count; i++){
+      float pr = r_min + rand.nextFloat() * (r_max - r_min);
+      float px = bounds[0] + r_max + rand.nextFloat() * (bsx - r_max * 2);
+      float py = bounds[1] + r_max + rand.nextFloat() * (bsy - r_max * 2);
+      float pz = bounds[2] + r_max + rand.nextFloat() * (bsz - r_max * 2);
+      particles[i] = new DwParticle3D(i, px, py, pz, pr, param);
+      particles[i].setCollisionGroup(i);
+      particles[i].setMass(r_max * r_max / (pr * pr));
+    }
+    return particles;
+  }
+  
+  
+  /**
+   * same particles, but positions are gaussian distributed around a number of
+   * random cluster centers, (dense cells next to empty ones).
+   */
+  static public DwParticle3D[] createClusteredParticleSystem(int count, float[] bounds, float fill_factor, int num_clusters, long seed){
+    DwParticle3D[] particles = createParticleSystem(count, bounds, fill_factor, seed);
+    
+    float bsx = bounds[3] - bounds[0];
+    float bsy = bounds[4] - bounds[1];
+    float bsz = bounds[5] - bounds[2];
+    float r_max = DwParticle3D.MAX_RAD;
+    float sigma = Math.min(bsx, Math.min(bsy, bsz)) * 0.05f;
+    
+    Random rand = new Random(seed + 1);
+    float[][] centers = new float[num_clusters][3];
+    for(int i = 0; i < num_clusters; i++){
+      centers[i][0] = bounds[0] + (0.1f + 0.8f * rand.nextFloat()) * bsx;
+      centers[i][1] = bounds[1] + (0.1f + 0.8f * rand.nextFloat()) * bsy;
+      centers[i][2] = bounds[2] + (0.1f + 0.8f * rand.nextFloat()) * bsz;
+    }
+    
+    for(int i = 0; i < count; i++){
+      float[] c = centers[rand.nextInt(num_clusters)];
+      float px = clamp(c[0] + (float) rand.nextGaussian() * sigma, bounds[0] + r_max, bounds[3] - r_max);
+      float py = clamp(c[1] + (float) rand.nextGaussian() * sigma, bounds[1] + r_max, bounds[4] - r_max);
+      float pz = clamp(c[2] + (float) rand.nextGaussian() * sigma, bounds[2] + r_max, bounds[5] - r_max);
+      DwParticle3D p = particles[i];
+      p.cx = p.px = px;
+      p.cy = p.py = py;
+      p.cz = p.pz = pz;
+    }
+    return particles;
+  }
+  
+  static private float clamp(float v, float lo, float hi){
+    return v < lo ? lo : (v > hi ? hi : v);
+  }
+  
+  
+  static private DwBenchmark.Result benchmarkGrid(DwBenchmark bench, String name, final DwParticle3D[] particles, int dimension){
+    final DwCollisionGrid grid = new DwCollisionGrid();
+    grid.setDimension(dimension);
+    return bench.run(name, new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        for(int i = 0; i < particles.length; i++){
+          particles[i].beforeCollision();
+        }
+        grid.updateCollisions(particles);
+      }
+    });
+  }
+  
+  
+  static public void run(int count){
+    int cs = 1500;
+    DwPhysics.Param param_physics = new DwPhysics.Param();
+    param_physics.GRAVITY = new float[]{ 0, 0, -0.1f};
+    param_physics.bounds  = new float[]{ -cs, -cs, 0, +cs, +cs, +cs };
+    param_physics.iterations_collisions = 2;
+    param_physics.iterations_springs    = 8;
+    
+    DwParticle3D[] particles = createParticleSystem(count, param_physics.bounds, 0.5f, 0);
+    
+    DwPhysics<DwParticle3D> physics = new DwPhysics<DwParticle3D>(param_physics);
+    physics.update_particle_shapes = false;
+    physics.setParticles(particles, particles.length);
+    
+    System.out.println("\nparticles: "+count);
+    
+    DwBenchmark bench = new DwBenchmark(3, count > 20000 ? 5 : 15);
+    
+    double t2, t3;
+    t2 = benchmarkGrid(bench, "collision pass, uniform, 2D grid", particles, 2).median;
+    t3 = benchmarkGrid(bench, "collision pass, uniform, 3D grid", particles, 3).median;
+    System.out.printf("speedup: %.2fx%n", t2 / t3);
+    
+    // let particles fall and settle
+    int frames = count > 20000 ? 100 : 300;
+    for(int i = 0; i < frames; i++){
+      physics.update(1);
+    }
+
+    t2 = benchmarkGrid(bench, "collision pass, settled, 2D grid", particles, 2).median;
+    t3 = benchmarkGrid(bench, "collision pass, settled, 3D grid", particles, 3).median;
+    System.out.printf("speedup: %.2fx%n", t2 / t3);
+    
+    DwParticle3D[] clustered = createClusteredParticleSystem(count, param_physics.bounds, 0.5f, 16, 0);
+    t2 = benchmarkGrid(bench, "collision pass, clustered, 2D grid", clustered, 2).median;
+    t3 = benchmarkGrid(bench, "collision pass, clustered, 3D grid", clustered, 3).median;
+    System.out.printf("speedup: %.2fx%n", t2 / t3);
+  }
+  
+  
+  public static void main(String[] args){
+    int[] counts = {1000, 5000, 20000};
+    if(args.length > 0){
+      counts = new int[args.length];
+      for(int i = 0; i < args.length; i++){
+        counts[i] = Integer.parseInt(args[i]);
+      }
+    }
+    for(int count : counts){
+      run(count);
+    }
+  }
+  
+}
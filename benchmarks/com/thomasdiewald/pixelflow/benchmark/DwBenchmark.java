@@ -0,0 +1,79 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+
+package com.thomasdiewald.pixelflow.benchmark;
+
+import java.util.Arrays;
+
+
+/**
+ * 
+ * Minimal timing harness for the headless benchmarks.<br>
+ * Runs a task a number of times after some warmup runs, and reports the
+ * median, min and max duration in milliseconds.<br>
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class DwBenchmark {
+  
+  public static interface Task{
+    public void run();
+  }
+  
+  public static class Result{
+    public String name;
+    public double median;
+    public double min;
+    public double max;
+    public int    runs;
+    
+    @Override
+    public String toString(){
+      return String.format("%-48s median %10.3f ms   min %10.3f ms   max %10.3f ms   (%d runs)", name, median, min, max, runs);
+    }
+  }
+  
+  public int warmup = 5;
+  public int runs   = 20;
+  
+  public DwBenchmark(){
+  }
+  
+  public DwBenchmark(int warmup, int runs){
+    this.warmup = warmup;
+    this.runs   = runs;
+  }
+  
+  public Result run(String name, Task task){
+    for(int i = 0; i < warmup; i++){
+      task.run();
+    }
+    
+    double[] ms = new double[runs];
+    for(int i = 0; i < runs; i++){
+      long t0 = System.nanoTime();
+      task.run();
+      long t1 = System.nanoTime();
+      ms[i] = (t1 - t0) / 1E6;
+    }
+    Arrays.sort(ms);
+    
+    Result result = new Result();
+    result.name   = name;
+    result.runs   = runs;
+    result.min    = ms[0];
+    result.max    = ms[runs - 1];
+    result.median = ms[runs / 2];
+    System.out.println(result);
+    return result;
+  }
+  
+}
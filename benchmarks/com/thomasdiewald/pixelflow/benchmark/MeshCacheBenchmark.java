@@ -0,0 +1,214 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.thomasdiewald.pixelflow.java.geometry.DwHalfEdge;
+import com.thomasdiewald.pixelflow.java.geometry.DwIcosahedron;
+import com.thomasdiewald.pixelflow.java.geometry.DwIndexedFaceSetFlat;
+import com.thomasdiewald.pixelflow.java.geometry.DwMeshCache;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.softbody.DwSoftBall3D;
+
+
+/**
+ *
+ * Mesh startup, rebuilding vs. loading a DwMeshCache.<br>
+ * <br>
+ * <ul>
+ * <li> scene: OBJ text -> DwIndexedFaceSetFlat -> DwHalfEdge.IndexedMesh ->
+ *      spring list, vs. DwMeshCache.load() of the same data</li>
+ * <li> DwSoftBall3D: create(subdivisions) vs. create(cache)</li>
+ * </ul>
+ * -cold: single run, no warmup, (start a new JVM per measurement, the OS
+ * file cache is still warm).<br>
+ * <br>
+ * usage: MeshCacheBenchmark [-cold] [-subdivisions N] [obj-file]
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class MeshCacheBenchmark {
+
+  static DwBenchmark bench = new DwBenchmark(3, 10);
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // OBJ path
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * minimal OBJ reader, positions and faces only, polygons as triangle fans.
+   */
+  static public DwIndexedFaceSetFlat readOBJ(File file) throws IOException{
+    float[] verts = new float[3 * 1024]; int verts_count = 0;
+    int  [] faces = new int  [3 * 1024]; int faces_count = 0;
+    int  [] poly  = new int  [16];
+
+    BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16);
+    try {
+      String line;
+      while((line = reader.readLine()) != null){
+        if(line.startsWith("v ")){
+          String[] tokens = line.trim().split("\\s+");
+          if(verts.length < (verts_count + 1) * 3) verts = Arrays.copyOf(verts, verts.length * 2);
+          verts[verts_count * 3 + 0] = Float.parseFloat(tokens[1]);
+          verts[verts_count * 3 + 1] = Float.parseFloat(tokens[2]);
+          verts[verts_count * 3 + 2] = Float.parseFloat(tokens[3]);
+          verts_count++;
+        }
+        else if(line.startsWith("f ")){
+          String[] tokens = line.trim().split("\\s+");
+          int num = tokens.length - 1;
+          if(poly.length < num) poly = new int[num];
+          for(int i = 0; i < num; i++){
+            String token = tokens[i + 1];
+            int slash = token.indexOf('/');
+            int idx = Integer.parseInt(slash == -1 ? token : token.substring(0, slash));
+            poly[i] = idx < 0 ? verts_count + idx : idx - 1;
+          }
+          for(int i = 1; i < num - 1; i++){
+            if(faces.length < (faces_count + 1) * 3) faces = Arrays.copyOf(faces, faces.length * 2);
+            faces[faces_count * 3 + 0] = poly[0];
+            faces[faces_count * 3 + 1] = poly[i];
+            faces[faces_count * 3 + 2] = poly[i + 1];
+            faces_count++;
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return new DwIndexedFaceSetFlat(3, verts, verts_count, faces, faces_count);
+  }
+
+  /**
+   * one STRUCT spring per edge.
+   */
+  static public int[] createEdgeSprings(DwHalfEdge.IndexedMesh mesh){
+    int STRUCT = DwSpringConstraint.TYPE.STRUCT.ordinal();
+    int[] springs = new int[mesh.edges_count * 3];
+    int count = 0;
+    for(int e = 0; e < mesh.edges_count; e++){
+      int pair = mesh.pair[e];
+      if(pair == -1 || e < pair){
+        springs[count++] = mesh.vert[e];
+        springs[count++] = mesh.getEndVert(e);
+        springs[count++] = STRUCT;
+      }
+    }
+    return Arrays.copyOf(springs, count);
+  }
+
+  static public DwMeshCache buildScene(File obj) throws IOException{
+    DwIndexedFaceSetFlat ifs = readOBJ(obj);
+    DwHalfEdge.IndexedMesh mesh = new DwHalfEdge.IndexedMesh(ifs);
+    int[] springs = createEdgeSprings(mesh);
+    return new DwMeshCache(ifs, mesh, springs, springs.length / 3);
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // RUNS
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public void runScene(final File obj) throws IOException{
+    final File file = File.createTempFile("scene", ".dwmc");
+    file.deleteOnExit();
+    DwMeshCache scene = buildScene(obj);
+    scene.save(file);
+    System.out.println("    "+obj.getName()+": verts "+scene.ifs.verts_count+", faces "+scene.ifs.faces_count+
+        ", springs "+scene.springs_count+", OBJ "+obj.length()+" bytes, cache "+file.length()+" bytes");
+
+    bench.run("scene, OBJ -> ifs, half-edges, springs", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        try { buildScene(obj); } catch (IOException e) { throw new RuntimeException(e); }
+      }
+    });
+    runLoad("scene", file);
+  }
+
+
+  static public void runBall3D(final int subdivisions) throws IOException{
+    final File file = File.createTempFile("ball", ".dwmc");
+    file.deleteOnExit();
+    DwIcosahedron ico = new DwIcosahedron();
+    ico.create(subdivisions, 1, false);
+    DwIndexedFaceSetFlat ifs = new DwIndexedFaceSetFlat(ico);
+    DwHalfEdge.IndexedMesh mesh = new DwHalfEdge.IndexedMesh(ifs);
+    int[] springs = DwSoftBall3D.createSprings(mesh, 3);
+    new DwMeshCache(ifs, mesh, springs, springs.length / 3).save(file);
+
+    bench.run(String.format("DwSoftBall3D.create, subdivisions %d", subdivisions), new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        DwPhysics<DwParticle3D> physics = new DwPhysics<DwParticle3D>(SoftBodyBenchmark.createParam(3));
+        DwSoftBall3D body = new DwSoftBall3D();
+        body.create(physics, subdivisions, 500, 0, 0, 1000);
+      }
+    });
+    bench.run(String.format("DwSoftBall3D.create, cache, subdivisions %d", subdivisions), new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        try {
+          DwMeshCache cache = DwMeshCache.load(file);
+          DwPhysics<DwParticle3D> physics = new DwPhysics<DwParticle3D>(SoftBodyBenchmark.createParam(3));
+          DwSoftBall3D body = new DwSoftBall3D();
+          body.create(physics, cache, 500, 0, 0, 1000);
+        } catch (IOException e) { throw new RuntimeException(e); }
+      }
+    });
+    runLoad("ball", file);
+  }
+
+
+  static private void runLoad(String name, final File file){
+    bench.run(name+", DwMeshCache.load", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        try { DwMeshCache.load(file, true); } catch (IOException e) { throw new RuntimeException(e); }
+      }
+    });
+    bench.run(name+", DwMeshCache.load, no checksum", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        try { DwMeshCache.load(file, false); } catch (IOException e) { throw new RuntimeException(e); }
+      }
+    });
+  }
+
+
+  public static void main(String[] args) throws IOException{
+    File obj = new File("examples/data/skylight_demo_scene.obj");
+    int subdivisions = 6;
+    for(int i = 0; i < args.length; i++){
+      if(args[i].equals("-cold"        )){ bench = new DwBenchmark(0, 1); continue; }
+      if(args[i].equals("-subdivisions")){ subdivisions = Integer.parseInt(args[++i]); continue; }
+      obj = new File(args[i]);
+    }
+
+    System.out.println("\nscene");
+    runScene(obj);
+
+    System.out.println("\nsoftbody");
+    runBall3D(subdivisions);
+  }
+
+}
@@ -0,0 +1,214 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.thomasdiewald.pixelflow.java.geometry.DwIndexedFaceSet;
+import com.thomasdiewald.pixelflow.java.geometry.DwIndexedFaceSetAble;
+import com.thomasdiewald.pixelflow.java.geometry.DwIndexedFaceSetFlat;
+import com.thomasdiewald.pixelflow.java.geometry.DwMeshCleaner;
+
+
+/**
+ *
+ * DwMeshCleaner.removeDuplicateVerts() on a triangle soup, (a grid of quads,
+ * 6 verts per quad, no shared verts), as DwIndexedFaceSet and as
+ * DwIndexedFaceSetFlat.<br>
+ * <br>
+ * Before the timings, both sets are checked: same number of welded verts,
+ * (the closed form for the grid), all face indices valid, and remapVerts()
+ * drops an unreferenced vertex. A failed check throws.<br>
+ * The timed runs include creating the soup.<br>
+ * <br>
+ * usage: MeshCleanerBenchmark [-threads N] [quads_x ...]
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class MeshCleanerBenchmark {
+
+  static DwBenchmark bench = new DwBenchmark(3, 10);
+
+  static int num_threads = 1;
+
+
+  /**
+   * quads_x * quads_y quads, 2 triangles each, unit spacing, optionally
+   * jittered by +/- jitter.
+   */
+  static public float[][] createSoupVerts(int quads_x, int quads_y, float jitter, long seed){
+    Random rand = new Random(seed);
+    float[][] verts = new float[quads_x * quads_y * 6][];
+    int[] qx = {0, 1, 1,  0, 1, 0};
+    int[] qy = {0, 0, 1,  0, 1, 1};
+    for(int y = 0, k = 0; y < quads_y; y++){
+      for(int x = 0; x < quads_x; x++){
+        for(int j = 0; j < 6; j++, k++){
+          float jx = (rand.nextFloat() * 2 - 1) * jitter;
+          float jy = (rand.nextFloat() * 2 - 1) * jitter;
+          verts[k] = new float[]{ x + qx[j] + jx, y + qy[j] + jy, 0 };
+        }
+      }
+    }
+    return verts;
+  }
+
+  static public int[][] createSoupFaces(int verts_count){
+    int[][] faces = new int[verts_count / 3][];
+    for(int i = 0; i < faces.length; i++){
+      faces[i] = new int[]{ i * 3 + 0, i * 3 + 1, i * 3 + 2 };
+    }
+    return faces;
+  }
+
+  static public DwIndexedFaceSet createSoup(int quads_x, int quads_y){
+    float[][] verts = createSoupVerts(quads_x, quads_y, 0, 0);
+    return new DwIndexedFaceSet(verts, createSoupFaces(verts.length));
+  }
+
+  static public DwIndexedFaceSetFlat createSoupFlat(int quads_x, int quads_y){
+    DwIndexedFaceSetFlat ifs = new DwIndexedFaceSetFlat(3, 0, 0);
+    float[][] verts = createSoupVerts(quads_x, quads_y, 0, 0);
+    ifs.setVerts(verts);
+    ifs.setFaces(createSoupFaces(verts.length));
+    return ifs;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // CHECK
+  //////////////////////////////////////////////////////////////////////////////
+
+  static private void checkFaces(String name, DwIndexedFaceSetAble ifs){
+    int verts_count = ifs.getVertsCount();
+    int[][] faces = ifs.getFaces();
+    for(int i = 0; i < ifs.getFacesCount(); i++){
+      for(int j = 0; j < faces[i].length; j++){
+        if(faces[i][j] < 0 || faces[i][j] >= verts_count){
+          throw new IllegalStateException(name+": face["+i+"] references vertex "+faces[i][j]+", verts_count "+verts_count);
+        }
+      }
+    }
+    if(ifs instanceof DwIndexedFaceSetFlat){
+      DwIndexedFaceSetFlat flat = (DwIndexedFaceSetFlat) ifs;
+      for(int i = 0; i < flat.faces_count * flat.verts_per_face; i++){
+        if(flat.faces[i] < 0 || flat.faces[i] >= flat.verts_count){
+          throw new IllegalStateException(name+": flat faces["+i+"] references vertex "+flat.faces[i]+", verts_count "+flat.verts_count);
+        }
+      }
+    }
+  }
+
+  static private void checkCount(String name, DwIndexedFaceSetAble ifs, int expected){
+    checkFaces(name, ifs);
+    if(ifs.getVertsCount() != expected){
+      throw new IllegalStateException(name+": verts_count "+ifs.getVertsCount()+", expected "+expected);
+    }
+    System.out.println("    check "+name+": verts "+expected+", ok");
+  }
+
+  static public void check(){
+    DwMeshCleaner cleaner;
+
+    // two triangles, one shared edge
+    DwIndexedFaceSet     ifs  = createSoup(1, 1);
+    DwIndexedFaceSetFlat flat = createSoupFlat(1, 1);
+    new DwMeshCleaner(ifs ).removeDuplicateVerts(0.001f);
+    new DwMeshCleaner(flat).removeDuplicateVerts(0.001f);
+    checkCount("quad, DwIndexedFaceSet"    , ifs , 4);
+    checkCount("quad, DwIndexedFaceSetFlat", flat, 4);
+
+    // unreferenced vertex, between the referenced ones
+    flat = new DwIndexedFaceSetFlat(3, new float[]{0,0,0, 5,5,5, 1,0,0, 0,1,0}, 4, new int[]{0, 2, 3}, 1);
+    new DwMeshCleaner(flat).remapVerts();
+    checkCount("remap, DwIndexedFaceSetFlat", flat, 3);
+    if(flat.verts[3] != 1 || flat.faces[1] != 1){
+      throw new IllegalStateException("remap, DwIndexedFaceSetFlat: wrong vertex order");
+    }
+
+    // grid, welded, jittered
+    int nx = 64, ny = 64;
+    float[][] verts = createSoupVerts(nx, ny, 0.001f, 1);
+    ifs  = new DwIndexedFaceSet(verts, createSoupFaces(verts.length));
+    flat = new DwIndexedFaceSetFlat(3, 0, 0);
+    flat.setVerts(createSoupVerts(nx, ny, 0.001f, 1));
+    flat.setFaces(createSoupFaces(verts.length));
+    cleaner = new DwMeshCleaner(ifs, num_threads);
+    cleaner.removeDuplicateVerts(0.01f);
+    cleaner.release();
+    cleaner = new DwMeshCleaner(flat, num_threads);
+    cleaner.removeDuplicateVerts(0.01f);
+    cleaner.release();
+    checkCount("grid, DwIndexedFaceSet"    , ifs , (nx + 1) * (ny + 1));
+    checkCount("grid, DwIndexedFaceSetFlat", flat, (nx + 1) * (ny + 1));
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // RUNS
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public void run(final int quads_x){
+    final int quads_y = quads_x;
+    System.out.println("\n"+quads_x+" x "+quads_y+" quads, "+(quads_x * quads_y * 6)+" verts");
+
+    bench.run("removeDuplicateVerts, DwIndexedFaceSet", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        DwMeshCleaner cleaner = new DwMeshCleaner(createSoup(quads_x, quads_y), num_threads);
+        cleaner.removeDuplicateVerts(0.001f);
+        cleaner.release();
+      }
+    });
+    bench.run("removeDuplicateVerts, DwIndexedFaceSetFlat", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        DwMeshCleaner cleaner = new DwMeshCleaner(createSoupFlat(quads_x, quads_y), num_threads);
+        cleaner.removeDuplicateVerts(0.001f);
+        cleaner.release();
+      }
+    });
+    bench.run("weldVerts(0), exact positions", new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        DwMeshCleaner cleaner = new DwMeshCleaner(createSoup(quads_x, quads_y), num_threads);
+        cleaner.weldVerts(0);
+        cleaner.release();
+      }
+    });
+  }
+
+
+  public static void main(String[] args){
+    int[] sizes = {32, 128};
+    int num_sizes = 0;
+    for(int i = 0; i < args.length; i++){
+      if(args[i].equals("-threads")){ num_threads = Integer.parseInt(args[++i]); continue; }
+      if(num_sizes == 0) sizes = new int[args.length];
+      sizes[num_sizes++] = Integer.parseInt(args[i]);
+    }
+    if(num_sizes > 0){
+      sizes = Arrays.copyOf(sizes, num_sizes);
+    }
+
+    System.out.println("\ncheck");
+    check();
+
+    for(int size : sizes){
+      run(size);
+    }
+  }
+
+}
@@ -0,0 +1,193 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysicsProfiler;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleStore;
+
+
+/**
+ *
+ * DwPhysics.update() on 2D and 3D particle clouds, no springs.<br>
+ * <br>
+ * Particles with random radii fill 30% of the bounds (area in 2D, volume in
+ * 3D), gravity is on. Each cloud is simulated as
+ * <ul>
+ * <li> objects: DwParticle2D/DwParticle3D, default update</li>
+ * <li> store:   DwParticleStore only, (DwPhysics.setParticleStore())</li>
+ * </ul>
+ * One run = one DwPhysics.update(1). The per-phase split is printed from a
+ * DwPhysicsProfiler, over some extra frames after the timed runs.<br>
+ * <br>
+ * usage: PhysicsBenchmark [-objects|-store] [-threads N] [particle_count ...]
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class PhysicsBenchmark {
+
+  static public final long SEED = 0;
+
+  static public DwPhysics.Param createParam(int dim, int count){
+    float size = (dim == 3) ? 100 * (float) Math.cbrt(count) : 100 * (float) Math.sqrt(count);
+    DwPhysics.Param param = new DwPhysics.Param();
+    param.iterations_collisions = 2;
+    param.iterations_springs    = 0;
+    if(dim == 3){
+      param.GRAVITY = new float[]{ 0, 0, -0.1f };
+      param.bounds  = new float[]{ 0, 0, 0, size, size, size };
+    } else {
+      param.GRAVITY = new float[]{ 0, 0.1f, 0 };
+      param.bounds  = new float[]{ 0, 0, size, size };
+    }
+    return param;
+  }
+
+  static private float radius(int dim, int count, float[] bounds, float fill_factor){
+    float bsx = (dim == 3) ? bounds[3] - bounds[0] : bounds[2] - bounds[0];
+    float bsy = (dim == 3) ? bounds[4] - bounds[1] : bounds[3] - bounds[1];
+    float bsz = (dim == 3) ? bounds[5] - bounds[2] : 1;
+    return (float) Math.pow(bsx * bsy * bsz * fill_factor / count, 1.0 / dim) * 0.5f;
+  }
+
+
+  /**
+   * particle cloud as DwParticle2D/DwParticle3D objects.
+   */
+  static public DwParticle[] createParticles(int dim, int count, float[] bounds, float fill_factor, long seed){
+    DwParticle.Param param = new DwParticle.Param();
+    param.DAMP_BOUNDS    = 0.5f;
+    param.DAMP_COLLISION = 0.9f;
+    param.DAMP_VELOCITY  = 0.99f;
+
+    float radius = radius(dim, count, bounds, fill_factor);
+    Random rand = new Random(seed);
+
+    if(dim == 3){
+      DwParticle3D[] particles = new DwParticle3D[count];
+      DwParticle3D.MAX_RAD = radius * 1.4f;
+      for(int i = 0; i < count; i++){
+        float r = radius * (0.6f + 0.8f * rand.nextFloat());
+        float x = bounds[0] + rand.nextFloat() * (bounds[3] - bounds[0]);
+        float y = bounds[1] + rand.nextFloat() * (bounds[4] - bounds[1]);
+        float z = bounds[2] + rand.nextFloat() * (bounds[5] - bounds[2]);
+        particles[i] = new DwParticle3D(i, x, y, z, r, param);
+        particles[i].setCollisionGroup(i);
+      }
+      return particles;
+    } else {
+      DwParticle2D[] particles = new DwParticle2D[count];
+      DwParticle2D.MAX_RAD = radius * 1.4f;
+      for(int i = 0; i < count; i++){
+        float r = radius * (0.6f + 0.8f * rand.nextFloat());
+        float x = bounds[0] + rand.nextFloat() * (bounds[2] - bounds[0]);
+        float y = bounds[1] + rand.nextFloat() * (bounds[3] - bounds[1]);
+        particles[i] = new DwParticle2D(i, x, y, r, param);
+        particles[i].setCollisionGroup(i);
+      }
+      return particles;
+    }
+  }
+
+  /**
+   * the same particle cloud, as DwParticleStore.
+   */
+  static public DwParticleStore createStore(int dim, int count, float[] bounds, float fill_factor, long seed){
+    DwParticle[] particles = createParticles(dim, count, bounds, fill_factor, seed);
+    DwParticleStore store = new DwParticleStore();
+    store.pull(particles, count);
+    return store;
+  }
+
+
+  static public void run(int dim, int count, boolean objects, int threads){
+    DwPhysics.Param param = createParam(dim, count);
+    param.num_threads = threads;
+
+    final DwPhysics<DwParticle> physics = new DwPhysics<DwParticle>(param);
+    physics.update_particle_shapes = false;
+    if(objects){
+      physics.setParticles(createParticles(dim, count, param.bounds, 0.3f, SEED), count);
+    } else {
+      physics.setParticleStore(createStore(dim, count, param.bounds, 0.3f, SEED));
+    }
+
+    int runs = count >= 1000000 ? 3 : (count >= 100000 ? 5 : 20);
+    DwBenchmark bench = new DwBenchmark(2, runs);
+
+    String name = String.format("update, %dD, %7d, %s", dim, count, objects ? "objects" : "store");
+    bench.run(name, new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        physics.update(1);
+      }
+    });
+
+    printPhases(physics, Math.min(runs, 5));
+
+    physics.release();
+  }
+
+
+  /**
+   * runs some more updates with a profiler and prints the average per phase.
+   */
+  static public void printPhases(DwPhysics<?> physics, int frames){
+    DwPhysicsProfiler profiler = new DwPhysicsProfiler(frames);
+    physics.setProfiler(profiler);
+    for(int i = 0; i < frames; i++){
+      physics.update(1);
+    }
+    physics.setProfiler(null);
+
+    StringBuilder sb = new StringBuilder("   ");
+    for(int i = 0; i < DwPhysicsProfiler.NUM_PHASES; i++){
+      sb.append(String.format(" %s %.2f ms,", DwPhysicsProfiler.PHASE_NAMES[i], profiler.getPhaseMillis(i, frames)));
+    }
+    System.out.println(sb);
+  }
+
+
+  public static void main(String[] args){
+    boolean run_objects = true;
+    boolean run_store   = true;
+    int threads = 1;
+
+    int[] counts = {10000, 100000, 1000000};
+    int num_counts = 0;
+    for(int i = 0; i < args.length; i++){
+      if(args[i].equals("-objects")){ run_store   = false; continue; }
+      if(args[i].equals("-store"  )){ run_objects = false; continue; }
+      if(args[i].equals("-threads")){ threads = Integer.parseInt(args[++i]); continue; }
+      if(num_counts == 0) counts = new int[args.length];
+      counts[num_counts++] = Integer.parseInt(args[i]);
+    }
+    if(num_counts > 0){
+      counts = Arrays.copyOf(counts, num_counts);
+    }
+
+    for(int dim = 2; dim <= 3; dim++){
+      System.out.println("\n"+dim+"D");
+      for(int count : counts){
+        if(run_objects) run(dim, count, true , threads);
+        if(run_store  ) run(dim, count, false, threads);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.benchmark;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.softbody.DwSoftBall3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.softbody.DwSoftGrid2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.softbody.DwSoftGrid3D;
+
+
+/**
+ *
+ * Softbody hot paths, without rendering.<br>
+ * <br>
+ * <ul>
+ * <li> spring relaxation: DwPhysics.update() on a number of DwSoftGrid2D /
+ *      DwSoftGrid3D bodies, collisions off, default objects vs. store path</li>
+ * <li> creation: DwSoftBall3D.create() for a few subdivisions</li>
+ * </ul>
+ * The bodies have no random inputs, so every run is the same.<br>
+ * <br>
+ * usage: SoftBodyBenchmark [-threads N] [num_bodies]
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class SoftBodyBenchmark {
+
+  static public DwPhysics.Param createParam(int dim){
+    DwPhysics.Param param = new DwPhysics.Param();
+    param.iterations_collisions = 0;
+    param.iterations_springs    = 8;
+    if(dim == 3){
+      param.GRAVITY = new float[]{ 0, 0, -0.1f };
+      param.bounds  = new float[]{ -5000, -5000, 0, 5000, 5000, 5000 };
+    } else {
+      param.GRAVITY = new float[]{ 0, 0.1f, 0 };
+      param.bounds  = new float[]{ 0, 0, 10000, 10000 };
+    }
+    return param;
+  }
+
+
+  static public void runGrid2D(int num_bodies, boolean store, int threads){
+    DwPhysics.Param param = createParam(2);
+    param.num_threads = threads;
+
+    final DwPhysics<DwParticle2D> physics = new DwPhysics<DwParticle2D>(param);
+    physics.update_particle_shapes = false;
+    physics.use_particle_store = store;
+
+    // 64 x 64 nodes per body
+    int cols = (int) Math.ceil(Math.sqrt(num_bodies));
+    for(int i = 0; i < num_bodies; i++){
+      DwSoftGrid2D body = new DwSoftGrid2D();
+      body.create(physics, 64, 64, 4, 100 + (i % cols) * 600, 100 + (i / cols) * 600);
+    }
+
+    run(physics, String.format("springs, DwSoftGrid2D x %3d, %s", num_bodies, store ? "store" : "objects"));
+  }
+
+
+  static public void runGrid3D(int num_bodies, boolean store, int threads){
+    DwPhysics.Param param = createParam(3);
+    param.num_threads = threads;
+
+    final DwPhysics<DwParticle3D> physics = new DwPhysics<DwParticle3D>(param);
+    physics.update_particle_shapes = false;
+    physics.use_particle_store = store;
+
+    // 16 x 16 x 16 nodes per body
+    int cols = (int) Math.ceil(Math.sqrt(num_bodies));
+    for(int i = 0; i < num_bodies; i++){
+      DwSoftGrid3D body = new DwSoftGrid3D();
+      body.create(physics, 16, 16, 16, 4, -4000 + (i % cols) * 200, -4000 + (i / cols) * 200, 100);
+    }
+
+    run(physics, String.format("springs, DwSoftGrid3D x %3d, %s", num_bodies, store ? "store" : "objects"));
+  }
+
+
+  static private void run(final DwPhysics<?> physics, String name){
+    DwBenchmark bench = new DwBenchmark(3, 10);
+    bench.run(name, new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        physics.update(1);
+      }
+    });
+    System.out.println("    particles: "+physics.getParticlesCount()+", springs: "+physics.getSpringCount());
+    PhysicsBenchmark.printPhases(physics, 5);
+    physics.release();
+  }
+
+
+  static public void runBall3D(final int subdivisions){
+    DwBenchmark bench = new DwBenchmark(3, subdivisions >= 5 ? 5 : 20);
+    bench.run(String.format("DwSoftBall3D.create, subdivisions %d", subdivisions), new DwBenchmark.Task() {
+      @Override
+      public void run() {
+        DwPhysics<DwParticle3D> physics = new DwPhysics<DwParticle3D>(createParam(3));
+        DwSoftBall3D body = new DwSoftBall3D();
+        body.create(physics, subdivisions, 500, 0, 0, 1000);
+      }
+    });
+  }
+
+
+  public static void main(String[] args){
+    int threads = 1;
+    int num_bodies = 16;
+    for(int i = 0; i < args.length; i++){
+      if(args[i].equals("-threads")){ threads = Integer.parseInt(args[++i]); continue; }
+      num_bodies = Integer.parseInt(args[i]);
+    }
+
+    System.out.println("\nspring relaxation");
+    runGrid2D(num_bodies, false, threads);
+    runGrid2D(num_bodies, true , threads);
+    runGrid3D(num_bodies, false, threads);
+    runGrid3D(num_bodies, true , threads);
+
+    System.out.println("\ncreate");
+    for(int subdivisions = 3; subdivisions <= 5; subdivisions++){
+      runBall3D(subdivisions);
+    }
+  }
+
+}
@@ -10,6 +10,7 @@
 package OpticalFlow.OpticalFlow_CaptureVerletParticles;
 
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.render.DwParticleShape2D;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
@@ -117,7 +118,7 @@ public class ParticleSystem {
     PImage sprite = createSprite();
     for (int i = 0; i < PARTICLE_COUNT; i++) {
       PShape shp_particle = createParticleShape(particles[i], sprite);
-      particles[i].setShape(shp_particle);
+      particles[i].setShape(new DwParticleShape2D(shp_particle));
       shp_particlesystem.addChild(shp_particle);
     }
   }
@@ -12,6 +12,7 @@ package OpticalFlow.OpticalFlow_ExportPFM.Demo_OpticalFlowDraw_PFM;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteOrder;
 
 import com.jogamp.opengl.GL2;
 import com.thomasdiewald.pixelflow.java.DwPixelFlow;
@@ -190,14 +191,6 @@ public class Demo_OpticalFlowDraw_PFM extends PApplet {
     // copy original velocity-texture to a smaller one, GPU
     DwFilter.get(context).copy.apply(tex, tex_small);
     
-    // read velocity-texture from GPU memory to our local memory
-    pfm_w.float_array = tex_small.getFloatTextureData(pfm_w.float_array);
-    
-    // optionally do some post-process, CPU
-    if(normalize_velocities){
-      normalizeVelocities(pfm_w.float_array, w, h);
-    }
-    
     // write PMF file
     try {
       
@@ -209,8 +202,23 @@ public class Demo_OpticalFlowDraw_PFM extends PApplet {
       // create unique filename
       File filename = fcapture.createFilename(String.format("%d_%d", w, h), "pfm");
       
-      // write file
-      pfm_w.write(filename,  pfm_w.float_array, w, h);
+      if(normalize_velocities){
+        // read velocity-texture from GPU memory to our local memory
+        pfm_w.float_array = tex_small.getFloatTextureData(pfm_w.float_array);
+        
+        // optionally do some post-process, CPU
+        normalizeVelocities(pfm_w.float_array, w, h);
+        
+        // write file
+        pfm_w.write(filename,  pfm_w.float_array, w, h);
+      } else {
+        // read velocity-texture from GPU memory directly into the file
+        pfm_w.bigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+        tex_small.getData_GL2GL3(pfm_w.mapWrite(filename, w, h, false));
+        if(pmf_debug_check){
+          pfm_w.float_array = tex_small.getFloatTextureData(pfm_w.float_array);
+        }
+      }
       System.out.println("pfm-file: "+filename.getAbsolutePath());
 
       // optionally check data
@@ -10,6 +10,7 @@
 package SoftBody2D.SoftBody2D_Liquid;
 
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.render.DwParticleShape2D;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
@@ -133,7 +134,7 @@ public class ParticleSystem {
     
     for (int i = 0; i < PARTICLE_COUNT; i++) {
       PShape shp_particle = createParticleShape(particles[i], sprite);
-      particles[i].setShape(shp_particle);
+      particles[i].setShape(new DwParticleShape2D(shp_particle));
       if(i != IDX_MOUSE_PARTICLE){
         shp_particlesystem.addChild(shp_particle);
       }
@@ -16,6 +16,7 @@ import com.thomasdiewald.pixelflow.java.imageprocessing.filter.DwFilter;
 import com.thomasdiewald.pixelflow.java.imageprocessing.filter.DwLiquidFX;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.render.DwParticleShape2D;
 
 import controlP5.Accordion;
 import controlP5.ControlP5;
@@ -146,7 +147,7 @@ public class SoftBody2D_Liquid extends PApplet {
     pg_particles2.blendMode(REPLACE);
     pg_particles2.background(BACKGROUND_COLOR, 0);
     pg_particles2.blendMode(BLEND);
-    pg_particles2.shape(mparticle.getShape());
+    pg_particles2.shape(((DwParticleShape2D) mparticle.getShape()).shape);
     pg_particles2.endDraw();
     
 
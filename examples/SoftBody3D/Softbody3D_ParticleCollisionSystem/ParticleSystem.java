@@ -14,6 +14,7 @@ import com.thomasdiewald.pixelflow.java.geometry.DwIcosahedron;
 import com.thomasdiewald.pixelflow.java.geometry.DwIndexedFaceSetAble;
 import com.thomasdiewald.pixelflow.java.geometry.DwMeshUtils;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.render.DwParticleShape3D;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
@@ -137,7 +138,7 @@ public class ParticleSystem {
     
     for (int i = 0; i < PARTICLE_COUNT; i++) {
       PShape shp_particle = createParticleShape(particles[i]);
-      particles[i].setShape(shp_particle);
+      particles[i].setShape(new DwParticleShape3D(shp_particle));
       shp_particlesystem.addChild(shp_particle);
     }
 
@@ -12,17 +12,45 @@ package com.thomasdiewald.pixelflow.java.accelerationstructures;
 
 import java.util.Arrays;
 
+
+/**
+ *
+ * Uniform grid for collision detection, 2D or 3D.<br>
+ * <br>
+ * Each object is inserted into all cells its collision radius overlaps, cells
+ * are stored as per-pixel-linked-lists (PPLL).<br>
+ * In 2D (GRID_Z == 1) the z-coordinate is ignored. By default the dimension
+ * is chosen automatically: 2D if all objects have the same z-coordinate, e.g.
+ * DwParticle2D, otherwise 3D.<br>
+ * Cell coordinates are clamped to the grid bounds.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
 public class DwCollisionGrid{
+
+  // 0 ... auto, 2 ... 2D (xy), 3 ... 3D (xyz)
+  private int     DIMENSION = 0;
+  private boolean is3D = false;
   
   private float CELL_SIZE = 10f;
   private int   GRID_X; 
   private int   GRID_Y;
+  private int   GRID_Z = 1;
 
-  private int               HEAD_PTR;
-  private int[]             HEAD = new int[0];
-  private int[]             NEXT = new int[0];
+  // limits the number of cells, in relation to the number of objects
+  static private final int MAX_CELLS_PER_OBJECT = 8;
+  static private final int MIN_CELLS            = 1 << 16;
+
+  // PPLL, index 0 is reserved for "end of list"
+  private int                 HEAD_PTR = 1;
+  private int[]               HEAD = new int[0];
+  private int[]               NEXT = new int[0];
   private DwCollisionObject[] DATA = new DwCollisionObject[0];
 
+  // stats, number of tested pairs in solveCollision()
+  public long pair_tests = 0;
+
   public DwCollisionGrid(){
   }
   
@@ -30,24 +58,55 @@ public class DwCollisionGrid{
     init(bounds, max_radius);
   }
   
+  public DwCollisionGrid(float[] bounds, float max_radius, int dimension){
+    setDimension(dimension);
+    init(bounds, max_radius);
+  }
   
+
+  /**
+   * @param dimension 0 ... auto (default), 2 ... 2D (xy), 3 ... 3D (xyz)
+   */
+  public void setDimension(int dimension){
+    this.DIMENSION = dimension;
+  }
+
+  public int getDimension(){
+    return is3D ? 3 : 2;
+  }
+
+  public int getCellCount(){
+    return GRID_X * GRID_Y * GRID_Z;
+  }
+
+  public float getCellSize(){
+    return CELL_SIZE;
+  }
+
+
+  /**
+   * fixed bounds, for incrementally inserting objects, e.g. Poisson sampling.
+   * In auto mode, the grid is 3D if the bounds have a z-extent.
+   */
   public void init(float[] bounds_, float max_radius){
     CELL_SIZE = max_radius * 2;
     bounds = bounds_;
+    is3D = (DIMENSION == 0) ? (bounds[5] > bounds[2]) : (DIMENSION == 3);
     int gx = (int) Math.ceil((bounds[3] - bounds[0])/CELL_SIZE)+1;
     int gy = (int) Math.ceil((bounds[4] - bounds[1])/CELL_SIZE)+1;
-    int ppll_len = gx * gy * 4; // just a guess
+    int gz = is3D ? (int) Math.ceil((bounds[5] - bounds[2])/CELL_SIZE)+1 : 1;
+    int ppll_len = gx * gy * gz * 4; // just a guess
     
     // 1) resize if necessary
-    resize(gx, gy, ppll_len);
+    resize(gx, gy, gz, ppll_len);
   }
   
-  private void resize(int gx, int gy, int PPLL_size){
+  private void resize(int gx, int gy, int gz, int PPLL_size){
     
     // HEAD pointers
-    if( (gx * gy) > HEAD.length){
-      HEAD = new int[gx * gy];
-//      System.out.println("CollisionGridAccelerator.resize -> HEAD: "+gx+", "+gy);
+    if( (gx * gy * gz) > HEAD.length){
+      HEAD = new int[gx * gy * gz];
+//      System.out.println("CollisionGridAccelerator.resize -> HEAD: "+gx+", "+gy+", "+gz);
     }
 
     // NEXT pointers, DATA array
@@ -58,17 +117,16 @@ public class DwCollisionGrid{
 //      System.out.println("CollisionGridAccelerator.resize -> NEXT/DATA: "+size_new+", "+PPLL_size);
     }
     
-    // clear NEXT pointers
-    for(int i = 0; i < HEAD.length; i++) HEAD[i] = 0;
-//    for(int i = 0; i < NEXT.length; i++) NEXT[i] = 0;
-//    for(int i = 0; i < DATA.length; i++) DATA[i] = null; 
+    // clear HEAD pointers
+    Arrays.fill(HEAD, 0, gx * gy * gz, 0);
 
     // reset HEAD pointer
-    HEAD_PTR = 0;
+    HEAD_PTR = 1;
     
     // set grid size
     GRID_X = gx;
     GRID_Y = gy;
+    GRID_Z = gz;
   }
   
   
@@ -85,7 +143,7 @@ public class DwCollisionGrid{
       DwCollisionObject[] TMP_DATA = Arrays.copyOf(DATA, DATA.length);
       
       // realloc
-      resize(GRID_X, GRID_Y, HEAD_PTR);
+      resize(GRID_X, GRID_Y, GRID_Z, HEAD_PTR);
       
       // pop
       HEAD_PTR = TMP_HEAD_PTR;
@@ -99,35 +157,52 @@ public class DwCollisionGrid{
   }
   
   
-//  public void testCollision
+
+  // cell range of the last call to cellRange()
+  private int xmin, xmax, ymin, ymax, zmin, zmax;
+
+  private void cellRange(DwCollisionObject object){
+    float pr = object.radCollision();
+    float px = object.x() - bounds[0];
+    float py = object.y() - bounds[1];
+
+    xmin = clamp((int)((px-pr)/CELL_SIZE), GRID_X);
+    xmax = clamp((int)((px+pr)/CELL_SIZE), GRID_X);
+    ymin = clamp((int)((py-pr)/CELL_SIZE), GRID_Y);
+    ymax = clamp((int)((py+pr)/CELL_SIZE), GRID_Y);
+
+    if(GRID_Z > 1){
+      float pz = object.z() - bounds[2];
+      zmin = clamp((int)((pz-pr)/CELL_SIZE), GRID_Z);
+      zmax = clamp((int)((pz+pr)/CELL_SIZE), GRID_Z);
+    } else {
+      zmin = zmax = 0;
+    }
+  }
+
+  static private final int clamp(int v, int size){
+    return v < 0 ? 0 : (v >= size ? size - 1 : v);
+  }
   
   
   public void insert(DwCollisionObject object){
-    float pr = object.radCollision();
-    float px = object.x();
-    float py = object.y();
-    
-    px -= bounds[0];
-    py -= bounds[1];
-    
-    int xmin = (int)((px-pr)/CELL_SIZE);  xmin = Math.max(xmin, 0);
-    int xmax = (int)((px+pr)/CELL_SIZE);  xmax = Math.min(xmax, GRID_X-1);
-    int ymin = (int)((py-pr)/CELL_SIZE);  ymin = Math.max(ymin, 0);
-    int ymax = (int)((py+pr)/CELL_SIZE);  ymax = Math.min(ymax, GRID_Y-1);
+    cellRange(object);
     
-    int count = (xmax - xmin + 1) * (ymax - ymin + 1);
+    int count = (xmax - xmin + 1) * (ymax - ymin + 1) * (zmax - zmin + 1);
     if(HEAD_PTR + count > NEXT.length){
       HEAD_PTR += count; // prepare for reallocation
       return;
     }
 
-    for(int y = ymin; y <= ymax ; y++){
-      for(int x = xmin; x <= xmax ; x++){
-        int gid = y * GRID_X + x;
-        int new_head = HEAD_PTR++;
-        int old_head = HEAD[gid]; HEAD[gid] = new_head; // xchange head pointer
-        NEXT[new_head] = old_head;
-        DATA[new_head] = object;
+    for(int z = zmin; z <= zmax ; z++){
+      for(int y = ymin; y <= ymax ; y++){
+        int gid = (z * GRID_Y + y) * GRID_X + xmin;
+        for(int x = xmin; x <= xmax ; x++, gid++){
+          int new_head = HEAD_PTR++;
+          int old_head = HEAD[gid]; HEAD[gid] = new_head; // xchange head pointer
+          NEXT[new_head] = old_head;
+          DATA[new_head] = object;
+        }
       }
     }
   }
@@ -143,26 +218,19 @@ public class DwCollisionGrid{
   
   
   public void solveCollision(DwCollisionObject object){
-    float pr = object.radCollision();
-    float px = object.x();
-    float py = object.y();
+    cellRange(object);
     
-    px -= bounds[0];
-    py -= bounds[1];
-    
-    int xmin = (int)((px-pr)/CELL_SIZE);  xmin = Math.max(xmin, 0);
-    int xmax = (int)((px+pr)/CELL_SIZE);  xmax = Math.min(xmax, GRID_X-1);
-    int ymin = (int)((py-pr)/CELL_SIZE);  ymin = Math.max(ymin, 0);
-    int ymax = (int)((py+pr)/CELL_SIZE);  ymax = Math.min(ymax, GRID_Y-1);
-
-    for(int y = ymin; y <= ymax ; y++){
-      for(int x = xmin; x <= xmax ; x++){
-        int gid = y * GRID_X + x;
-        int head = HEAD[gid];
-        while(head > 0){
-          DwCollisionObject othr = DATA[head];
-          object.update(othr);  
-          head = NEXT[head];
+    for(int z = zmin; z <= zmax ; z++){
+      for(int y = ymin; y <= ymax ; y++){
+        int gid = (z * GRID_Y + y) * GRID_X + xmin;
+        for(int x = xmin; x <= xmax ; x++, gid++){
+          int head = HEAD[gid];
+          while(head > 0){
+            DwCollisionObject othr = DATA[head];
+            object.update(othr);
+            head = NEXT[head];
+            pair_tests++;
+          }
         }
       }
     }
@@ -189,18 +257,21 @@ public class DwCollisionGrid{
   public void computeBounds(DwCollisionObject[] particles, int num_particles){ 
     float x_min = +Float.MAX_VALUE;
     float y_min = +Float.MAX_VALUE;
-    float z_min=  +Float.MAX_VALUE;
+    float z_min = +Float.MAX_VALUE;
     float x_max = -Float.MAX_VALUE;
     float y_max = -Float.MAX_VALUE;
     float z_max = -Float.MAX_VALUE;
     
-    CELL_SIZE = 1;
-    
     float r_sum = 0;
     
+    // z-range of the centers, to detect flat (2D) scenes
+    float zc_min = +Float.MAX_VALUE;
+    float zc_max = -Float.MAX_VALUE;
+    
     for(int i = 0; i < num_particles; i++){
       float x = particles[i].x();
       float y = particles[i].y();
+      float z = particles[i].z();
       float r = particles[i].radCollision();
       r_sum += r;
       
@@ -208,9 +279,11 @@ public class DwCollisionGrid{
       if(x+r > x_max) x_max = x+r;
       if(y-r < y_min) y_min = y-r;
       if(y+r > y_max) y_max = y+r;
+      if(z-r < z_min) z_min = z-r;
+      if(z+r > z_max) z_max = z+r;
       
-      // use max radius
-//      if(r*2 > CELL_SIZE) CELL_SIZE = r*2; 
+      if(z < zc_min) zc_min = z;
+      if(z > zc_max) zc_max = z;
     }
     
     bounds[0] = x_min;
@@ -219,7 +292,13 @@ public class DwCollisionGrid{
     bounds[3] = x_max;
     bounds[4] = y_max;
     bounds[5] = z_max;
-    CELL_SIZE = (r_sum * 2) /particles.length;
+    CELL_SIZE = (r_sum * 2) / Math.max(num_particles, 1);
+
+    if(DIMENSION == 0){
+      is3D = zc_max > zc_min;
+    } else {
+      is3D = DIMENSION == 3;
+    }
   }
   
 
@@ -230,34 +309,81 @@ public class DwCollisionGrid{
   }
   
   public void updateCollisions(DwCollisionObject[] particles, int num_particles){
+    if(num_particles == 0){
+      return;
+    }
+    build(particles, num_particles);
+    solve(particles, num_particles);
+  }
+
+
+  /**
+   * builds the grid for the given objects, (first part of updateCollisions()).
+   */
+  public void build(DwCollisionObject[] particles, int num_particles){
+    if(num_particles == 0){
+      return;
+    }
 
     // 0) prepare dimensions, size,
     computeBounds(particles, num_particles);
-    int gx = (int) Math.ceil((bounds[3] - bounds[0])/CELL_SIZE)+1;
-    int gy = (int) Math.ceil((bounds[4] - bounds[1])/CELL_SIZE)+1;
-    int ppll_len = particles.length * 4 + 1; // just a guess
+    if(!(CELL_SIZE > 0)){
+      CELL_SIZE = 1;
+    }
+
+    // limit number of cells, e.g. for a few far away particles
+    int max_cells = Math.max(num_particles * MAX_CELLS_PER_OBJECT, MIN_CELLS);
+    int gx, gy, gz;
+    while(true){
+      gx = (int) Math.ceil((bounds[3] - bounds[0])/CELL_SIZE)+1;
+      gy = (int) Math.ceil((bounds[4] - bounds[1])/CELL_SIZE)+1;
+      gz = is3D ? (int) Math.ceil((bounds[5] - bounds[2])/CELL_SIZE)+1 : 1;
+      if((long) gx * gy * gz <= max_cells) break;
+      CELL_SIZE *= 1.5f;
+    }
+    int ppll_len = num_particles * (is3D ? 8 : 4) + 1; // just a guess
     
     // 1) resize if necessary
-    resize(gx, gy, ppll_len);
+    resize(gx, gy, gz, ppll_len);
     
     // 2) create per-pixel-linked-list (PPLL)
     create(particles, num_particles);
     
     // resize if necessary
     if(HEAD_PTR > NEXT.length){
-      resize(gx, gy, HEAD_PTR);
+      resize(gx, gy, gz, HEAD_PTR);
       create(particles, num_particles);
     }
+  }
     
-    // 3) solve collisions for each particle
+  /**
+   * solves collisions for the given objects, (second part of updateCollisions()).
+   */
+  public void solve(DwCollisionObject[] particles, int num_particles){
+    if(num_particles == 0){
+      return;
+    }
     solveCollisions(particles, num_particles);
   }
 
   
-  
-
-  
-
+  /**
+   * number of entries per cell, of the last build.<br>
+   * histogram[k] is the number of cells with k entries, the last bin counts
+   * all cells with (histogram.length-1) or more entries.
+   */
+  public void computeOccupancy(int[] histogram){
+    Arrays.fill(histogram, 0);
+    int last = histogram.length - 1;
+    int num_cells = GRID_X * GRID_Y * GRID_Z;
+    for(int gid = 0; gid < num_cells; gid++){
+      int n = 0;
+      for(int head = HEAD[gid]; head > 0 && n < last; head = NEXT[head]){
+        n++;
+      }
+      histogram[n]++;
+    }
+  }
   
   
-}
\ No newline at end of file
+}
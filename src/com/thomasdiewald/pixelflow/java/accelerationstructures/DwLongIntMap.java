@@ -0,0 +1,115 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.accelerationstructures;
+
+import java.util.Arrays;
+
+
+/**
+ *
+ * Primitive long -> int hashmap, open addressing with linear probing.<br>
+ * No boxing, no per-entry allocation.<br>
+ * Keys must be >= 0, e.g. a pair of non-negative int indices, see key(a, b).<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwLongIntMap {
+
+  static private final long EMPTY = -1L;
+
+  private long[] keys;
+  private int [] vals;
+  private int    mask;
+  private int    size;
+
+  public DwLongIntMap(){
+    this(16);
+  }
+
+  public DwLongIntMap(int capacity){
+    int len = 16;
+    while(len < capacity * 2) len <<= 1;
+    keys = new long[len];
+    vals = new int [len];
+    mask = len - 1;
+    Arrays.fill(keys, EMPTY);
+  }
+
+  static public final long key(int a, int b){
+    return ((long) a << 32) | (b & 0xFFFFFFFFL);
+  }
+
+  static private final int hash(long key){
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public void clear(){
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+  }
+
+  /**
+   * returns the value for the given key, or "missing" if the key is not in the map.
+   */
+  public int get(long key, int missing){
+    int pos = hash(key) & mask;
+    while(true){
+      long k = keys[pos];
+      if(k == key  ) return vals[pos];
+      if(k == EMPTY) return missing;
+      pos = (pos + 1) & mask;
+    }
+  }
+
+  public void put(long key, int val){
+    if((size + 1) * 2 > keys.length){
+      rehash(keys.length * 2);
+    }
+    int pos = hash(key) & mask;
+    while(true){
+      long k = keys[pos];
+      if(k == key){
+        vals[pos] = val;
+        return;
+      }
+      if(k == EMPTY){
+        keys[pos] = key;
+        vals[pos] = val;
+        size++;
+        return;
+      }
+      pos = (pos + 1) & mask;
+    }
+  }
+
+  private void rehash(int len){
+    long[] keys_old = keys;
+    int [] vals_old = vals;
+    keys = new long[len];
+    vals = new int [len];
+    mask = len - 1;
+    size = 0;
+    Arrays.fill(keys, EMPTY);
+    for(int i = 0; i < keys_old.length; i++){
+      if(keys_old[i] != EMPTY){
+        put(keys_old[i], vals_old[i]);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,51 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.accelerationstructures;
+
+
+/**
+ *
+ * Morton codes (Z-order curve), by interleaving the bits of the coordinates.<br>
+ * 2D: 16 bits per axis, 3D: 10 bits per axis.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwMortonCode {
+
+  // inserts a 0 bit after each of the lower 16 bits of v
+  static public final int part1By1(int v){
+    v &= 0x0000FFFF;
+    v = (v | (v << 8)) & 0x00FF00FF;
+    v = (v | (v << 4)) & 0x0F0F0F0F;
+    v = (v | (v << 2)) & 0x33333333;
+    v = (v | (v << 1)) & 0x55555555;
+    return v;
+  }
+
+  // inserts two 0 bits after each of the lower 10 bits of v
+  static public final int part1By2(int v){
+    v &= 0x000003FF;
+    v = (v | (v << 16)) & 0xFF0000FF;
+    v = (v | (v <<  8)) & 0x0300F00F;
+    v = (v | (v <<  4)) & 0x030C30C3;
+    v = (v | (v <<  2)) & 0x09249249;
+    return v;
+  }
+
+  static public final int encode2D(int x, int y){
+    return (part1By1(y) << 1) | part1By1(x);
+  }
+
+  static public final int encode3D(int x, int y, int z){
+    return (part1By2(z) << 2) | (part1By2(y) << 1) | part1By2(x);
+  }
+
+}
@@ -1,9 +1,6 @@
 package com.thomasdiewald.pixelflow.java.geometry;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-
-import com.thomasdiewald.pixelflow.java.accelerationstructures.DwPair;
 
 
 
@@ -13,10 +10,15 @@ public class DwCube implements DwIndexedFaceSetAble{
   public int       verts_count;
   public int  [][] faces;
   public float[][] verts;
-  private int      verts_idx;
-  private HashMap<DwPair<Integer>, Integer> verts_cache = new HashMap<DwPair<Integer>, Integer>();
+  
+  // flat buffers, [x, y, z, ...] and [a, b, c, d, ...]
+  public float[]   verts_flat;
+  public int  []   faces_flat;
 
   
+  public DwCube(){
+  }
+  
   public DwCube(int subdivisions){
     create(subdivisions);
   }
@@ -42,52 +44,39 @@ public class DwCube implements DwIndexedFaceSetAble{
   }
   
 
-  private int addVertex(float[][] verts, int verts_idx, float x, float y, float z){
+  private int addVertex(float[] verts, int verts_idx, float x, float y, float z){
     float dd_sq = x*x + y*y + z*z;
     float dd_inv = 1f / (float) Math.sqrt(dd_sq);
-    verts[verts_idx][0] = x * dd_inv;
-    verts[verts_idx][1] = y * dd_inv;
-    verts[verts_idx][2] = z * dd_inv;
+    verts[verts_idx*3+0] = x * dd_inv;
+    verts[verts_idx*3+1] = y * dd_inv;
+    verts[verts_idx*3+2] = z * dd_inv;
     return ++verts_idx;
   }
   
-  private int addFace(int[][] faces, int face_idx, int a, int b, int c, int d){
-    faces[face_idx][0] = a;
-    faces[face_idx][1] = b;
-    faces[face_idx][2] = c;
-    faces[face_idx][3] = d;
+  private int addFace(int[] faces, int face_idx, int a, int b, int c, int d){
+    faces[face_idx*4+0] = a;
+    faces[face_idx*4+1] = b;
+    faces[face_idx*4+2] = c;
+    faces[face_idx*4+3] = d;
     return ++face_idx;
   }
 
-  private int getCenter(int ia, int ib, int ic, int id){
-    float mx = (verts[ia][0] + verts[ib][0] + verts[ic][0] + verts[id][0]) * 0.25f;
-    float my = (verts[ia][1] + verts[ib][1] + verts[ic][1] + verts[id][1]) * 0.25f;
-    float mz = (verts[ia][2] + verts[ib][2] + verts[ic][2] + verts[id][2]) * 0.25f;
-    verts_idx = addVertex(verts, verts_idx, mx, my, mz);
-    return verts_idx-1;
+  public void create(int subdivisions){
+    create(subdivisions, 1, true);
   }
   
-  private int getCenter(int ia, int ib){
-    if(ib<ia){int it=ia;ia=ib;ib=it;}
-    DwPair<Integer> key = new DwPair<Integer>(ia, ib);
-    Integer     val = verts_cache.get(key);
-    if (val == null) {
-      float mx = (verts[ia][0] + verts[ib][0]) * 0.5f;
-      float my = (verts[ia][1] + verts[ib][1]) * 0.5f;
-      float mz = (verts[ia][2] + verts[ib][2]) * 0.5f;
-      verts_cache.put(key, (val = verts_idx));
-      verts_idx = addVertex(verts, verts_idx, mx, my, mz);
-    }
-    return val;
-  }
-
-  public void create(int subdivisions){
+  /**
+   * @param subdivisions number of subdivisions
+   * @param num_threads  threads, used for the subdivision
+   * @param jagged       false, to only create the flat buffers. verts[][] and
+   *                     faces[][] are then created on the first call of
+   *                     getVerts()/getFaces().
+   */
+  public void create(int subdivisions, int num_threads, boolean jagged){
     
     // 1) create initial vertex set
-    verts_count = getNumVerts(subdivisions);
-    verts       = new float[verts_count][3];
-    verts_idx   = 0;
-    verts_cache.clear();
+    float[] verts = new float[8 * 3];
+    int verts_idx = 0;
     
     float t = (float) Math.sqrt(3f);
 
@@ -105,10 +94,7 @@ public class DwCube implements DwIndexedFaceSetAble{
                                
 
     // 2) create initial face set
-    int curr_subdivision = 0; 
-    
-    faces_count = getNumFaces(curr_subdivision);
-    faces       = new int[faces_count][4];
+    int[] faces = new int[6 * 4];
 
     int face_idx = 0;
 
@@ -129,33 +115,21 @@ public class DwCube implements DwIndexedFaceSetAble{
     //       |      |      |
     //       d------cd-----c
     //
-    while(++curr_subdivision <= subdivisions){
-      
-      int     faces_new_count = getNumFaces(curr_subdivision);
-      int[][] faces_new       = new int[faces_new_count][4];
-      
-      for(int j = 0, face_new_idx = 0; j < faces_count; j++){
-        int ia = faces[j][0];
-        int ib = faces[j][1];
-        int ic = faces[j][2];
-        int id = faces[j][3];
-        int ie = getCenter(ia, ib, ic, id);
-        
-        int iab = getCenter(ia, ib);
-        int ibc = getCenter(ib, ic);
-        int icd = getCenter(ic, id);
-        int ida = getCenter(id, ia);
-
-        face_new_idx = addFace(faces_new, face_new_idx, ia, iab, ie, ida);
-        face_new_idx = addFace(faces_new, face_new_idx, ib, ibc, ie, iab);
-        face_new_idx = addFace(faces_new, face_new_idx, ic, icd, ie, ibc);
-        face_new_idx = addFace(faces_new, face_new_idx, id, ida, ie, icd);
-      }
-      
-      faces       = faces_new;
-      faces_count = faces_new_count;
+    DwSubdivision subdivision = new DwSubdivision(4, verts, verts_idx, faces, face_idx, num_threads);
+    subdivision.normalize = true;
+    subdivision.subdivide(subdivisions);
+    subdivision.release();
+    
+    this.verts_count = subdivision.verts_count;
+    this.faces_count = subdivision.faces_count;
+    this.verts_flat  = subdivision.verts;
+    this.faces_flat  = subdivision.faces;
+    this.verts       = null;
+    this.faces       = null;
+    if(jagged){
+      getVerts();
+      getFaces();
     }
-
   }
 
 
@@ -171,32 +145,57 @@ public class DwCube implements DwIndexedFaceSetAble{
 
   @Override
   public float[][] getVerts() {
+    if(verts == null){
+      verts = DwSubdivision.toVerts(verts_flat, verts_count);
+    }
     return verts;
   }
 
   @Override
   public int[][] getFaces() {
+    if(faces == null){
+      faces = DwSubdivision.toFaces(faces_flat, faces_count, 4);
+    }
     return faces;
   }
   
   @Override
   public void setVerts(float[][] verts) {
-    System.out.println("unimplemented");
+    this.verts_count = verts.length;
+    if(verts_flat == null || verts_flat.length != verts_count * 3){
+      verts_flat = new float[verts_count * 3];
+    }
+    for(int i = 0, k = 0; i < verts_count; i++){
+      verts_flat[k++] = verts[i][0];
+      verts_flat[k++] = verts[i][1];
+      verts_flat[k++] = verts[i][2];
+    }
+    this.verts = verts;
   }
 
   @Override
   public void setFaces(int[][] faces) {
-    System.out.println("unimplemented");
+    this.faces_count = faces.length;
+    if(faces_flat == null || faces_flat.length != faces_count * 4){
+      faces_flat = new int[faces_count * 4];
+    }
+    for(int i = 0; i < faces_count; i++){
+      if(faces[i].length != 4){
+        throw new IllegalArgumentException("DwCube: faces must have 4 verts, face["+i+"]: "+faces[i].length);
+      }
+      System.arraycopy(faces[i], 0, faces_flat, i * 4, 4);
+    }
+    this.faces = faces;
   }
 
   @Override
   public void setVerts(ArrayList<float[]> verts_list) {
-    System.out.println("unimplemented");
+    setVerts(verts_list.toArray(new float[verts_list.size()][]));
   }
 
   @Override
   public void setFaces(ArrayList<int[]> faces_list) {
-    System.out.println("unimplemented");
+    setFaces(faces_list.toArray(new int[faces_list.size()][]));
   }
   
   
@@ -10,10 +10,9 @@
 package com.thomasdiewald.pixelflow.java.geometry;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwStack;
-import com.thomasdiewald.pixelflow.java.accelerationstructures.DwPair;
 
 import processing.core.PConstants;
 import processing.opengl.PGraphics3D;
@@ -98,8 +97,8 @@ public class DwHalfEdge {
       faces = new DwHalfEdge.Face[faces_count];
       verts = new DwHalfEdge.Vert[verts_count];
       
-      // edgemap, for finding edge-pairs
-      HashMap<DwPair<Integer>, DwHalfEdge.Edge> edgemap = new HashMap<DwPair<Integer>, DwHalfEdge.Edge>();
+      int[] edge_vert = new int[edges_count];
+      int[] edge_next = new int[edges_count];
       
       // setup edges/faces
       for(int i = 0, edge_id = 0; i < faces_count; i++){
@@ -108,14 +107,15 @@ public class DwHalfEdge {
         // create face-edges
         for(int j = 0; j < num_edges; j++){
           edges[edge_id + j] = new DwHalfEdge.Edge(ifs_faces[i][j]); 
+          edge_vert[edge_id + j] = ifs_faces[i][j];
         }
         
-        // create links + fill edgemap
+        // create links
         for(int j = 0; j < num_edges; j++){
           int j0 = edge_id + (j+0) % num_edges;
           int j1 = edge_id + (j+1) % num_edges;
           edges[j0].next = edges[j1]; // next-link
-          edgemap.put(DwPair.AB(edges[j0]), edges[j0]); // put edge into map
+          edge_next[j0] = j1;
         }
         
         faces[i] = new DwHalfEdge.Face(edges[edge_id]); // face-link
@@ -123,15 +123,16 @@ public class DwHalfEdge {
       }
 
       // setup edge-pairs
-      for(DwHalfEdge.Edge edge : edges){
-        edge.pair = edgemap.get(DwPair.BA(edge)); // pair-link
+      int[] edge_pair = findPairs(edge_vert, edge_next, edges_count, verts_count);
+      for(int i = 0; i < edges_count; i++){
+        DwHalfEdge.Edge edge = edges[i];
+        edge.pair = (edge_pair[i] != -1) ? edges[edge_pair[i]] : null; // pair-link
         verts[edge.vert] = new DwHalfEdge.Vert(edge);  // vertex-link
       }
     }
     
     
     
-
     public int getNumberOfVertexEdges(int vertex_id){
       DwHalfEdge.Vert vert = verts[vertex_id];
       DwHalfEdge.Edge edge = vert.edge;  
@@ -274,4 +275,239 @@ public class DwHalfEdge {
   
  
 
+
+  
+  
+  /**
+   * finds the opposite half-edge of each half-edge, -1 if there is none.<br>
+   * Half-edges are bucketed by their start vertex, the pair of (a -> b) is
+   * searched in the bucket of b. No boxing or hashing.<br>
+   * For non-manifold edges, the last matching half-edge is used.
+   * 
+   * @param vert start vertex per half-edge
+   * @param next next half-edge (of the same face) per half-edge
+   */
+  static public int[] findPairs(int[] vert, int[] next, int edges_count, int verts_count){
+    
+    // half-edges, sorted by start vertex
+    int[] vert_start = new int[verts_count + 1];
+    int[] vert_edges = new int[edges_count];
+    for(int e = 0; e < edges_count; e++){
+      vert_start[vert[e] + 1]++;
+    }
+    for(int v = 0; v < verts_count; v++){
+      vert_start[v + 1] += vert_start[v];
+    }
+    for(int e = 0; e < edges_count; e++){
+      vert_edges[vert_start[vert[e]]++] = e;
+    }
+    for(int v = verts_count; v > 0; v--){
+      vert_start[v] = vert_start[v - 1];
+    }
+    vert_start[0] = 0;
+    
+    // pair of (a -> b) is (b -> a)
+    int[] pair = new int[edges_count];
+    for(int e = 0; e < edges_count; e++){
+      int a = vert[e];
+      int b = vert[next[e]];
+      pair[e] = -1;
+      for(int i = vert_start[b], iend = vert_start[b + 1]; i < iend; i++){
+        int f = vert_edges[i];
+        if(vert[next[f]] == a){
+          pair[e] = f;
+        }
+      }
+    }
+    return pair;
+  }
+  
+  
+  
+  
+  /**
+   * 
+   * Half-edge mesh, stored in int arrays, (no Edge/Face/Vert objects).<br>
+   * <br>
+   * A half-edge e starts at vert[e], next[e] is the next half-edge of the
+   * same face, pair[e] is the opposite half-edge (-1 on borders) and face[e]
+   * is its face.<br>
+   * The half-edges of face f are face_edge[f], next[face_edge[f]], ...<br>
+   * Half-edges, starting at vertex v: vert_edge[v], next[pair[vert_edge[v]]], ...<br>
+   * <br>
+   * Half-edges are numbered in face order, same as in DwHalfEdge.Mesh.
+   *
+   */
+  static public class IndexedMesh{
+    
+    public DwIndexedFaceSetAble ifs;
+    
+    public int edges_count;
+    public int faces_count;
+    public int verts_count;
+    
+    // per half-edge
+    public int[] vert;
+    public int[] next;
+    public int[] pair;
+    public int[] face;
+    
+    public int[] face_edge; // per face
+    public int[] vert_edge; // per vertex, -1 for unused vertices
+    
+    public int verts_per_face = -1; // 3 = triangle, 4 = quad, -1 = any polygon
+    
+    public IndexedMesh(DwIndexedFaceSetAble ifs){
+      create(ifs);
+    }
+    
+    /**
+     * uses the given arrays, (no copy), e.g. loaded from a DwMeshCache.
+     */
+    public IndexedMesh(DwIndexedFaceSetAble ifs, int verts_per_face, int[] vert, int[] next, int[] pair, int[] face, int[] face_edge, int[] vert_edge){
+      this.ifs = ifs;
+      this.verts_per_face = verts_per_face;
+      this.vert = vert;
+      this.next = next;
+      this.pair = pair;
+      this.face = face;
+      this.face_edge = face_edge;
+      this.vert_edge = vert_edge;
+      this.edges_count = vert.length;
+      this.faces_count = face_edge.length;
+      this.verts_count = vert_edge.length;
+    }
+    
+    private void create(DwIndexedFaceSetAble ifs){
+      this.ifs = ifs;
+      
+      if(ifs instanceof DwIndexedFaceSetFlat){
+        create((DwIndexedFaceSetFlat) ifs);
+        return;
+      }
+      
+      // IFS data
+      int[][] ifs_faces = ifs.getFaces();
+      faces_count = ifs.getFacesCount();
+      verts_count = ifs.getVertsCount();
+      edges_count = 0;
+      
+      verts_per_face = ifs_faces[0].length;
+      for(int i = 0; i < faces_count; i++){
+        edges_count += ifs_faces[i].length;
+        if(verts_per_face != ifs_faces[i].length) { 
+          verts_per_face = -1; 
+        }
+      }
+      
+      // allocate
+      vert = new int[edges_count];
+      next = new int[edges_count];
+      face = new int[edges_count];
+      face_edge = new int[faces_count];
+      vert_edge = new int[verts_count];
+      
+      // setup edges/faces
+      for(int i = 0, edge_id = 0; i < faces_count; i++){
+        int[] ifs_face = ifs_faces[i];
+        int num_edges = ifs_face.length;
+        for(int j = 0; j < num_edges; j++){
+          vert[edge_id + j] = ifs_face[j];
+          next[edge_id + j] = edge_id + (j+1) % num_edges;
+          face[edge_id + j] = i;
+        }
+        face_edge[i] = edge_id;
+        edge_id += num_edges;
+      }
+      
+      createLinks();
+    }
+    
+    // flat faces, same result as above
+    private void create(DwIndexedFaceSetFlat ifs){
+      int vpf     = ifs.verts_per_face;
+      faces_count = ifs.faces_count;
+      verts_count = ifs.verts_count;
+      edges_count = faces_count * vpf;
+      verts_per_face = vpf;
+      
+      vert = Arrays.copyOf(ifs.faces, edges_count);
+      next = new int[edges_count];
+      face = new int[edges_count];
+      face_edge = new int[faces_count];
+      vert_edge = new int[verts_count];
+      
+      for(int i = 0, edge_id = 0; i < faces_count; i++, edge_id += vpf){
+        for(int j = 0; j < vpf; j++){
+          next[edge_id + j] = edge_id + (j+1) % vpf;
+          face[edge_id + j] = i;
+        }
+        face_edge[i] = edge_id;
+      }
+      
+      createLinks();
+    }
+    
+    private void createLinks(){
+      // setup edge-pairs
+      pair = findPairs(vert, next, edges_count, verts_count);
+      
+      // vertex-links, last half-edge per vertex, same as DwHalfEdge.Mesh
+      for(int i = 0; i < verts_count; i++){
+        vert_edge[i] = -1;
+      }
+      for(int e = 0; e < edges_count; e++){
+        vert_edge[vert[e]] = e;
+      }
+    }
+    
+    
+    /**
+     * end vertex of the given half-edge.
+     */
+    public int getEndVert(int edge){
+      return vert[next[edge]];
+    }
+    
+    /**
+     * next half-edge around the start vertex, -1 on borders.
+     */
+    public int getNextVertexEdge(int edge){
+      int e = pair[edge];
+      return (e != -1) ? next[e] : -1;
+    }
+
+    public int getNumberOfVertexEdges(int vertex_id){
+      int edge = vert_edge[vertex_id];
+      int iter = edge;
+      int count = 0;
+      do {
+        count++;
+      } while((iter = getNextVertexEdge(iter)) != -1 && iter != edge);
+      return count;
+    }
+    
+    /**
+     * returns the number of edges attached to this vertex.
+     * edges[] is filled up to that number.
+     * 
+     * @param vertex_id
+     * @param edges
+     * @return int, number of edges attached to this vertex
+     */
+    public int getVertexEdges(int vertex_id, int[] edges){
+      int edge = vert_edge[vertex_id];
+      int iter = edge;
+      int count = 0;
+      do {
+        if(count < edges.length){
+          edges[count] = iter;
+        }
+        count++;
+      } while((iter = getNextVertexEdge(iter)) != -1 && iter != edge);
+      return count;
+    }
+    
+  }
+
 }
@@ -0,0 +1,572 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.thomasdiewald.pixelflow.java.utils.DwParallel;
+
+
+/**
+ *
+ * Indexed Face Set, stored in flat arrays.<br>
+ * <br>
+ * verts: [x, y, z, x, y, z, ...]<br>
+ * faces: [a, b, c, a, b, c, ...] or [a, b, c, d, ...], (fixed number of verts
+ * per face)<br>
+ * <br>
+ * Same transforms as DwIndexedFaceSet, as plain loops over the flat arrays,
+ * split into chunks with DwParallel.<br>
+ * The arrays are used as they are for buffer export, (getVertsBuffer(),
+ * putVerts(), ...) and binary files, (save(), load()).<br>
+ * getVerts()/getFaces() return jagged views, created once and kept in sync by
+ * the transforms. Changes to the jagged arrays are written back to the flat
+ * arrays by setVerts()/setFaces(), (as DwMeshCleaner does).<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwIndexedFaceSetFlat implements DwIndexedFaceSetAble{
+
+  // binary file, header
+  static public final int FILE_MAGIC   = 0x53464944; // "DIFS", little endian
+  static public final int FILE_VERSION = 1;
+  static public final int FILE_HEADER  = 5 * 4;    // magic, version, verts_per_face, verts_count, faces_count
+
+  public int     verts_per_face;
+  public int     verts_count;
+  public int     faces_count;
+  public float[] verts;
+  public int  [] faces;
+
+  private DwParallel parallel;
+
+  // jagged views, (getVerts(), getFaces()), and the flat arrays they belong to
+  private float[][] verts_view;
+  private int  [][] faces_view;
+  private float[]   verts_view_src;
+  private int  []   faces_view_src;
+
+  // current transform
+  private float cx, cy, cz;
+  private float tx, ty, tz;
+  private float sx, sy, sz;
+  private float[] chunk_bounds = new float[0];
+  private int     chunk_count;
+
+
+  public DwIndexedFaceSetFlat(int verts_per_face, int verts_count, int faces_count){
+    this(verts_per_face, new float[verts_count * 3], verts_count, new int[faces_count * verts_per_face], faces_count);
+  }
+
+  /**
+   * uses the given arrays, (no copy).
+   */
+  public DwIndexedFaceSetFlat(int verts_per_face, float[] verts, int verts_count, int[] faces, int faces_count){
+    this.verts_per_face = verts_per_face;
+    this.verts          = verts;
+    this.verts_count    = verts_count;
+    this.faces          = faces;
+    this.faces_count    = faces_count;
+    this.parallel       = new DwParallel(1);
+  }
+
+  /**
+   * copies the given mesh, all faces must have the same number of verts.
+   */
+  public DwIndexedFaceSetFlat(DwIndexedFaceSetAble ifs){
+    this.parallel = new DwParallel(1);
+    setVerts(ifs.getVerts());
+    setFaces(ifs.getFaces());
+  }
+
+  /**
+   * copies the flat buffers of the given mesh.
+   */
+  public DwIndexedFaceSetFlat(DwIcosahedron ifs){
+    this(3, Arrays.copyOf(ifs.verts_flat, ifs.verts_count * 3), ifs.verts_count, Arrays.copyOf(ifs.faces_flat, ifs.faces_count * 3), ifs.faces_count);
+  }
+
+  /**
+   * copies the flat buffers of the given mesh.
+   */
+  public DwIndexedFaceSetFlat(DwCube ifs){
+    this(4, Arrays.copyOf(ifs.verts_flat, ifs.verts_count * 3), ifs.verts_count, Arrays.copyOf(ifs.faces_flat, ifs.faces_count * 4), ifs.faces_count);
+  }
+
+  public void setThreadCount(int num_threads){
+    parallel.setThreadCount(num_threads);
+  }
+
+  public void release(){
+    parallel.release();
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // TRANSFORMS
+  //////////////////////////////////////////////////////////////////////////////
+
+  public DwIndexedFaceSetFlat translate(float tx, float ty, float tz){
+    return transform(1, 1, 1, tx, ty, tz);
+  }
+
+  public DwIndexedFaceSetFlat scale(float sx, float sy, float sz){
+    return transform(sx, sy, sz, 0, 0, 0);
+  }
+
+  public DwIndexedFaceSetFlat scale(float xyz){
+    return transform(xyz, xyz, xyz, 0, 0, 0);
+  }
+
+  /**
+   * v = v * s + t
+   */
+  public DwIndexedFaceSetFlat transform(float sx, float sy, float sz, float tx, float ty, float tz){
+    return transform(0, 0, 0, sx, sy, sz, tx, ty, tz);
+  }
+
+  /**
+   * v = (v - c) * s + t
+   */
+  private DwIndexedFaceSetFlat transform(float cx, float cy, float cz, float sx, float sy, float sz, float tx, float ty, float tz){
+    this.cx = cx; this.cy = cy; this.cz = cz;
+    this.sx = sx; this.sy = sy; this.sz = sz;
+    this.tx = tx; this.ty = ty; this.tz = tz;
+    parallel.forRange(0, verts_count, task_transform);
+    if(hasVertsView()){
+      for(int i = 0, k = 0; i < verts_count; i++){
+        float[] v = verts_view[i];
+        v[0] = verts[k++];
+        v[1] = verts[k++];
+        v[2] = verts[k++];
+      }
+    }
+    return this;
+  }
+
+  public float[] computeBounds(){
+    float[] bounds = {  +Float.MAX_VALUE, +Float.MAX_VALUE, +Float.MAX_VALUE,
+                        -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+
+    // one min/max per chunk, merged in chunk order
+    chunk_count = parallel.getChunkCount(0, verts_count, parallel.min_grain);
+    if(chunk_bounds.length < chunk_count * 6){
+      chunk_bounds = new float[chunk_count * 6];
+    }
+    parallel.forRange(0, chunk_count, 1, task_bounds);
+
+    for(int c = 0; c < chunk_count; c++){
+      int o = c * 6;
+      bounds[0] = Math.min(bounds[0], chunk_bounds[o+0]);
+      bounds[1] = Math.min(bounds[1], chunk_bounds[o+1]);
+      bounds[2] = Math.min(bounds[2], chunk_bounds[o+2]);
+      bounds[3] = Math.max(bounds[3], chunk_bounds[o+3]);
+      bounds[4] = Math.max(bounds[4], chunk_bounds[o+4]);
+      bounds[5] = Math.max(bounds[5], chunk_bounds[o+5]);
+    }
+    return bounds;
+  }
+
+
+  public void alignMin(float minx, float miny, float minz){
+    float[] bounds = computeBounds();
+    minx -= bounds[0];
+    miny -= bounds[1];
+    minz -= bounds[2];
+    translate(minx, miny, minz);
+  }
+
+  public void fitBounds(float[] dst_bounds){
+    float[] src_bounds = computeBounds();
+
+    float src_sx = src_bounds[3] - src_bounds[0];
+    float src_sy = src_bounds[4] - src_bounds[1];
+    float src_sz = src_bounds[5] - src_bounds[2];
+
+    float src_cx = src_bounds[0] + src_sx * 0.5f;
+    float src_cy = src_bounds[1] + src_sy * 0.5f;
+    float src_cz = src_bounds[2] + src_sz * 0.5f;
+
+    float dst_sx = dst_bounds[3] - dst_bounds[0];
+    float dst_sy = dst_bounds[4] - dst_bounds[1];
+    float dst_sz = dst_bounds[5] - dst_bounds[2];
+
+    float dst_cx = dst_bounds[0] + dst_sx * 0.5f;
+    float dst_cy = dst_bounds[1] + dst_sy * 0.5f;
+    float dst_cz = dst_bounds[2] + dst_sz * 0.5f;
+
+    float sx = dst_sx / src_sx; if(Float.isNaN(sx)) sx = 0;
+    float sy = dst_sy / src_sy; if(Float.isNaN(sy)) sy = 0;
+    float sz = dst_sz / src_sz; if(Float.isNaN(sz)) sz = 0;
+
+    float sxyz = Math.max(Math.max(sx, sy), sz);
+
+    if(sx != 0) sxyz = Math.min(sxyz, sx);
+    if(sy != 0) sxyz = Math.min(sxyz, sy);
+    if(sz != 0) sxyz = Math.min(sxyz, sz);
+
+    transform(src_cx, src_cy, src_cz, sxyz, sxyz, sxyz, dst_cx, dst_cy, dst_cz);
+  }
+
+  public void fitSize(float fit_xyz){
+    fitSize(fit_xyz, fit_xyz, fit_xyz);
+  }
+
+  public void fitSize(float fit_x, float fit_y, float fit_z){
+    float[] bounds = computeBounds();
+
+    float src_sx = bounds[3] - bounds[0];
+    float src_sy = bounds[4] - bounds[1];
+    float src_sz = bounds[5] - bounds[2];
+
+    float sx = fit_x / src_sx;  if(Float.isNaN(sx)) sx = 0;
+    float sy = fit_y / src_sy;  if(Float.isNaN(sy)) sy = 0;
+    float sz = fit_z / src_sz;  if(Float.isNaN(sz)) sz = 0;
+
+    float sxyz = Math.max(Math.max(sx, sy), sz);
+    if(sx != 0) sxyz = Math.min(sxyz, sx);
+    if(sy != 0) sxyz = Math.min(sxyz, sy);
+    if(sz != 0) sxyz = Math.min(sxyz, sz);
+    scale(sxyz);
+  }
+
+
+  private final DwParallel.Task task_transform = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      final float[] v = verts;
+      final float cx = DwIndexedFaceSetFlat.this.cx, sx = DwIndexedFaceSetFlat.this.sx, tx = DwIndexedFaceSetFlat.this.tx;
+      final float cy = DwIndexedFaceSetFlat.this.cy, sy = DwIndexedFaceSetFlat.this.sy, ty = DwIndexedFaceSetFlat.this.ty;
+      final float cz = DwIndexedFaceSetFlat.this.cz, sz = DwIndexedFaceSetFlat.this.sz, tz = DwIndexedFaceSetFlat.this.tz;
+      for(int i = lo * 3, iend = hi * 3; i < iend; i += 3){
+        v[i+0] = (v[i+0] - cx) * sx + tx;
+        v[i+1] = (v[i+1] - cy) * sy + ty;
+        v[i+2] = (v[i+2] - cz) * sz + tz;
+      }
+    }
+  };
+
+  private final DwParallel.Task task_bounds = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      final float[] v = verts;
+      for(int c = lo; c < hi; c++){
+        int ilo = parallel.getChunkStart(0, verts_count, c    , chunk_count);
+        int ihi = parallel.getChunkStart(0, verts_count, c + 1, chunk_count);
+        float xmin = +Float.MAX_VALUE, ymin = +Float.MAX_VALUE, zmin = +Float.MAX_VALUE;
+        float xmax = -Float.MAX_VALUE, ymax = -Float.MAX_VALUE, zmax = -Float.MAX_VALUE;
+        for(int i = ilo * 3, iend = ihi * 3; i < iend; i += 3){
+          float x = v[i+0], y = v[i+1], z = v[i+2];
+          if(xmin > x) xmin = x;
+          if(ymin > y) ymin = y;
+          if(zmin > z) zmin = z;
+          if(xmax < x) xmax = x;
+          if(ymax < y) ymax = y;
+          if(zmax < z) zmax = z;
+        }
+        int o = c * 6;
+        chunk_bounds[o+0] = xmin; chunk_bounds[o+1] = ymin; chunk_bounds[o+2] = zmin;
+        chunk_bounds[o+3] = xmax; chunk_bounds[o+4] = ymax; chunk_bounds[o+5] = zmax;
+      }
+    }
+  };
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // BUFFER EXPORT
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * verts as FloatBuffer, backed by the verts array, (no copy).
+   */
+  public FloatBuffer getVertsBuffer(){
+    return FloatBuffer.wrap(verts, 0, verts_count * 3);
+  }
+
+  /**
+   * faces as IntBuffer, backed by the faces array, (no copy).
+   */
+  public IntBuffer getFacesBuffer(){
+    return IntBuffer.wrap(faces, 0, faces_count * verts_per_face);
+  }
+
+  /**
+   * bulk copy of the verts into dst, at its current position, e.g. into a
+   * mapped VBO (glMapBuffer) or a direct buffer.
+   */
+  public void putVerts(FloatBuffer dst){
+    dst.put(verts, 0, verts_count * 3);
+  }
+
+  /**
+   * bulk copy of the faces into dst, at its current position.
+   */
+  public void putFaces(IntBuffer dst){
+    dst.put(faces, 0, faces_count * verts_per_face);
+  }
+
+  /**
+   * number of triangles, when each face is split into a triangle fan.
+   */
+  public int getTrianglesCount(){
+    return faces_count * (verts_per_face - 2);
+  }
+
+  /**
+   * faces as triangles into dst, at its current position, (triangle fan per
+   * face, e.g. for GL_TRIANGLES).
+   */
+  public void putTriangles(IntBuffer dst){
+    final int vpf = verts_per_face;
+    if(vpf == 3){
+      putFaces(dst);
+      return;
+    }
+    for(int f = 0, off = 0; f < faces_count; f++, off += vpf){
+      int a = faces[off];
+      for(int k = 1; k < vpf - 1; k++){
+        dst.put(a);
+        dst.put(faces[off + k]);
+        dst.put(faces[off + k + 1]);
+      }
+    }
+  }
+
+  /**
+   * new direct buffer (native byte order) with the verts, ready for reading.
+   */
+  public FloatBuffer createVertsBuffer(){
+    FloatBuffer buffer = ByteBuffer.allocateDirect(verts_count * 3 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    putVerts(buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * new direct buffer (native byte order) with the triangles, ready for reading.
+   */
+  public IntBuffer createTrianglesBuffer(){
+    IntBuffer buffer = ByteBuffer.allocateDirect(getTrianglesCount() * 3 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    putTriangles(buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // BINARY FILE
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // little endian
+  //
+  // int     magic
+  // int     version
+  // int     verts_per_face
+  // int     verts_count
+  // int     faces_count
+  // float[] verts, verts_count * 3
+  // int  [] faces, faces_count * verts_per_face
+  //
+
+  /**
+   * size of the binary data, in bytes.
+   */
+  public long getBinarySize(){
+    return FILE_HEADER + ((long) verts_count * 3 + (long) faces_count * verts_per_face) * 4;
+  }
+
+  /**
+   * writes the binary data into dst, at its current position.
+   */
+  public void write(ByteBuffer dst){
+    ByteOrder order = dst.order();
+    dst.order(ByteOrder.LITTLE_ENDIAN);
+    dst.putInt(FILE_MAGIC);
+    dst.putInt(FILE_VERSION);
+    dst.putInt(verts_per_face);
+    dst.putInt(verts_count);
+    dst.putInt(faces_count);
+
+    int num_verts = verts_count * 3;
+    int num_faces = faces_count * verts_per_face;
+    dst.asFloatBuffer().put(verts, 0, num_verts);
+    dst.position(dst.position() + num_verts * 4);
+    dst.asIntBuffer().put(faces, 0, num_faces);
+    dst.position(dst.position() + num_faces * 4);
+    dst.order(order);
+  }
+
+  /**
+   * reads the binary data from src, at its current position.
+   */
+  static public DwIndexedFaceSetFlat read(ByteBuffer src) throws IOException{
+    ByteOrder order = src.order();
+    src.order(ByteOrder.LITTLE_ENDIAN);
+    if(src.remaining() < FILE_HEADER){
+      throw new IOException("DwIndexedFaceSetFlat: invalid data, size: "+src.remaining());
+    }
+    int magic   = src.getInt();
+    int version = src.getInt();
+    if(magic != FILE_MAGIC || version != FILE_VERSION){
+      throw new IOException("DwIndexedFaceSetFlat: unsupported data, magic/version: "+Integer.toHexString(magic)+"/"+version);
+    }
+    int verts_per_face = src.getInt();
+    int verts_count    = src.getInt();
+    int faces_count    = src.getInt();
+
+    long size = ((long) verts_count * 3 + (long) faces_count * verts_per_face) * 4;
+    if(verts_per_face <= 0 || verts_count < 0 || faces_count < 0 || size > src.remaining()){
+      throw new IOException("DwIndexedFaceSetFlat: invalid data, verts_per_face/verts_count/faces_count: "+verts_per_face+"/"+verts_count+"/"+faces_count);
+    }
+
+    float[] verts = new float[verts_count * 3];
+    int  [] faces = new int  [faces_count * verts_per_face];
+    src.asFloatBuffer().get(verts);
+    src.position(src.position() + verts.length * 4);
+    src.asIntBuffer().get(faces);
+    src.position(src.position() + faces.length * 4);
+    src.order(order);
+    return new DwIndexedFaceSetFlat(verts_per_face, verts, verts_count, faces, faces_count);
+  }
+
+  /**
+   * writes the binary file, through a memory mapped buffer.
+   */
+  public void save(File file) throws IOException{
+    FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, getBinarySize());
+      write(buffer);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * reads the binary file, through a memory mapped buffer.
+   */
+  static public DwIndexedFaceSetFlat load(File file) throws IOException{
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return read(buffer);
+    } finally {
+      channel.close();
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // DwIndexedFaceSetAble
+  //////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public int getVertsCount() {
+    return verts_count;
+  }
+
+  @Override
+  public int getFacesCount() {
+    return faces_count;
+  }
+
+  private boolean hasVertsView(){
+    return verts_view != null && verts_view_src == verts && verts_view.length == verts_count;
+  }
+
+  private boolean hasFacesView(){
+    return faces_view != null && faces_view_src == faces && faces_view.length == faces_count;
+  }
+
+  /**
+   * jagged view of the verts, (same arrays on each call, until the flat arrays
+   * are replaced). Changes are written back by setVerts().
+   */
+  @Override
+  public float[][] getVerts() {
+    if(!hasVertsView()){
+      verts_view     = DwSubdivision.toVerts(verts, verts_count);
+      verts_view_src = verts;
+    }
+    return verts_view;
+  }
+
+  /**
+   * jagged view of the faces, (same arrays on each call, until the flat arrays
+   * are replaced). Changes are written back by setFaces().
+   */
+  @Override
+  public int[][] getFaces() {
+    if(!hasFacesView()){
+      faces_view     = DwSubdivision.toFaces(faces, faces_count, verts_per_face);
+      faces_view_src = faces;
+    }
+    return faces_view;
+  }
+
+  @Override
+  public void setVerts(float[][] verts) {
+    this.verts_count = verts.length;
+    this.verts = new float[verts_count * 3];
+    for(int i = 0, k = 0; i < verts_count; i++){
+      this.verts[k++] = verts[i][0];
+      this.verts[k++] = verts[i][1];
+      this.verts[k++] = verts[i][2];
+    }
+    this.verts_view     = verts;
+    this.verts_view_src = this.verts;
+  }
+
+  @Override
+  public void setFaces(int[][] faces) {
+    int vpf = faces.length > 0 ? faces[0].length : verts_per_face;
+    for(int i = 0; i < faces.length; i++){
+      if(faces[i].length != vpf){
+        throw new IllegalArgumentException("DwIndexedFaceSetFlat: faces must have the same number of verts, face["+i+"]: "+faces[i].length+" != "+vpf);
+      }
+    }
+    this.verts_per_face = vpf;
+    this.faces_count = faces.length;
+    this.faces = new int[faces_count * vpf];
+    for(int i = 0; i < faces_count; i++){
+      System.arraycopy(faces[i], 0, this.faces, i * vpf, vpf);
+    }
+    this.faces_view     = faces;
+    this.faces_view_src = this.faces;
+  }
+
+  @Override
+  public void setVerts(ArrayList<float[]> verts_list) {
+    setVerts(verts_list.toArray(new float[verts_list.size()][]));
+  }
+
+  @Override
+  public void setFaces(ArrayList<int[]> faces_list) {
+    setFaces(faces_list.toArray(new int[faces_list.size()][]));
+  }
+
+}
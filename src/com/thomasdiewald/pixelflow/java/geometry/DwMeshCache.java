@@ -0,0 +1,255 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+
+/**
+ *
+ * Binary cache for a mesh, its half-edge adjacency and a spring list.<br>
+ * <br>
+ * Written once, e.g. after loading and preparing an OBJ file, and then loaded
+ * through a memory mapped file. All data is stored as raw little endian
+ * arrays, loading is a bulk copy per array, no parsing and no rebuilding.<br>
+ * <br>
+ * The header has a version and a CRC32 checksum of the payload, a file of a
+ * different version, or with a wrong size or checksum throws an IOException,
+ * so the caller can fall back to the original source and rewrite the cache.<br>
+ * <br>
+ * springs: [ia, ib, type, ia, ib, type, ...], type is free to use, e.g.
+ * DwSpringConstraint.TYPE.ordinal()<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwMeshCache {
+
+  static public final int FILE_MAGIC   = 0x43534D44; // "DMSC", little endian
+  static public final int FILE_VERSION = 1;
+  static public final int FILE_HEADER  = 32;
+
+  // sections, header flags
+  static public final int SECTION_MESH    = 1 << 0;
+  static public final int SECTION_SPRINGS = 1 << 1;
+
+  public DwIndexedFaceSetFlat   ifs;
+  public DwHalfEdge.IndexedMesh mesh;    // optional
+  public int[]                  springs; // optional
+  public int                    springs_count;
+
+
+  public DwMeshCache(){
+  }
+
+  public DwMeshCache(DwIndexedFaceSetFlat ifs, DwHalfEdge.IndexedMesh mesh, int[] springs, int springs_count){
+    this.ifs = ifs;
+    this.mesh = mesh;
+    this.springs = springs;
+    this.springs_count = springs_count;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // FILE
+  //////////////////////////////////////////////////////////////////////////////
+  //
+  // header, 32 bytes, little endian
+  //
+  // int  magic
+  // int  version
+  // int  sections, (SECTION_MESH | SECTION_SPRINGS)
+  // int  reserved
+  // long payload size, bytes
+  // long payload checksum, CRC32
+  //
+  // payload
+  //
+  // ifs      DwIndexedFaceSetFlat.write()
+  // mesh     int edges_count, faces_count, verts_count, verts_per_face
+  //          int[] vert, next, pair, face, (edges_count)
+  //          int[] face_edge, (faces_count)
+  //          int[] vert_edge, (verts_count)
+  // springs  int springs_count
+  //          int[] springs, (springs_count * 3)
+  //
+
+  private int getSections(){
+    int sections = 0;
+    if(mesh    != null) sections |= SECTION_MESH;
+    if(springs != null) sections |= SECTION_SPRINGS;
+    return sections;
+  }
+
+  /**
+   * size of the payload, in bytes.
+   */
+  public long getPayloadSize(){
+    long size = ifs.getBinarySize();
+    if(mesh != null){
+      size += 4 * 4 + ((long) mesh.edges_count * 4 + mesh.faces_count + mesh.verts_count) * 4;
+    }
+    if(springs != null){
+      size += 4 + (long) springs_count * 3 * 4;
+    }
+    return size;
+  }
+
+
+  public void save(File file) throws IOException{
+    long payload_size = getPayloadSize();
+
+    FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER + payload_size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+      // payload
+      buffer.position(FILE_HEADER);
+      ifs.write(buffer);
+      if(mesh != null){
+        buffer.putInt(mesh.edges_count);
+        buffer.putInt(mesh.faces_count);
+        buffer.putInt(mesh.verts_count);
+        buffer.putInt(mesh.verts_per_face);
+        putInts(buffer, mesh.vert     , mesh.edges_count);
+        putInts(buffer, mesh.next     , mesh.edges_count);
+        putInts(buffer, mesh.pair     , mesh.edges_count);
+        putInts(buffer, mesh.face     , mesh.edges_count);
+        putInts(buffer, mesh.face_edge, mesh.faces_count);
+        putInts(buffer, mesh.vert_edge, mesh.verts_count);
+      }
+      if(springs != null){
+        buffer.putInt(springs_count);
+        putInts(buffer, springs, springs_count * 3);
+      }
+
+      // header
+      buffer.position(0);
+      buffer.putInt(FILE_MAGIC);
+      buffer.putInt(FILE_VERSION);
+      buffer.putInt(getSections());
+      buffer.putInt(0);
+      buffer.putLong(payload_size);
+      buffer.putLong(checksum(buffer, payload_size));
+    } finally {
+      channel.close();
+    }
+  }
+
+
+  static public DwMeshCache load(File file) throws IOException{
+    return load(file, true);
+  }
+
+  /**
+   * @param verify false, to skip the checksum test, (header and size are
+   *               always tested)
+   */
+  static public DwMeshCache load(File file, boolean verify) throws IOException{
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      long file_size = channel.size();
+      if(file_size < FILE_HEADER){
+        throw new IOException("DwMeshCache: invalid file, size: "+file_size);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, file_size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+      // header
+      int  magic        = buffer.getInt();
+      int  version      = buffer.getInt();
+      int  sections     = buffer.getInt();
+      /* reserved */      buffer.getInt();
+      long payload_size = buffer.getLong();
+      long checksum     = buffer.getLong();
+      if(magic != FILE_MAGIC || version != FILE_VERSION){
+        throw new IOException("DwMeshCache: unsupported file, magic/version: "+Integer.toHexString(magic)+"/"+version);
+      }
+      if(payload_size != file_size - FILE_HEADER){
+        throw new IOException("DwMeshCache: invalid file, payload size: "+payload_size+" != "+(file_size - FILE_HEADER));
+      }
+      if(verify && checksum != checksum(buffer, payload_size)){
+        throw new IOException("DwMeshCache: checksum mismatch");
+      }
+
+      // payload
+      DwMeshCache cache = new DwMeshCache();
+      buffer.position(FILE_HEADER);
+      cache.ifs = DwIndexedFaceSetFlat.read(buffer);
+      if((sections & SECTION_MESH) != 0){
+        checkRemaining(buffer, 4 * 4);
+        int edges_count    = buffer.getInt();
+        int faces_count    = buffer.getInt();
+        int verts_count    = buffer.getInt();
+        int verts_per_face = buffer.getInt();
+        int[] vert      = getInts(buffer, edges_count);
+        int[] next      = getInts(buffer, edges_count);
+        int[] pair      = getInts(buffer, edges_count);
+        int[] face      = getInts(buffer, edges_count);
+        int[] face_edge = getInts(buffer, faces_count);
+        int[] vert_edge = getInts(buffer, verts_count);
+        cache.mesh = new DwHalfEdge.IndexedMesh(cache.ifs, verts_per_face, vert, next, pair, face, face_edge, vert_edge);
+      }
+      if((sections & SECTION_SPRINGS) != 0){
+        checkRemaining(buffer, 4);
+        cache.springs_count = buffer.getInt();
+        cache.springs = getInts(buffer, cache.springs_count * 3L);
+      }
+      return cache;
+    } finally {
+      channel.close();
+    }
+  }
+
+
+
+  static private long checksum(ByteBuffer buffer, long payload_size){
+    ByteBuffer payload = buffer.duplicate();
+    payload.position(FILE_HEADER);
+    payload.limit((int) (FILE_HEADER + payload_size));
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    return crc.getValue();
+  }
+
+  static private void putInts(ByteBuffer dst, int[] src, int count){
+    dst.asIntBuffer().put(src, 0, count);
+    dst.position(dst.position() + count * 4);
+  }
+
+  // counts are tested against the file size, before allocating
+  static private void checkRemaining(ByteBuffer src, long bytes) throws IOException{
+    if(bytes < 0 || bytes > src.remaining()){
+      throw new IOException("DwMeshCache: invalid file, "+bytes+" bytes expected, "+src.remaining()+" remaining");
+    }
+  }
+
+  static private int[] getInts(ByteBuffer src, long count) throws IOException{
+    checkRemaining(src, count * 4);
+    int[] dst = new int[(int) count];
+    IntBuffer buffer = src.asIntBuffer();
+    buffer.get(dst);
+    src.position(src.position() + dst.length * 4);
+    return dst;
+  }
+
+}
@@ -2,61 +2,216 @@ package com.thomasdiewald.pixelflow.java.geometry;
 
 import java.util.Arrays;
 
+import com.thomasdiewald.pixelflow.java.utils.DwParallel;
+
 public class DwMeshCleaner{
 
   DwIndexedFaceSetAble ifs;
   
   // used for merging/welding/remapping
-  private DwVertexIndexWrapper[] verts_orig;
-  private DwVertexIndexWrapper[] verts_work;
+  private int[] verts_map = new int[0];
+
+  // vertex positions, xyz, copy of ifs.getVerts()
+  private float[] xyz = new float[0];
+  private float[] shift = new float[0];
+  private float[] shift_mag = new float[0];
+
+  // hash grid, cell size = 2 * (merge/weld distance + margin), so the
+  // neighbors are in the 2x2x2 cells towards the vertex position, even after
+  // the vertices moved by "margin".
+  // vertices are sorted by cell-hash, cell_start[hash] -> first vertex
+  private double  cell_size_inv;
+  private boolean cell_exact;
+  private int     hash_mask;
+  private int[]   cell_start = new int[1];
+  private int[]   cell_hash  = new int[0];
+  private int[]   cell_verts = new int[0]; // vertex index, sorted
+  private int[]   cell_xyz   = new int[0]; // ix, iy, iz, sorted
+  private int[]   cell_side  = new int[0]; // -1/+1 per axis, neighbor cell direction, sorted
+  private float[] sorted_xyz = new float[0];
+  private boolean sorted_valid = false;
+
+  private int verts_count;
+  private float dd_sq;
+
+  private DwParallel parallel;
   
   
   public DwMeshCleaner(DwIndexedFaceSetAble ifs){
+    this(ifs, 1);
+  }
+
+  public DwMeshCleaner(DwIndexedFaceSetAble ifs, int num_threads){
     this.ifs = ifs;
+    this.parallel = new DwParallel(num_threads);
+  }
+
+  public void setThreadCount(int num_threads){
+    parallel.setThreadCount(num_threads);
+  }
+
+  public void release(){
+    parallel.release();
   }
 
 
   public void initVertices(){
-    int verts_count = ifs.getVertsCount();
-    if(verts_work == null || verts_work.length != verts_count){
-      verts_work = new DwVertexIndexWrapper[verts_count];
-      verts_orig = new DwVertexIndexWrapper[verts_count];
-      for(int i = 0; i < verts_count; i++){
-        verts_work[i] = verts_orig[i] = new DwVertexIndexWrapper(ifs, i);
-      }
+    verts_count = ifs.getVertsCount();
+    if(verts_map.length < verts_count){
+      verts_map  = new int[verts_count];
+      xyz        = new float[verts_count * 3];
+      cell_hash  = new int[verts_count];
+      cell_verts = new int[verts_count];
+      cell_xyz   = new int[verts_count * 3];
+      cell_side  = new int[verts_count * 3];
+      sorted_xyz = new float[verts_count * 3];
+    }
+
+    sorted_valid = false;
+
+    float[][] verts = ifs.getVerts();
+    for(int i = 0, k = 0; i < verts_count; i++){
+      float[] v = verts[i];
+      verts_map[i] = i;
+      xyz[k++] = v[0];
+      xyz[k++] = v[1];
+      xyz[k++] = v[2];
     }
   }
   
 
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // HASH GRID
+  //////////////////////////////////////////////////////////////////////////////
+
+  private void buildGrid(float distance, float margin){
+    // slightly larger cells, for rounding errors at cell borders
+    cell_exact    = !(distance > 0);
+    cell_size_inv = cell_exact ? 0 : 1.0 / ((distance + margin * 2) * 2.01);
+
+    int size = Integer.highestOneBit(Math.max(verts_count, 1) * 2 - 1) << 1;
+    hash_mask = size - 1;
+    if(cell_start.length < size + 1){
+      cell_start = new int[size + 1];
+    }
+
+    parallel.forRange(0, verts_count, task_hash);
+
+    // counting sort, by hash, stable
+    Arrays.fill(cell_start, 0, size + 1, 0);
+    for(int i = 0; i < verts_count; i++){
+      cell_start[cell_hash[i] + 1]++;
+    }
+    for(int i = 0; i < size; i++){
+      cell_start[i + 1] += cell_start[i];
+    }
+    for(int i = 0; i < verts_count; i++){
+      cell_verts[cell_start[cell_hash[i]]++] = i;
+    }
+    for(int i = size; i > 0; i--){
+      cell_start[i] = cell_start[i - 1];
+    }
+    cell_start[0] = 0;
+
+    // cell coordinates and positions in sorted order, for coherent queries
+    parallel.forRange(0, verts_count, task_sort);
+    sorted_valid = true;
+  }
+
+  private int hash(int ix, int iy, int iz){
+    int h = (ix * 73856093) ^ (iy * 19349663) ^ (iz * 83492791);
+    // murmur3 fmix32, the low bits also depend on the high bits, (exact mode
+    // hashes float bits, e.g. integer positions have all low bits zero)
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h & hash_mask;
+  }
+
+  private int cellCoord(float v){
+    // without distance, only exactly equal positions share a cell
+    return cell_exact ? Float.floatToIntBits(v + 0.0f) : (int) Math.floor(v * cell_size_inv);
+  }
+
+  private int cellSide(float v, int c){
+    if(cell_exact) return 0;
+    return (v * cell_size_inv - c < 0.5) ? -1 : +1;
+  }
+
+  private final DwParallel.Task task_hash = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      for(int i = lo, k = lo * 3; i < hi; i++, k += 3){
+        cell_hash[i] = hash(cellCoord(xyz[k]), cellCoord(xyz[k+1]), cellCoord(xyz[k+2]));
+      }
+    }
+  };
+
+  private final DwParallel.Task task_sort = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      for(int s = lo, d = lo * 3; s < hi; s++, d += 3){
+        int k = cell_verts[s] * 3;
+        for(int j = 0; j < 3; j++){
+          float v = xyz[k + j];
+          int   c = cellCoord(v);
+          sorted_xyz[d + j] = v;
+          cell_xyz  [d + j] = c;
+          cell_side [d + j] = cellSide(v, c);
+        }
+      }
+    }
+  };
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // MERGE
+  //////////////////////////////////////////////////////////////////////////////
+
   public void mergeVerts(float merge_distance, int max_iterations){
     
     initVertices();
     
-    int verts_count = ifs.getVertsCount();
-    float dd_merge_sq = merge_distance*merge_distance;
+    if(shift.length < verts_count * 3){
+      shift     = new float[verts_count * 3];
+      shift_mag = new float[verts_count];
+    }
+    dd_sq = merge_distance*merge_distance;
+
+    // the grid is only rebuilt, after vertices moved more than "margin"
+    float margin = merge_distance * 0.5f;
+    float moved  = Float.MAX_VALUE;
 
     for(int k = 0; k < max_iterations; k++){
-      // sort along x-axis
-      Arrays.sort(verts_work);
-      
-      // reset shift-dir to zero
-      for(int i = 0; i < verts_count; i++) verts_work[i].resetShift();
-      
-      // compute position-shift
-      for(int i = 0; i < verts_count; i++){
-        boolean search_lo = true; for(int j = i-1; search_lo && j >=          0; j--) search_lo = verts_work[i].merge(verts_work[j], dd_merge_sq);
-        boolean search_hi = true; for(int j = i+1; search_hi && j < verts_count; j++) search_hi = verts_work[i].merge(verts_work[j], dd_merge_sq);
+      if(moved > margin){
+        scatterPositions();
+        buildGrid(merge_distance, margin);
+        moved = 0;
       }
       
+      // compute position-shift, (in sorted order)
+      parallel.forRange(0, verts_count, task_merge);
+
       // update position (apply shift)
-      float shift_new = 0;
-      float shift_max = 0;
       float shift_sum = 0;
+      float shift_max = 0;
+      for(int i = 0, n = verts_count * 3; i < n; i += 3){
+        float sx = shift[i], sy = shift[i+1], sz = shift[i+2];
+        sorted_xyz[i  ] += sx;
+        sorted_xyz[i+1] += sy;
+        sorted_xyz[i+2] += sz;
+        shift_max = Math.max(shift_max, sx*sx + sy*sy + sz*sz);
+      }
       for(int i = 0; i < verts_count; i++){
-        shift_new  = verts_work[i].applyShift();
-        shift_max  = Math.max(shift_max, shift_new);
-        shift_sum += shift_new;
+        shift_sum += shift_mag[i];
       }
+      moved += (float) Math.sqrt(shift_max);
       
       // if shift is very low, we are done
       if(shift_sum < 0.0001f){
@@ -64,25 +219,94 @@ public class DwMeshCleaner{
       }
     }
  
+    scatterPositions();
+
+    float[][] verts = ifs.getVerts();
+    for(int i = 0, k = 0; i < verts_count; i++){
+      float[] v = verts[i];
+      v[0] = xyz[k++];
+      v[1] = xyz[k++];
+      v[2] = xyz[k++];
+    }
+    ifs.setVerts(verts);
   }
   
+  // sorted_xyz -> xyz
+  private void scatterPositions(){
+    if(!sorted_valid) return;
+    for(int s = 0, k = 0; s < verts_count; s++, k += 3){
+      int i = cell_verts[s] * 3;
+      xyz[i  ] = sorted_xyz[k  ];
+      xyz[i+1] = sorted_xyz[k+1];
+      xyz[i+2] = sorted_xyz[k+2];
+    }
+  }
+
+  private final DwParallel.Task task_merge = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      // shift = 0.5 * average offset to all vertices in merge distance
+      for(int s = lo, k = lo * 3; s < hi; s++, k += 3){
+        float px = sorted_xyz[k], py = sorted_xyz[k+1], pz = sorted_xyz[k+2];
+        float sx = 0, sy = 0, sz = 0;
+        int shift_counts = 0;
+
+        int x0 = cell_xyz[k  ], x1 = x0 + cell_side[k  ];
+        int y0 = cell_xyz[k+1], y1 = y0 + cell_side[k+1];
+        int z0 = cell_xyz[k+2], z1 = z0 + cell_side[k+2];
+        for(int cz = Math.min(z0, z1); cz <= Math.max(z0, z1); cz++){
+          for(int cy = Math.min(y0, y1); cy <= Math.max(y0, y1); cy++){
+            for(int cx = Math.min(x0, x1); cx <= Math.max(x0, x1); cx++){
+              int h = hash(cx, cy, cz);
+              for(int t = cell_start[h], e = cell_start[h + 1]; t < e; t++){
+                int kt = t * 3;
+                if(t == s || cell_xyz[kt] != cx || cell_xyz[kt+1] != cy || cell_xyz[kt+2] != cz) continue;
+                float dx = sorted_xyz[kt  ] - px;
+                float dy = sorted_xyz[kt+1] - py;
+                float dz = sorted_xyz[kt+2] - pz;
+                if(dx*dx + dy*dy + dz*dz <= dd_sq){
+                  sx += dx * 0.5f;
+                  sy += dy * 0.5f;
+                  sz += dz * 0.5f;
+                  shift_counts++;
+                }
+              }
+            }
+          }
+        }
+
+        shift_mag[s] = sx*sx + sy*sy + sz*sz;
+        float norm = (shift_counts > 0) ? 1f/shift_counts : 0;
+        shift[k  ] = sx * norm;
+        shift[k+1] = sy * norm;
+        shift[k+2] = sz * norm;
+      }
+    }
+  };
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // WELD
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * each vertex maps to the lowest vertex index within weld_distance of its
+   * original position, (not transitive).
+   */
   public void weldVerts(float weld_distance){
     
     initVertices();
     
-    int verts_count = ifs.getVertsCount();
-    float dd_weld_sq = weld_distance*weld_distance;
+    dd_sq = weld_distance*weld_distance;
     
-    // sort along x-axis
-    Arrays.sort(verts_work);
+    buildGrid(weld_distance, 0);
 
     // weld
     // vertices with the "same" position, get the same vertex id
-    // during comparison, the one with the lower index dominates the other one
-    for(int i = 0; i < verts_count; i++){
-      boolean search_lo = true; for(int j = i-1; search_lo && j >=          0; j--) search_lo = verts_work[i].weld(verts_work[j], dd_weld_sq);
-      boolean search_hi = true; for(int j = i+1; search_hi && j < verts_count; j++) search_hi = verts_work[i].weld(verts_work[j], dd_weld_sq);
-    }
+    // the lowest index within weld_distance, (no chains)
+    parallel.forRange(0, verts_count, task_weld);
     
     // update face-vertex-indices
     int     faces_count = ifs.getFacesCount();
@@ -91,10 +315,47 @@ public class DwMeshCleaner{
       int[] face = faces[i];
       for(int j = 0; j < face.length; j++){
         int vert_id_old = face[j];
-        face[j] = verts_orig[vert_id_old].vert;
+        face[j] = verts_map[vert_id_old];
       }
     }
+    ifs.setFaces(faces);
   }
+
+  private final DwParallel.Task task_weld = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      for(int s = lo, k = lo * 3; s < hi; s++, k += 3){
+        float px = sorted_xyz[k], py = sorted_xyz[k+1], pz = sorted_xyz[k+2];
+        int i = cell_verts[s];
+        int vert = i;
+
+        int x0 = cell_xyz[k  ], x1 = x0 + cell_side[k  ];
+        int y0 = cell_xyz[k+1], y1 = y0 + cell_side[k+1];
+        int z0 = cell_xyz[k+2], z1 = z0 + cell_side[k+2];
+        for(int cz = Math.min(z0, z1); cz <= Math.max(z0, z1); cz++){
+          for(int cy = Math.min(y0, y1); cy <= Math.max(y0, y1); cy++){
+            for(int cx = Math.min(x0, x1); cx <= Math.max(x0, x1); cx++){
+              int h = hash(cx, cy, cz);
+              for(int t = cell_start[h], e = cell_start[h + 1]; t < e; t++){
+                if(cell_verts[t] >= vert) break; // sorted by index per hash
+                int kt = t * 3;
+                if(cell_xyz[kt] != cx || cell_xyz[kt+1] != cy || cell_xyz[kt+2] != cz) continue;
+                float dx = sorted_xyz[kt  ] - px;
+                float dy = sorted_xyz[kt+1] - py;
+                float dz = sorted_xyz[kt+2] - pz;
+                if(dx*dx + dy*dy + dz*dz <= dd_sq){
+                  vert = cell_verts[t];
+                }
+              }
+            }
+          }
+        }
+        verts_map[i] = vert;
+      }
+    }
+  };
+
+
   
   
   public void remapVerts(){
@@ -126,6 +387,7 @@ public class DwMeshCleaner{
     
     verts = Arrays.copyOf(verts_new, vert_id_cur);
     ifs.setVerts(verts);
+    ifs.setFaces(faces);
   }
   
 
@@ -137,7 +399,4 @@ public class DwMeshCleaner{
   }
 
 
-
-
-
-}
\ No newline at end of file
+}
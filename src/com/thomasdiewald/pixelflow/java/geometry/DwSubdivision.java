@@ -0,0 +1,337 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.geometry;
+
+import java.util.Arrays;
+
+import com.thomasdiewald.pixelflow.java.utils.DwParallel;
+
+
+/**
+ *
+ * Subdivision of triangle or quad meshes, into flat buffers.<br>
+ * <br>
+ * triangle -> 4 triangles, (edge midpoints)<br>
+ * quad     -> 4 quads, (edge midpoints + face center)<br>
+ * <br>
+ * verts: [x, y, z, x, y, z, ...]<br>
+ * faces: [a, b, c, a, b, c, ...] or [a, b, c, d, ...]<br>
+ * <br>
+ * Edge midpoints are shared through a per-half-edge table, (no HashMap, no
+ * boxing). New vertices are numbered in the order of their first use, so the
+ * result is the same as for DwIcosahedron/DwCube.<br>
+ * The vertex positions and the new faces of each level are computed in
+ * parallel, the result does not depend on the number of threads.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSubdivision {
+
+  // project new vertices onto the unit sphere, (e.g. DwIcosahedron, DwCube)
+  public boolean normalize = false;
+
+  public int verts_per_face;
+  public int verts_count;
+  public int faces_count;
+  public float[] verts;
+  public int  [] faces;
+
+  private DwParallel parallel;
+
+  // current level
+  private int[] faces_src = new int[0];
+  private int[] faces_dst = new int[0];
+  private int[] edge_mid  = new int[0]; // per half-edge, new vertex index
+  private int[] mid_src   = new int[0]; // per new vertex, 4 source vertices (-1 = unused)
+  private int[] face_center = new int[0]; // quads, per face, new vertex index
+  private int   verts_count_old;
+
+  // half-edges, sorted by start vertex
+  private int[] vert_start = new int[1];
+  private int[] vert_edges = new int[0];
+
+
+  public DwSubdivision(int verts_per_face, float[] verts, int verts_count, int[] faces, int faces_count){
+    this(verts_per_face, verts, verts_count, faces, faces_count, 1);
+  }
+
+  /**
+   * @param verts_per_face 3 (triangles) or 4 (quads)
+   */
+  public DwSubdivision(int verts_per_face, float[] verts, int verts_count, int[] faces, int faces_count, int num_threads){
+    this.verts_per_face = verts_per_face;
+    this.verts_count    = verts_count;
+    this.faces_count    = faces_count;
+    this.verts          = Arrays.copyOf(verts, verts_count * 3);
+    this.faces          = Arrays.copyOf(faces, faces_count * verts_per_face);
+    this.parallel       = new DwParallel(num_threads);
+  }
+
+  public void setThreadCount(int num_threads){
+    parallel.setThreadCount(num_threads);
+  }
+
+  public void release(){
+    parallel.release();
+  }
+
+
+
+  /**
+   * subdivides the mesh, each level: 4 x faces.<br>
+   * The buffers are allocated once, for the final size of a closed mesh, and
+   * grown for meshes with borders.
+   */
+  public void subdivide(int levels){
+    if(levels <= 0) return;
+
+    final int vpf = verts_per_face;
+
+    // final sizes, (Euler: V - E + F = const)
+    int V = verts_count;
+    int F = faces_count;
+    int E_max = 0;
+    for(int i = 0; i < levels; i++){
+      int E = F * vpf; // half-edges
+      E_max = Math.max(E_max, E);
+      V += E / 2 + (vpf == 4 ? F : 0);
+      F *= 4;
+    }
+
+    verts     = Arrays.copyOf(verts, V * 3);
+    faces_src = Arrays.copyOf(faces, F * vpf);
+    faces_dst = new int[F * vpf];
+    edge_mid  = new int[E_max];
+    mid_src   = new int[(V - verts_count) * 4];
+    face_center = new int[vpf == 4 ? E_max / 4 : 0];
+    vert_edges= new int[E_max];
+    vert_start= new int[V + 1];
+
+    for(int i = 0; i < levels; i++){
+      subdivide();
+    }
+
+    // non-manifold edges share one midpoint, less verts than estimated
+    if(verts.length != verts_count * 3){
+      verts = Arrays.copyOf(verts, verts_count * 3);
+    }
+    faces     = faces_src;
+    faces_src = new int[0];
+    faces_dst = new int[0];
+    edge_mid  = new int[0];
+    mid_src   = new int[0];
+    face_center = new int[0];
+    vert_edges= new int[0];
+    vert_start= new int[1];
+  }
+
+
+  private void subdivide(){
+    final int   vpf   = verts_per_face;
+    final int   E     = faces_count * vpf;
+    final int[] faces = faces_src;
+
+    // half-edges (= face corners), bucketed by start vertex
+    int V = verts_count;
+    if(vert_start.length < V + 1){
+      vert_start = new int[V + 1];
+    }
+    Arrays.fill(vert_start, 0, V + 1, 0);
+    for(int e = 0; e < E; e++){
+      vert_start[faces[e] + 1]++;
+    }
+    for(int v = 0; v < V; v++){
+      vert_start[v + 1] += vert_start[v];
+    }
+    for(int e = 0; e < E; e++){
+      vert_edges[vert_start[faces[e]]++] = e;
+    }
+    for(int v = V; v > 0; v--){
+      vert_start[v] = vert_start[v - 1];
+    }
+    vert_start[0] = 0;
+
+    // new vertex indices, in the order of first use
+    Arrays.fill(edge_mid, 0, E, -1);
+    verts_count_old = verts_count;
+    int vid = verts_count;
+    for(int f = 0; f < faces_count; f++){
+      int off = f * vpf;
+
+      if(vpf == 4){
+        // face center
+        face_center[f] = vid;
+        int m = growMidSrc(vid++);
+        mid_src[m+0] = faces[off+0];
+        mid_src[m+1] = faces[off+1];
+        mid_src[m+2] = faces[off+2];
+        mid_src[m+3] = faces[off+3];
+      }
+
+      for(int k = 0; k < vpf; k++){
+        int e = off + k;
+        if(edge_mid[e] != -1) continue;
+
+        int a = faces[e];
+        int b = faces[off + (k+1) % vpf];
+
+        int m = growMidSrc(vid);
+        mid_src[m+0] = Math.min(a, b);
+        mid_src[m+1] = Math.max(a, b);
+        mid_src[m+2] = -1;
+        mid_src[m+3] = -1;
+        edge_mid[e] = vid;
+
+        // all half-edges a -> b and b -> a share the midpoint
+        setEdgeMid(b, a, vid);
+        setEdgeMid(a, b, vid);
+        vid++;
+      }
+    }
+    verts_count = vid;
+    if(verts.length < verts_count * 3){
+      verts = Arrays.copyOf(verts, verts_count * 3);
+    }
+
+    // vertex positions + new faces
+    parallel.forRange(verts_count_old, verts_count, task_verts);
+    parallel.forRange(0, faces_count, task_faces);
+
+    int[] tmp = faces_src; faces_src = faces_dst; faces_dst = tmp;
+    faces_count *= 4;
+  }
+
+
+  /**
+   * verts as float[verts_count][3], (e.g. for DwIndexedFaceSetAble).
+   */
+  static public float[][] toVerts(float[] verts, int verts_count){
+    float[][] dst = new float[verts_count][3];
+    for(int i = 0, k = 0; i < verts_count; i++){
+      dst[i][0] = verts[k++];
+      dst[i][1] = verts[k++];
+      dst[i][2] = verts[k++];
+    }
+    return dst;
+  }
+
+  /**
+   * faces as int[faces_count][verts_per_face], (e.g. for DwIndexedFaceSetAble).
+   */
+  static public int[][] toFaces(int[] faces, int faces_count, int verts_per_face){
+    int[][] dst = new int[faces_count][];
+    for(int i = 0; i < faces_count; i++){
+      dst[i] = Arrays.copyOfRange(faces, i * verts_per_face, (i+1) * verts_per_face);
+    }
+    return dst;
+  }
+
+
+
+  // border edges are not shared, more new verts than for a closed mesh
+  private int growMidSrc(int vid){
+    int m = (vid - verts_count_old) * 4;
+    if(mid_src.length < m + 4){
+      mid_src = Arrays.copyOf(mid_src, Math.max(m + 4, mid_src.length * 2));
+    }
+    return m;
+  }
+
+  private void setEdgeMid(int a, int b, int vid){
+    final int vpf = verts_per_face;
+    for(int i = vert_start[a], iend = vert_start[a + 1]; i < iend; i++){
+      int e = vert_edges[i];
+      int e_off = e - e % vpf;
+      if(faces_src[e_off + (e - e_off + 1) % vpf] == b){
+        edge_mid[e] = vid;
+      }
+    }
+  }
+
+
+  private final DwParallel.Task task_verts = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      for(int v = lo; v < hi; v++){
+        int m = (v - verts_count_old) * 4;
+        float mx, my, mz;
+        if(mid_src[m+2] == -1){
+          int ia = mid_src[m+0] * 3;
+          int ib = mid_src[m+1] * 3;
+          mx = (verts[ia+0] + verts[ib+0]) * 0.5f;
+          my = (verts[ia+1] + verts[ib+1]) * 0.5f;
+          mz = (verts[ia+2] + verts[ib+2]) * 0.5f;
+        } else {
+          int ia = mid_src[m+0] * 3;
+          int ib = mid_src[m+1] * 3;
+          int ic = mid_src[m+2] * 3;
+          int id = mid_src[m+3] * 3;
+          mx = (verts[ia+0] + verts[ib+0] + verts[ic+0] + verts[id+0]) * 0.25f;
+          my = (verts[ia+1] + verts[ib+1] + verts[ic+1] + verts[id+1]) * 0.25f;
+          mz = (verts[ia+2] + verts[ib+2] + verts[ic+2] + verts[id+2]) * 0.25f;
+        }
+        if(normalize){
+          float dd_sq = mx*mx + my*my + mz*mz;
+          float dd_inv = 1f / (float) Math.sqrt(dd_sq);
+          mx *= dd_inv;
+          my *= dd_inv;
+          mz *= dd_inv;
+        }
+        verts[v*3+0] = mx;
+        verts[v*3+1] = my;
+        verts[v*3+2] = mz;
+      }
+    }
+  };
+
+
+  private final DwParallel.Task task_faces = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      final int[] src = faces_src;
+      final int[] dst = faces_dst;
+      if(verts_per_face == 3){
+        //       a
+        //       /\
+        //   ca /__\ ab
+        //     /\  /\
+        //    /__\/__\
+        //   c   bc   b
+        for(int f = lo; f < hi; f++){
+          int s = f * 3, d = f * 12;
+          int ia  = src[s+0], ib  = src[s+1], ic  = src[s+2];
+          int iab = edge_mid[s+0], ibc = edge_mid[s+1], ica = edge_mid[s+2];
+          dst[d++] = ia ; dst[d++] = iab; dst[d++] = ica;
+          dst[d++] = ib ; dst[d++] = ibc; dst[d++] = iab;
+          dst[d++] = ic ; dst[d++] = ica; dst[d++] = ibc;
+          dst[d++] = iab; dst[d++] = ibc; dst[d++] = ica;
+        }
+      } else {
+        //       a------ab-----b
+        //       |      |      |
+        //      da------e------bc
+        //       |      |      |
+        //       d------cd-----c
+        for(int f = lo; f < hi; f++){
+          int s = f * 4, d = f * 16;
+          int ia  = src[s+0], ib  = src[s+1], ic  = src[s+2], id  = src[s+3];
+          int iab = edge_mid[s+0], ibc = edge_mid[s+1], icd = edge_mid[s+2], ida = edge_mid[s+3];
+          int ie  = face_center[f];
+          dst[d++] = ia; dst[d++] = iab; dst[d++] = ie; dst[d++] = ida;
+          dst[d++] = ib; dst[d++] = ibc; dst[d++] = ie; dst[d++] = iab;
+          dst[d++] = ic; dst[d++] = icd; dst[d++] = ie; dst[d++] = ibc;
+          dst[d++] = id; dst[d++] = ida; dst[d++] = ie; dst[d++] = icd;
+        }
+      }
+    }
+  };
+
+}
@@ -4,6 +4,7 @@ import com.thomasdiewald.pixelflow.java.rigid_origami.DwDisplayUtils;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.render.DwParticleShape3D;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.softbody.DwSoftBody3D;
 import com.thomasdiewald.pixelflow.java.utils.DwStrokeStyle;
 
@@ -33,14 +34,11 @@ public class DwFoldingSoftBody extends DwSoftBody3D{
         if(use_particles_color){
           if(collision_group_id != this.collision_group){
             setColor(particle_color2);
-            shp_particle.setStroke(particle_color2);
           } else {
             setColor(particle_color);
-            shp_particle.setStroke(particle_color);
           }
         } else {
           setColor(particle_gray);
-          shp_particle.setStroke(particle_gray);
         }
         
       } else {
@@ -65,7 +63,9 @@ public class DwFoldingSoftBody extends DwSoftBody3D{
           float b = 0;
           
           setColor(toARGB(r,g,b));
-          shp_particle.setStroke(particle_gray);
+          if(shape instanceof DwParticleShape3D){
+            ((DwParticleShape3D) shape).setStroke(particle_gray);
+          }
           
           
         } else {
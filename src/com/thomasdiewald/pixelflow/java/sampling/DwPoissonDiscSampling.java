@@ -0,0 +1,430 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.sampling;
+
+import java.util.Arrays;
+
+import com.thomasdiewald.pixelflow.java.utils.DwParallel;
+
+
+/**
+ *
+ * Parallel Poisson disc sampling (2D/3D) with variable radii, samples are
+ * stored in primitive arrays.<br>
+ * <br>
+ * The bounds are covered by a background grid, cell size = 2 * (radius_max +
+ * offset), so samples can only collide with samples of the neighbor cells.
+ * Each cell (tile) is filled by Bridson-style dart throwing: new candidates
+ * are placed around existing samples (of the tile and its neighbors) and
+ * accepted if they are inside the tile and don't collide with any other
+ * sample.<br>
+ * Tiles of the same phase (cell coordinates with the same parity) are never
+ * neighbors, so they are filled in parallel, 4 phases in 2D, 8 in 3D.<br>
+ * <br>
+ * The result only depends on the seed, not on the number of threads.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwPoissonDiscSampling {
+
+  public long seed = 0;
+
+  // number of passes over all tiles, further passes fill gaps at tile borders
+  public int passes = 1;
+
+  // random darts per tile, to start the fill
+  public int seeds_per_tile = 2;
+
+  // result
+  public int count = 0;
+  public float[] x = new float[0];
+  public float[] y = new float[0];
+  public float[] z = new float[0]; // 0 in 2D
+  public float[] r = new float[0];
+
+  private int dim;
+  private DwParallel parallel;
+
+  // background grid, per-cell linked lists
+  private float[] bounds = new float[6];
+  private float cell_size;
+  private int gx, gy, gz;
+  private int[] HEAD = new int[0];
+  private int[] NEXT = new int[0];
+
+  // tiles per phase
+  private int[] phase_tiles  = new int[0];
+  private int[] phase_offset = new int[9];
+
+  // current generation
+  private float radius_min, radius_max, offset;
+  private int new_points;
+  private int pass;
+  private int phase;
+  private int num_chunks;
+  private Chunk[] chunks = new Chunk[0];
+
+
+  public DwPoissonDiscSampling(int dim){
+    this(dim, 1);
+  }
+
+  public DwPoissonDiscSampling(int dim, int num_threads){
+    this.dim = (dim == 2) ? 2 : 3;
+    this.parallel = new DwParallel(num_threads);
+  }
+
+  public void setThreadCount(int num_threads){
+    parallel.setThreadCount(num_threads);
+  }
+
+  public void release(){
+    parallel.release();
+  }
+
+
+
+
+  /**
+   * fills the bounds with samples.<br>
+   * A sample has a radius in [radius_min, radius_max], collision radius is
+   * radius + offset.
+   *
+   * @param bounds [xmin, ymin, zmin, xmax, ymax, zmax], z is ignored in 2D
+   */
+  public void generate(float[] bounds, float radius_min, float radius_max, float offset, int new_points){
+    this.radius_min = radius_min;
+    this.radius_max = radius_max;
+    this.offset     = offset;
+    this.new_points = new_points;
+
+    System.arraycopy(bounds, 0, this.bounds, 0, 6);
+    if(dim == 2){
+      this.bounds[2] = this.bounds[5] = 0;
+    }
+
+    cell_size = 2 * (radius_max + offset);
+    gx = Math.max(1, (int) Math.ceil((this.bounds[3] - this.bounds[0]) / cell_size));
+    gy = Math.max(1, (int) Math.ceil((this.bounds[4] - this.bounds[1]) / cell_size));
+    gz = (dim == 2) ? 1 : Math.max(1, (int) Math.ceil((this.bounds[5] - this.bounds[2]) / cell_size));
+
+    int num_cells = gx * gy * gz;
+    if(HEAD.length < num_cells){
+      HEAD = new int[num_cells];
+      phase_tiles = new int[num_cells];
+    }
+    Arrays.fill(HEAD, 0, num_cells, -1);
+    count = 0;
+
+    // tiles, sorted by phase
+    int num_phases = 1 << dim;
+    int ptr = 0;
+    for(int p = 0; p < num_phases; p++){
+      phase_offset[p] = ptr;
+      for(int iz = (p >> 2) & 1; iz < gz; iz += 2){
+        for(int iy = (p >> 1) & 1; iy < gy; iy += 2){
+          for(int ix = p & 1; ix < gx; ix += 2){
+            phase_tiles[ptr++] = (iz * gy + iy) * gx + ix;
+          }
+        }
+      }
+    }
+    phase_offset[num_phases] = ptr;
+
+    for(pass = 0; pass < passes; pass++){
+      for(phase = 0; phase < num_phases; phase++){
+        int lo = phase_offset[phase];
+        int hi = phase_offset[phase+1];
+        if(hi == lo) continue;
+
+        // chunks of consecutive tiles, committed in tile order
+        num_chunks = Math.min(hi - lo, parallel.getThreadCount() * 4);
+        if(chunks.length < num_chunks){
+          chunks = Arrays.copyOf(chunks, num_chunks);
+          for(int i = 0; i < num_chunks; i++){
+            if(chunks[i] == null) chunks[i] = new Chunk();
+          }
+        }
+        for(int c = 0; c < num_chunks; c++){
+          chunks[c].lo = lo + (int)((long)(hi - lo) * (c  ) / num_chunks);
+          chunks[c].hi = lo + (int)((long)(hi - lo) * (c+1) / num_chunks);
+        }
+
+        parallel.forRange(0, num_chunks, 1, task_fill);
+
+        commit();
+      }
+    }
+  }
+
+
+  private final DwParallel.Task task_fill = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      for(int c = lo; c < hi; c++){
+        Chunk chunk = chunks[c];
+        chunk.count = 0;
+        for(int t = chunk.lo; t < chunk.hi; t++){
+          chunk.fillTile(phase_tiles[t]);
+        }
+      }
+    }
+  };
+
+
+  // appends the samples of all chunks, in tile order
+  private void commit(){
+    int num_new = 0;
+    for(int c = 0; c < num_chunks; c++){
+      num_new += chunks[c].count;
+    }
+    if(count + num_new > x.length){
+      int size = Math.max(count + num_new, (int)(x.length * 1.5f));
+      x = Arrays.copyOf(x, size);
+      y = Arrays.copyOf(y, size);
+      z = Arrays.copyOf(z, size);
+      r = Arrays.copyOf(r, size);
+      NEXT = Arrays.copyOf(NEXT, size);
+    }
+
+    for(int c = 0; c < num_chunks; c++){
+      Chunk chunk = chunks[c];
+      for(int i = 0; i < chunk.count; i++){
+        int gid = chunk.cell[i];
+        x[count] = chunk.x[i];
+        y[count] = chunk.y[i];
+        z[count] = chunk.z[i];
+        r[count] = chunk.r[i];
+        NEXT[count] = HEAD[gid];
+        HEAD[gid] = count;
+        count++;
+      }
+    }
+  }
+
+
+  private int cell(float v, float vmin, int size){
+    int c = (int) Math.floor((v - vmin) / cell_size);
+    return c < 0 ? 0 : (c >= size ? size - 1 : c);
+  }
+
+
+
+
+  /**
+   * per-thread state: samples of the tiles of one chunk, source stack and
+   * random number generator.
+   */
+  private class Chunk {
+
+    int lo, hi;
+
+    // accepted samples of this chunk, in the current phase
+    int count = 0;
+    float[] x = new float[64];
+    float[] y = new float[64];
+    float[] z = new float[64];
+    float[] r = new float[64];
+    int  [] cell = new int[64];
+
+    // spawn sources, >= 0 committed sample, < 0 local sample (~idx)
+    int[] stack = new int[64];
+    int stack_size = 0;
+
+    // current tile
+    int tile;
+    int tile_start;
+    int cx0, cx1, cy0, cy1, cz0, cz1; // neighbor cell range
+    float tx0, tx1, ty0, ty1, tz0, tz1; // tile box
+
+    long rng;
+
+    float random(){
+      rng ^= rng << 13;
+      rng ^= rng >>> 7;
+      rng ^= rng << 17;
+      return (rng >>> 40) * 0x1.0p-24f;
+    }
+
+    void push(int idx){
+      if(stack_size == stack.length){
+        stack = Arrays.copyOf(stack, stack_size * 2);
+      }
+      stack[stack_size++] = idx;
+    }
+
+
+    void fillTile(int tile){
+      this.tile = tile;
+      this.tile_start = count;
+      this.stack_size = 0;
+
+      // per tile seed, independent of the chunk
+      long s = seed * 0x9E3779B97F4A7C15L + tile * 0xBF58476D1CE4E5B9L + pass * 0x94D049BB133111EBL;
+      s = (s ^ (s >>> 31)) * 0x9E3779B97F4A7C15L;
+      rng = (s == 0) ? 0x2545F4914F6CDD1DL : s;
+
+      int ix = tile % gx;
+      int iy = (tile / gx) % gy;
+      int iz = tile / (gx * gy);
+      tx0 = bounds[0] + ix * cell_size; tx1 = tx0 + cell_size;
+      ty0 = bounds[1] + iy * cell_size; ty1 = ty0 + cell_size;
+      tz0 = bounds[2] + iz * cell_size; tz1 = tz0 + cell_size;
+      cx0 = Math.max(ix - 1, 0); cx1 = Math.min(ix + 1, gx - 1);
+      cy0 = Math.max(iy - 1, 0); cy1 = Math.min(iy + 1, gy - 1);
+      cz0 = Math.max(iz - 1, 0); cz1 = Math.min(iz + 1, gz - 1);
+
+      // committed samples, that can place candidates into this tile
+      float rc_max = radius_max + offset;
+      for(int cz = cz0; cz <= cz1; cz++){
+        for(int cy = cy0; cy <= cy1; cy++){
+          for(int cx = cx0; cx <= cx1; cx++){
+            int j = HEAD[(cz * gy + cy) * gx + cx];
+            while(j != -1){
+              float reach = DwPoissonDiscSampling.this.r[j] + offset + rc_max;
+              if(distBoxSq(DwPoissonDiscSampling.this.x[j], DwPoissonDiscSampling.this.y[j], DwPoissonDiscSampling.this.z[j]) <= reach * reach){
+                push(j);
+              }
+              j = NEXT[j];
+            }
+          }
+        }
+      }
+
+      // random darts
+      if(pass == 0){
+        for(int i = 0; i < seeds_per_tile; i++){
+          float px = tx0 + random() * cell_size;
+          float py = ty0 + random() * cell_size;
+          float pz = (dim == 2) ? 0 : tz0 + random() * cell_size;
+          float pr = radius_min + random() * (radius_max - radius_min);
+          tryAdd(px, py, pz, pr);
+        }
+      }
+
+      // spawn new samples around existing ones
+      while(stack_size > 0){
+        int idx = stack[--stack_size];
+        float sx, sy, sz, sr;
+        if(idx >= 0){
+          sx = DwPoissonDiscSampling.this.x[idx];
+          sy = DwPoissonDiscSampling.this.y[idx];
+          sz = DwPoissonDiscSampling.this.z[idx];
+          sr = DwPoissonDiscSampling.this.r[idx];
+        } else {
+          idx = ~idx;
+          sx = x[idx]; sy = y[idx]; sz = z[idx]; sr = r[idx];
+        }
+
+        for(int i = 0; i < new_points; i++){
+          // random direction, (Marsaglia)
+          float dx, dy, dz, dd;
+          if(dim == 2){
+            do {
+              dx = random() * 2 - 1;
+              dy = random() * 2 - 1;
+              dd = dx*dx + dy*dy;
+            } while(dd > 1 || dd < 1E-6f);
+            dd = (float) (1.0 / Math.sqrt(dd));
+            dx *= dd;
+            dy *= dd;
+            dz = 0;
+          } else {
+            float u, v;
+            do {
+              u = random() * 2 - 1;
+              v = random() * 2 - 1;
+              dd = u*u + v*v;
+            } while(dd >= 1);
+            float sq = 2 * (float) Math.sqrt(1 - dd);
+            dx = u * sq;
+            dy = v * sq;
+            dz = 1 - 2 * dd;
+          }
+          float pr = radius_min + random() * (radius_max - radius_min);
+          dd = sr + pr + offset * 2;
+          tryAdd(sx + dx * dd, sy + dy * dd, sz + dz * dd, pr);
+        }
+      }
+    }
+
+
+    // squared distance to the current tile box
+    float distBoxSq(float px, float py, float pz){
+      float dx = Math.max(Math.max(tx0 - px, px - tx1), 0);
+      float dy = Math.max(Math.max(ty0 - py, py - ty1), 0);
+      float dz = (dim == 2) ? 0 : Math.max(Math.max(tz0 - pz, pz - tz1), 0);
+      return dx*dx + dy*dy + dz*dz;
+    }
+
+
+    void tryAdd(float px, float py, float pz, float pr){
+      // must be in the current tile
+      int ix = cell(px, bounds[0], gx);
+      int iy = cell(py, bounds[1], gy);
+      int iz = (dim == 2) ? 0 : cell(pz, bounds[2], gz);
+      int gid = (iz * gy + iy) * gx + ix;
+      if(gid != tile){
+        return;
+      }
+
+      // must be inside the bounds
+      float rc = pr + offset;
+      if(px - rc < bounds[0] || px + rc > bounds[3]) return;
+      if(py - rc < bounds[1] || py + rc > bounds[4]) return;
+      if(dim == 3 && (pz - rc < bounds[2] || pz + rc > bounds[5])) return;
+
+      // local samples of this tile
+      for(int i = tile_start; i < count; i++){
+        float dx = x[i] - px, dy = y[i] - py, dz = z[i] - pz;
+        float rr = r[i] + offset + rc;
+        if(dx*dx + dy*dy + dz*dz < rr*rr) return;
+      }
+
+      // committed samples of the neighbor cells
+      final float[] gx_ = DwPoissonDiscSampling.this.x;
+      final float[] gy_ = DwPoissonDiscSampling.this.y;
+      final float[] gz_ = DwPoissonDiscSampling.this.z;
+      final float[] gr_ = DwPoissonDiscSampling.this.r;
+      for(int cz = cz0; cz <= cz1; cz++){
+        for(int cy = cy0; cy <= cy1; cy++){
+          for(int cx = cx0; cx <= cx1; cx++){
+            int j = HEAD[(cz * gy + cy) * gx + cx];
+            while(j != -1){
+              float dx = gx_[j] - px, dy = gy_[j] - py, dz = gz_[j] - pz;
+              float rr = gr_[j] + offset + rc;
+              if(dx*dx + dy*dy + dz*dz < rr*rr) return;
+              j = NEXT[j];
+            }
+          }
+        }
+      }
+
+      // accept
+      if(count == x.length){
+        int size = count * 2;
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+        z = Arrays.copyOf(z, size);
+        r = Arrays.copyOf(r, size);
+        cell = Arrays.copyOf(cell, size);
+      }
+      x[count] = px;
+      y[count] = py;
+      z[count] = pz;
+      r[count] = pr;
+      cell[count] = gid;
+      push(~count);
+      count++;
+    }
+
+  }
+
+}
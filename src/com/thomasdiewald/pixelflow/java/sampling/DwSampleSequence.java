@@ -0,0 +1,225 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.sampling;
+
+
+/**
+ *
+ * Low-discrepancy sequences (Halton, Sobol) and warps, generated in batches
+ * into caller-provided arrays. No allocations per call.<br>
+ * <br>
+ * Every sample only depends on its index, so a range [index, index + count)
+ * can be split into chunks and generated on different threads, (e.g. with
+ * DwParallel).<br>
+ * 2D samples are interleaved: [u0, v0, u1, v1, ...].<br>
+ * 3D samples are interleaved: [x0, y0, z0, x1, y1, z1, ...].<br>
+ * <br>
+ * The Halton/warp results match the single sample functions of DwSampling,
+ * e.g.<br>
+ * halton2D() + uniformSphere() == DwSampling.uniformSampleSphere_Halton(index)
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSampleSequence {
+
+  static private final double PI_TWO = DwSampling.PI_TWO;
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // HALTON
+  //////////////////////////////////////////////////////////////////////////////
+
+  // radical inverse of the low digits, per base, table size = base^k <= 4096
+  static private final int TABLE_SIZE_MAX = 4096;
+  static private final int TABLE_BASE_MAX = 64;
+  static private final double[][] TABLES = new double[TABLE_BASE_MAX + 1][];
+
+  static private double[] getTable(int base){
+    double[] table = TABLES[base];
+    if(table == null){
+      synchronized(TABLES){
+        table = TABLES[base];
+        if(table == null){
+          int size = base;
+          while(size * base <= TABLE_SIZE_MAX) size *= base;
+          table = new double[size];
+          for(int i = 0; i < size; i++){
+            table[i] = DwSampling.halton(i, base);
+          }
+          TABLES[base] = table;
+        }
+      }
+    }
+    return table;
+  }
+
+
+  /**
+   * Halton sequence (radical inverse) of the given base, for the indices
+   * [index, index + count).<br>
+   * The low digits come from a table, the high digits only change every
+   * table-size samples.
+   *
+   * @param dst output, dst[dst_off + i * dst_stride] = halton(index + i, base)
+   */
+  static public void halton(int base, int index, int count, float[] dst, int dst_off, int dst_stride){
+    if(base == 2){
+      // bit reversal, exact
+      for(int i = index, k = dst_off, end = index + count; i < end; i++, k += dst_stride){
+        dst[k] = (float) ((Integer.reverse(i) & 0xFFFFFFFFL) * 0x1p-32);
+      }
+      return;
+    }
+
+    if(base > TABLE_BASE_MAX){
+      for(int i = index, k = dst_off, end = index + count; i < end; i++, k += dst_stride){
+        dst[k] = (float) DwSampling.halton(i, base);
+      }
+      return;
+    }
+
+    double[] table = getTable(base);
+    int size = table.length;
+    double scale = 1.0 / size;
+
+    int i = index, k = dst_off, end = index + count;
+    while(i < end){
+      int hi  = i / size;
+      int lo  = i - hi * size;
+      int num = Math.min(size - lo, end - i);
+      double high = DwSampling.halton(hi, base) * scale;
+      for(int j = lo, jend = lo + num; j < jend; j++, k += dst_stride){
+        dst[k] = (float) (table[j] + high);
+      }
+      i += num;
+    }
+  }
+
+  /**
+   * 2D Halton, bases 2 and 3, interleaved.
+   */
+  static public void halton2D(int index, int count, float[] uv, int uv_off){
+    halton(2, index, count, uv, uv_off    , 2);
+    halton(3, index, count, uv, uv_off + 1, 2);
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // SOBOL
+  //////////////////////////////////////////////////////////////////////////////
+
+  // direction numbers of the second dimension, (first dimension is the bit reversal)
+  static private final int[] SOBOL_V1 = new int[32];
+  static {
+    SOBOL_V1[0] = 1 << 31;
+    for(int i = 1; i < 32; i++){
+      SOBOL_V1[i] = SOBOL_V1[i-1] ^ (SOBOL_V1[i-1] >>> 1);
+    }
+  }
+
+  /**
+   * 2D Sobol sequence, interleaved, in gray code order, (each power of two
+   * range starting at 0 is the same point set as in natural order).<br>
+   * The first sample is computed directly, all others incrementally.<br>
+   * <br>
+   * Random digit scrambling: the samples are XOR'ed with scramble_u/scramble_v,
+   * 0 ... no scrambling.
+   */
+  static public void sobol2D(int index, int count, int scramble_u, int scramble_v, float[] uv, int uv_off){
+    int g = index ^ (index >>> 1);
+    int u = Integer.reverse(g) ^ scramble_u;
+    int v = scramble_v;
+    for(int b = 0; g != 0; b++, g >>>= 1){
+      if((g & 1) != 0) v ^= SOBOL_V1[b];
+    }
+
+    for(int i = index, k = uv_off, end = index + count; i < end; i++, k += 2){
+      uv[k  ] = (u >>> 8) * 0x1p-24f;
+      uv[k+1] = (v >>> 8) * 0x1p-24f;
+      int c = Integer.numberOfTrailingZeros(i + 1);
+      u ^= 1 << (31 - c);
+      v ^= SOBOL_V1[c];
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // WARPS, [0,1)^2 -> sphere, hemisphere, disk
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * uniform samples on the unit sphere.
+   */
+  static public void uniformSphere(float[] uv, int uv_off, int count, float[] xyz, int xyz_off){
+    sphere(uv, uv_off, count, 1, xyz, xyz_off);
+  }
+
+  /**
+   * samples on the unit sphere, z limited to [-horizontal, +horizontal].
+   */
+  static public void sphere(float[] uv, int uv_off, int count, float horizontal, float[] xyz, int xyz_off){
+    for(int i = 0, s = uv_off, d = xyz_off; i < count; i++, s += 2, d += 3){
+      double phi = uv[s] * PI_TWO;
+      double rnd = (uv[s+1] * 2.0 - 1.0) * horizontal;
+      double rad = Math.sqrt(1.0 - rnd*rnd);
+      xyz[d  ] = (float) (Math.cos(phi) * rad);
+      xyz[d+1] = (float) (Math.sin(phi) * rad);
+      xyz[d+2] = (float) rnd;
+    }
+  }
+
+  /**
+   * uniform samples on the unit hemisphere, z >= 0.
+   */
+  static public void uniformHemisphere(float[] uv, int uv_off, int count, float[] xyz, int xyz_off){
+    for(int i = 0, s = uv_off, d = xyz_off; i < count; i++, s += 2, d += 3){
+      double phi = uv[s] * PI_TWO;
+      double rnd = uv[s+1];
+      double rad = Math.sqrt(1.0 - rnd*rnd);
+      xyz[d  ] = (float) (Math.cos(phi) * rad);
+      xyz[d+1] = (float) (Math.sin(phi) * rad);
+      xyz[d+2] = (float) rnd;
+    }
+  }
+
+  /**
+   * cosine weighted samples on the unit hemisphere, z >= 0.
+   */
+  static public void cosineHemisphere(float[] uv, int uv_off, int count, float[] xyz, int xyz_off){
+    for(int i = 0, s = uv_off, d = xyz_off; i < count; i++, s += 2, d += 3){
+      double phi = uv[s] * PI_TWO;
+      double rnd = uv[s+1];
+      double rad = Math.sqrt(1.0 - rnd);
+      xyz[d  ] = (float) (Math.cos(phi) * rad);
+      xyz[d+1] = (float) (Math.sin(phi) * rad);
+      xyz[d+2] = (float) Math.sqrt(rnd);
+    }
+  }
+
+  /**
+   * samples on the unit disk, interleaved xy.<br>
+   * pow_dist = 0.5 .... uniform disk<br>
+   * pow_dist = 1.0 .... focused to center<br>
+   */
+  static public void disk(float[] uv, int uv_off, int count, float pow_dist, float[] xy, int xy_off){
+    for(int i = 0, s = uv_off, d = xy_off; i < count; i++, s += 2, d += 2){
+      double phi = uv[s] * PI_TWO;
+      double rad = Math.pow(uv[s+1], pow_dist);
+      xy[d  ] = (float) (Math.cos(phi) * rad);
+      xy[d+1] = (float) (Math.sin(phi) * rad);
+    }
+  }
+
+}
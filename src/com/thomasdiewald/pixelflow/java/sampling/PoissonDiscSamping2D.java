@@ -36,20 +36,14 @@ public abstract class PoissonDiscSamping2D<T extends DwCollisionObject> {
   }
   
   public void generatePoissonSampling2D(float[] bounds, float radius_min, float radius_max, float offset, int new_points){  
-    // fix bounds
-    float sx = bounds[3] - bounds[0], mx = (bounds[3] + bounds[0]) * 0.5f;
-    float sy = bounds[4] - bounds[1], my = (bounds[4] + bounds[1]) * 0.5f;
-    float sz = bounds[5] - bounds[2], mz = (bounds[5] + bounds[2]) * 0.5f;
-    float s_min = radius_max + offset;
-    
-    if(sx < s_min * 2) { bounds[0] = mx - s_min; bounds[3] = mx + s_min; } 
-    if(sy < s_min * 2) { bounds[1] = my - s_min; bounds[4] = my + s_min; } 
-    if(sz < s_min * 2) { bounds[2] = mz - s_min; bounds[5] = mz + s_min; } 
+    fixBounds(bounds, radius_max, offset);
+    float mx = (bounds[3] + bounds[0]) * 0.5f;
+    float my = (bounds[4] + bounds[1]) * 0.5f;
 
     // allocate data structures
     samples = new ArrayList<T>();
     stack   = new DwStack<Integer>();
-    grid    = new DwCollisionGrid(bounds, radius_max);
+    grid    = new DwCollisionGrid(bounds, radius_max, 2);
 
     // add first sample
     float pr_new = radius_min + rand.nextFloat() * (radius_max - radius_min);
@@ -70,6 +64,44 @@ public abstract class PoissonDiscSamping2D<T extends DwCollisionObject> {
     }
   }
   
+  
+  
+  private void fixBounds(float[] bounds, float radius_max, float offset){
+    float sx = bounds[3] - bounds[0], mx = (bounds[3] + bounds[0]) * 0.5f;
+    float sy = bounds[4] - bounds[1], my = (bounds[4] + bounds[1]) * 0.5f;
+    float sz = bounds[5] - bounds[2], mz = (bounds[5] + bounds[2]) * 0.5f;
+    float s_min = radius_max + offset;
+    
+    if(sx < s_min * 2) { bounds[0] = mx - s_min; bounds[3] = mx + s_min; } 
+    if(sy < s_min * 2) { bounds[1] = my - s_min; bounds[4] = my + s_min; } 
+    if(sz < s_min * 2) { bounds[2] = mz - s_min; bounds[5] = mz + s_min; } 
+  }
+  
+  
+  /**
+   * same as generatePoissonSampling2D(), but generated in parallel, (see
+   * DwPoissonDiscSampling). Samples are only instanced for accepted
+   * positions.
+   */
+  public void generatePoissonSampling2D(float[] bounds, float radius_min, float radius_max, float offset, int new_points, int num_threads){
+    fixBounds(bounds, radius_max, offset);
+    
+    DwPoissonDiscSampling pds = new DwPoissonDiscSampling(2, num_threads);
+    pds.seed = rand.nextLong();
+    pds.generate(bounds, radius_min, radius_max, offset, new_points);
+    pds.release();
+    
+    samples = new ArrayList<T>(pds.count);
+    stack   = new DwStack<Integer>();
+    grid    = new DwCollisionGrid(bounds, radius_max, 2);
+    for(int i = 0; i < pds.count; i++){
+      T sample = newInstance(pds.x[i], pds.y[i], pds.r[i], pds.r[i] + offset);
+      samples.add(sample);
+      grid.insertRealloc(sample);
+    }
+  }
+  
+
   public T createSample2D(T sample_old, float radius_min, float radius_max, float offset){
     float pr_old = sample_old.rad();
     float px_old = sample_old.x();
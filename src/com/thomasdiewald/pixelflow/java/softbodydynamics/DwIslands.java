@@ -0,0 +1,259 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.softbodydynamics;
+
+import java.util.Arrays;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringTable;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleStore;
+
+
+/**
+ *
+ * Islands (connected components over springs) of a DwParticleStore, used
+ * for sleeping.<br>
+ * <br>
+ * An island falls asleep when the velocity of all its particles stayed below
+ * a threshold for a number of frames. Sleeping particles are skipped in all
+ * update loops (DwParticleStore.sleep).<br>
+ * An island wakes up, if any of its particles was hit by a moving particle,
+ * was moved or got a force, (DwParticleStore.wake). Resting particles, that
+ * are below the sleep velocity, don't wake up others.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwIslands {
+
+  // number of islands
+  public int num_islands = 0;
+
+  // island of each particle
+  public int[] island = new int[0];
+
+  // per island
+  private int  [] rest_frames = new int  [0];
+  private float[] vmax        = new float[0];
+  private byte [] asleep      = new byte [0];
+  private byte [] moving      = new byte [0]; // velocity above the threshold
+
+  // union-find
+  private int[] parent = new int[0];
+
+  private int built_springs   = -1;
+  private int built_particles = -1;
+
+  // stats, last update
+  public int num_sleeping_islands   = 0;
+  public int num_sleeping_particles = 0;
+  public int num_awake_particles    = 0;
+
+
+  public DwIslands(){
+  }
+
+  /**
+   * forces a rebuild in the next build().
+   */
+  public void invalidate(){
+    built_springs = -1;
+  }
+
+
+  private int find(int i){
+    while(parent[i] != i){
+      parent[i] = parent[parent[i]]; // path halving
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * computes the connected components over all springs. Only rebuilt when the
+   * number of springs or particles changed. All islands are awake after a
+   * rebuild.
+   */
+  public boolean build(DwSpringTable springs, int num_particles){
+    if(built_springs == springs.count && built_particles == num_particles){
+      return false;
+    }
+
+    if(parent.length < num_particles){
+      parent = new int[num_particles];
+      island = new int[num_particles];
+    }
+    for(int i = 0; i < num_particles; i++){
+      parent[i] = i;
+    }
+
+    final int[] ia = springs.ia, ib = springs.ib;
+    for(int s = 0; s < springs.count; s++){
+      int ra = find(ia[s]);
+      int rb = find(ib[s]);
+      if(ra != rb){
+        if(ra < rb) parent[rb] = ra; else parent[ra] = rb;
+      }
+    }
+
+    // compact island ids, in order of the first particle
+    int count = 0;
+    for(int i = 0; i < num_particles; i++){
+      int r = find(i);
+      island[i] = (r == i) ? count++ : island[r];
+    }
+    num_islands = count;
+
+    if(rest_frames.length < num_islands){
+      rest_frames = new int  [num_islands];
+      vmax        = new float[num_islands];
+      asleep      = new byte [num_islands];
+      moving      = new byte [num_islands];
+    }
+    Arrays.fill(rest_frames, 0, num_islands, 0);
+    Arrays.fill(asleep     , 0, num_islands, (byte) 0);
+    Arrays.fill(moving     , 0, num_islands, (byte) 1);
+
+    built_springs   = springs.count;
+    built_particles = num_particles;
+    return true;
+  }
+
+
+  /**
+   * keeps the islands valid, after the store has been permuted,
+   * (see DwParticleStore.permute()).
+   */
+  public void permute(int[] order, int num_particles){
+    if(built_particles != num_particles){
+      return;
+    }
+    for(int j = 0; j < num_particles; j++) parent[j] = island[order[j]];
+    System.arraycopy(parent, 0, island, 0, num_particles);
+  }
+
+
+  /**
+   * call before a simulation step.<br>
+   * Wakes up all islands with a wake-request or a force, and sets the
+   * sleep state of each particle.
+   */
+  public void wake(DwParticleStore store){
+    final int count = store.count;
+    final byte[] sleep = store.sleep, wake = store.wake;
+    final float[] ax = store.ax, ay = store.ay, az = store.az;
+
+    for(int i = 0; i < count; i++){
+      if(sleep[i] == DwParticleStore.SLEEPING && (wake[i] != 0 || ax[i] != 0 || ay[i] != 0 || az[i] != 0)){
+        int k = island[i];
+        asleep[k] = 0;
+        rest_frames[k] = 0;
+      }
+    }
+
+    int num_sleeping = 0;
+    for(int i = 0; i < count; i++){
+      sleep[i] = state(island[i]);
+      wake [i] = 0;
+      if(sleep[i] == DwParticleStore.SLEEPING) num_sleeping++;
+    }
+
+    int num_sleeping_islands = 0;
+    for(int k = 0; k < num_islands; k++){
+      num_sleeping_islands += asleep[k];
+    }
+
+    this.num_sleeping_islands   = num_sleeping_islands;
+    this.num_sleeping_particles = num_sleeping;
+    this.num_awake_particles    = count - num_sleeping;
+  }
+
+  // a woken island is RESTING until it moves, so it doesn't wake up others
+  private byte state(int k){
+    if(asleep[k] != 0) return DwParticleStore.SLEEPING;
+    if(moving[k] == 0) return DwParticleStore.RESTING;
+    return DwParticleStore.AWAKE;
+  }
+
+
+  /**
+   * call after the constraints were solved, before the verlet integration.<br>
+   * An island falls asleep, when the velocity of all of its particles stayed
+   * below "sleep_velocity" for "sleep_frames" frames. The velocity of a
+   * sleeping particle is set to zero.
+   */
+  public void update(DwParticleStore store, float sleep_velocity, int sleep_frames){
+    final int count = store.count;
+    final byte[] sleep = store.sleep;
+
+    Arrays.fill(vmax, 0, num_islands, 0);
+    for(int i = 0; i < count; i++){
+      if(sleep[i] != DwParticleStore.SLEEPING){
+        int k = island[i];
+        float v = store.getVelocity(i);
+        if(v > vmax[k]) vmax[k] = v;
+      }
+    }
+
+    for(int k = 0; k < num_islands; k++){
+      if(asleep[k] != 0) continue;
+      if(vmax[k] < sleep_velocity){
+        moving[k] = 0;
+        if(++rest_frames[k] >= sleep_frames){
+          asleep[k] = 1;
+        }
+      } else {
+        moving[k] = 1;
+        rest_frames[k] = 0;
+      }
+    }
+
+    for(int i = 0; i < count; i++){
+      byte state = state(island[i]);
+      if(state == DwParticleStore.SLEEPING && sleep[i] != state){
+        store.px[i] = store.cx[i];
+        store.py[i] = store.cy[i];
+        store.pz[i] = store.cz[i];
+      }
+      sleep[i] = state;
+    }
+  }
+
+
+  /**
+   * wakes up all islands.
+   */
+  public void wakeAll(DwParticleStore store){
+    Arrays.fill(rest_frames, 0, num_islands, 0);
+    Arrays.fill(asleep     , 0, num_islands, (byte) 0);
+    Arrays.fill(moving     , 0, num_islands, (byte) 1);
+    Arrays.fill(store.sleep, (byte) 0);
+    Arrays.fill(store.wake , (byte) 0);
+    num_sleeping_islands   = 0;
+    num_sleeping_particles = 0;
+    num_awake_particles    = store.count;
+  }
+
+  /**
+   * wakes up the island of the particle in the given slot.
+   */
+  public void wakeIsland(DwParticleStore store, int slot){
+    if(slot >= 0 && slot < store.count){
+      store.wake[slot] = 1;
+    }
+  }
+
+  public int getIslandSleepingFrames(int k){
+    return rest_frames[k];
+  }
+
+  public boolean isIslandSleeping(int k){
+    return asleep[k] != 0;
+  }
+
+}
@@ -0,0 +1,220 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.softbodydynamics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleStore;
+import com.thomasdiewald.pixelflow.java.utils.DwParallel;
+
+
+/**
+ *
+ * Particle data of a DwPhysics, packed into direct buffers for a single
+ * instanced draw call, (instead of one PShape per particle).<br>
+ * <br>
+ * positions: [x, y, z, radius] per particle, (z = 0 in 2D)<br>
+ * colors:    ARGB per particle<br>
+ * <br>
+ * The buffers are double-buffered: update() packs into the back buffers and
+ * swaps. The front buffers stay valid until the next update(), so they can be
+ * uploaded (e.g. glBufferSubData) while the next frame is simulated.<br>
+ * Buffers are in native byte order and only reallocated when the particle
+ * count exceeds the capacity.<br>
+ * <br>
+ * Set DwPhysics.update_particle_shapes = false, when particles are only drawn
+ * from these buffers.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleRenderBuffer {
+
+  static public final int POSITION_STRIDE = 4; // x, y, z, radius
+
+  // color modes
+  static public final int COLOR_SHADING  = 0; // by velocity, see DwParticle.getShadingColor()
+  static public final int COLOR_CONSTANT = 1; // "color"
+  static public final int COLOR_NONE     = 2; // colors are not updated
+
+  public int color_mode = COLOR_SHADING;
+  public int color = 0xFF000000;
+
+  private FloatBuffer[] positions = new FloatBuffer[2];
+  private IntBuffer  [] colors    = new IntBuffer  [2];
+  private int capacity = 0;
+  private volatile int count = 0;
+  private volatile int front = 0;
+
+  private DwParallel parallel;
+
+  // current update
+  private DwParticle[] src_particles;
+  private DwParticleStore src_store;
+  private FloatBuffer dst_pos;
+  private IntBuffer   dst_col;
+
+
+  public DwParticleRenderBuffer(){
+    this(1);
+  }
+
+  public DwParticleRenderBuffer(int num_threads){
+    parallel = new DwParallel(num_threads);
+    resize(0);
+  }
+
+  public void setThreadCount(int num_threads){
+    parallel.setThreadCount(num_threads);
+  }
+
+  public void release(){
+    parallel.release();
+  }
+
+
+  private void resize(int size){
+    if(size <= capacity && positions[0] != null){
+      return;
+    }
+    capacity = Math.max(size, (int)(capacity * 1.5f));
+    for(int i = 0; i < 2; i++){
+      positions[i] = ByteBuffer.allocateDirect(capacity * POSITION_STRIDE * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+      colors   [i] = ByteBuffer.allocateDirect(capacity                   * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+  }
+
+
+  /**
+   * packs all particles of the given physics into the back buffers and swaps.
+   * Particles are read from the DwParticle objects, or from the particle
+   * store for a store-only simulation (DwPhysics.setParticleStore()).
+   */
+  public void update(DwPhysics<? extends DwParticle> physics){
+    DwParticle[] particles = physics.getParticles();
+    int num;
+    if(particles != null){
+      num = physics.getParticlesCount();
+      src_particles = particles;
+      src_store = null;
+    } else {
+      num = physics.getParticleStore().count;
+      src_particles = null;
+      src_store = physics.getParticleStore();
+    }
+
+    resize(num);
+    int back = front ^ 1;
+    dst_pos = positions[back];
+    dst_col = colors   [back];
+    dst_pos.clear().limit(num * POSITION_STRIDE);
+    dst_col.clear().limit(num);
+
+    if(src_particles != null){
+      parallel.forRange(0, num, task_particles);
+    } else {
+      parallel.forRange(0, num, task_store);
+    }
+
+    src_particles = null;
+    src_store = null;
+    dst_pos = null;
+    dst_col = null;
+
+    count = num;
+    front = back;
+  }
+
+
+  private final DwParallel.Task task_particles = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      final DwParticle[] particles = src_particles;
+      final FloatBuffer pos = dst_pos;
+      final IntBuffer   col = dst_col;
+      final int mode = color_mode;
+
+      for(int i = lo, k = lo * POSITION_STRIDE; i < hi; i++){
+        DwParticle p = particles[i];
+        if(p instanceof DwParticle3D){
+          DwParticle3D p3 = (DwParticle3D) p;
+          pos.put(k++, p3.cx);
+          pos.put(k++, p3.cy);
+          pos.put(k++, p3.cz);
+        } else {
+          DwParticle2D p2 = (DwParticle2D) p;
+          pos.put(k++, p2.cx);
+          pos.put(k++, p2.cy);
+          pos.put(k++, 0);
+        }
+        pos.put(k++, p.rad);
+
+        if(mode == COLOR_SHADING){
+          col.put(i, DwParticle.getShadingColor(p.getVelocity(), p.rad));
+        } else if(mode == COLOR_CONSTANT){
+          col.put(i, color);
+        }
+      }
+    }
+  };
+
+  private final DwParallel.Task task_store = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      final DwParticleStore store = src_store;
+      final float[] cx = store.cx, cy = store.cy, cz = store.cz, rad = store.rad;
+      final FloatBuffer pos = dst_pos;
+      final IntBuffer   col = dst_col;
+      final int mode = color_mode;
+
+      for(int i = lo, k = lo * POSITION_STRIDE; i < hi; i++){
+        pos.put(k++, cx[i]);
+        pos.put(k++, cy[i]);
+        pos.put(k++, cz[i]);
+        pos.put(k++, rad[i]);
+
+        if(mode == COLOR_SHADING){
+          col.put(i, DwParticle.getShadingColor(store.getVelocity(i), rad[i]));
+        } else if(mode == COLOR_CONSTANT){
+          col.put(i, color);
+        }
+      }
+    }
+  };
+
+
+
+  /**
+   * number of particles in the front buffers.
+   */
+  public int getCount(){
+    return count;
+  }
+
+  /**
+   * front buffer, [x, y, z, radius] per particle, limit = count * 4.
+   */
+  public FloatBuffer getPositions(){
+    return positions[front];
+  }
+
+  /**
+   * front buffer, ARGB per particle, limit = count.
+   */
+  public IntBuffer getColors(){
+    return colors[front];
+  }
+
+}
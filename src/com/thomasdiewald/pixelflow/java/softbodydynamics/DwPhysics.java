@@ -10,12 +10,17 @@ package com.thomasdiewald.pixelflow.java.softbodydynamics;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionGrid;
-import com.thomasdiewald.pixelflow.java.accelerationstructures.DwPair;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringColoring;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringTable;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleBroadphase;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleGrid;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleStore;
+import com.thomasdiewald.pixelflow.java.utils.DwParallel;
 
 public class DwPhysics<T extends DwParticle> {
   
@@ -31,6 +36,20 @@ public class DwPhysics<T extends DwParticle> {
     // 3D [xmin, ymin, zmin, xmax, ymax, zmax] 
     public float[] bounds = new float[6];
     
+    // number of threads, used for the particle store update.
+    // values > 1 imply "use_particle_store"
+    public int num_threads = 1;
+    
+    // store only: particles are reordered along a Z-order curve every
+    // "reorder_interval" frames, 0 ... disabled
+    public int reorder_interval = 0;
+    
+    // sleeping: islands (particles connected by springs) fall asleep when
+    // their velocity stayed below "sleep_velocity" for "sleep_frames" frames.
+    // 0 ... disabled, values > 0 imply "use_particle_store"
+    public float sleep_velocity = 0;
+    public int   sleep_frames   = 60;
+    
   }
   
   // 0 ... no collision (or not?)
@@ -41,9 +60,48 @@ public class DwPhysics<T extends DwParticle> {
   private int particles_count;
   private T[] particles;
   
+  // structure-of-arrays particle data, used when "use_particle_store" is true
+  private DwParticleStore particle_store = new DwParticleStore();
+  
+  // broad-phase collision detection for the particle store
+  private DwParticleBroadphase broadphase = new DwParticleGrid();
+  
+  // profiling, null ... disabled
+  private DwPhysicsProfiler profiler = null;
+  private DwPhysicsProfiler prof = null; // active during update()
+  
+  // true:  particles are simulated in packed arrays (DwParticleStore), the
+  //        particle objects are only views, synchronized once per update.
+  // false: particles are simulated as objects
+  public boolean use_particle_store = false;
+  
+  // true: particle objects are not used, the store is the only particle data.
+  private boolean store_only = false;
+  
+  // worker pool, for param.num_threads > 1
+  private DwParallel parallel = new DwParallel(1);
+  
+  // springs, partitioned into independent sets, for parallel relaxation.
+  // rebuilt when springs are added or removed.
+  private DwSpringColoring spring_coloring = new DwSpringColoring();
+  private int springs_colored_count = -1;
+  
+  // islands, for sleeping
+  private DwIslands islands = new DwIslands();
+  private boolean sleeping_active = false;
+  
+  // all springs, packed. Used for deduplication and for the store update.
+  public DwSpringTable spring_table = new DwSpringTable();
+  
+  // true:  addSpring() creates DwSpringConstraint objects, (views on the table)
+  // false: springs only exist in the spring table, which requires the
+  //        particle store update.
+  public boolean create_spring_objects = true;
+  
+  // spring objects, by spring table index
+  private DwSpringConstraint[] spring_views = new DwSpringConstraint[0];
   
   public ArrayList<DwSpringConstraint> springs = new ArrayList<DwSpringConstraint>();
-  public HashMap<DwPair<DwParticle>, DwSpringConstraint> spring_map = new HashMap<DwPair<DwParticle>, DwSpringConstraint>();
   
   public DwPhysics(DwPhysics.Param param){
     this.param = param;
@@ -61,8 +119,65 @@ public class DwPhysics<T extends DwParticle> {
     return springs;
   }
   public int getSpringCount(){
-    return springs.size();
+    return spring_table.count;
+  }
+  public DwSpringTable getSpringTable(){
+    return spring_table;
+  }
+  
+  /**
+   * returns the spring object of the given spring table index, or null.
+   */
+  public DwSpringConstraint getSpring(int idx){
+    return (idx >= 0 && idx < spring_views.length) ? spring_views[idx] : null;
+  }
+  
+  /**
+   * registers a spring object, spring.idx must be a valid spring table index.
+   */
+  public void addSpring(DwSpringConstraint spring){
+    if(spring.idx >= spring_views.length){
+      spring_views = Arrays.copyOf(spring_views, Math.max(64, (int) Math.ceil(spring_table.count * 1.5f)));
+    }
+    spring_views[spring.idx] = spring;
+    springs.add(spring);
+  }
+  public DwParticleStore getParticleStore(){
+    return particle_store;
+  }
+  
+  /**
+   * Sets a particle store that is simulated without any DwParticle views.
+   * Springs can be added to the spring table, using store indices.
+   */
+  public void setParticleStore(DwParticleStore store){
+    reset();
+    this.particle_store = store;
+    this.store_only = true;
+    this.use_particle_store = true;
+  }
+  
+  /**
+   * sets the broad-phase collision detection of the particle store update,
+   * e.g. DwParticleGrid (default) or DwParticleSortedGrid.
+   */
+  public void setBroadphase(DwParticleBroadphase broadphase){
+    this.broadphase = broadphase;
+  }
+  public DwParticleBroadphase getBroadphase(){
+    return broadphase;
+  }
+  
+  /**
+   * per-phase timings and counters, null ... disabled (default)
+   */
+  public void setProfiler(DwPhysicsProfiler profiler){
+    this.profiler = profiler;
+  }
+  public DwPhysicsProfiler getProfiler(){
+    return profiler;
   }
+  
   public int getNewCollisionGroupId(){
     return collision_group_id++;
   }
@@ -102,42 +217,157 @@ public class DwPhysics<T extends DwParticle> {
     collision_group_id = 1; 
     particles_count = 0;
     particles = null;
+    store_only = false;
+    frame_count = 0;
+    islands.wakeAll(particle_store);
+    particle_store.clear();
+    invalidateSpringColoring();
+    islands.invalidate();
+    sleeping_active = false;
     springs.clear();
-    spring_map.clear();
+    spring_table.clear();
+    Arrays.fill(spring_views, null);
   }
   
   
+  // update the particle shapes after each step, (particles without a shape
+  // are skipped)
   public boolean update_particle_shapes = true;
   
 
+  /**
+   * forces a rebuild of the spring coloring. Required after springs have been
+   * removed and added again, without changing the total spring count.
+   */
+  public void invalidateSpringColoring(){
+    springs_colored_count = -1;
+  }
+  
+  private void updateSpringColoring(int num_particles){
+    int num_springs = spring_table.count;
+    if(num_springs == springs_colored_count){
+      return;
+    }
+    spring_coloring.build(spring_table.ia, spring_table.ib, num_springs, num_particles);
+    springs_colored_count = num_springs;
+  }
+  
+  public int getSpringColorCount(){
+    return spring_coloring.num_colors;
+  }
+  
+  public DwIslands getIslands(){
+    return islands;
+  }
+  
+  public int getIslandCount(){
+    return sleeping_active ? islands.num_islands : 0;
+  }
+  public int getSleepingIslandCount(){
+    return sleeping_active ? islands.num_sleeping_islands : 0;
+  }
+  public int getSleepingParticleCount(){
+    return sleeping_active ? islands.num_sleeping_particles : 0;
+  }
+  public int getAwakeParticleCount(){
+    return sleeping_active ? islands.num_awake_particles : particle_store.count;
+  }
+  
+  /**
+   * wakes up all sleeping particles.
+   */
+  public void wakeUp(){
+    if(sleeping_active){
+      islands.wakeAll(particle_store);
+    }
+  }
+  
+  /**
+   * wakes up the island of the given particle (store slot / DwParticle.idx).
+   */
+  public void wakeUp(int idx){
+    islands.wakeIsland(particle_store, idx);
+  }
+  
+  public void release(){
+    parallel.release();
+  }
+  
   public void update(float timestep){
     
+    // sleeping was disabled
+    if(sleeping_active && !(param.sleep_velocity > 0)){
+      islands.wakeAll(particle_store);
+      sleeping_active = false;
+    }
+    
+    prof = (profiler != null && profiler.enabled) ? profiler : null;
+    
+    if(use_particle_store || param.num_threads > 1 || param.sleep_velocity > 0 || springs.size() < spring_table.count){
+      updateStore(timestep);
+      return;
+    }
+    
     if(particles == null){
       return;
     }
     
+    final DwPhysicsProfiler prof = this.prof;
+    if(prof != null) prof.beginFrame(particles_count, spring_table.count);
+    
     // iterative spring refinement
     for(int k = 0; k < param.iterations_springs; k++){
       for(DwSpringConstraint spring : springs) {
         spring.update();
       }
+      if(prof != null) prof.lap(DwPhysicsProfiler.SPRINGS);
       for(int i = 0; i < particles_count; i++){
         particles[i].updateBounds(param.bounds);
       }
+      if(prof != null) prof.lap(DwPhysicsProfiler.BOUNDS);
     }
       
     // iterative collision refinement
+    collision_grid.setDimension((particles_count > 0 && particles[0] instanceof DwParticle3D) ? 3 : 2);
     for(int k = 0; k < param.iterations_collisions; k++){  
       
       for(int i = 0; i < particles_count; i++){
         particles[i].beforeCollision();
       }
       
-      collision_grid.updateCollisions(particles, particles_count);
-      
-      for(int i = 0; i < particles_count; i++) {
-        particles[i].afterCollision();
-        particles[i].updateBounds(param.bounds);
+      if(prof == null){
+        collision_grid.updateCollisions(particles, particles_count);
+        
+        for(int i = 0; i < particles_count; i++) {
+          particles[i].afterCollision();
+          particles[i].updateBounds(param.bounds);
+        }
+      } else {
+        prof.lap(DwPhysicsProfiler.COLLISION_SOLVE);
+        collision_grid.build(particles, particles_count);
+        prof.lap(DwPhysicsProfiler.GRID_BUILD);
+        long pair_tests = collision_grid.pair_tests;
+        collision_grid.solve(particles, particles_count);
+        for(int i = 0; i < particles_count; i++) {
+          particles[i].afterCollision();
+        }
+        prof.lap(DwPhysicsProfiler.COLLISION_SOLVE);
+        for(int i = 0; i < particles_count; i++) {
+          particles[i].updateBounds(param.bounds);
+        }
+        prof.lap(DwPhysicsProfiler.BOUNDS);
+        
+        long hits = 0;
+        for(int i = 0; i < particles_count; i++) {
+          hits += particles[i].collision_count;
+        }
+        prof.addHits(hits);
+        prof.addPairTests(collision_grid.pair_tests - pair_tests);
+        if(k == param.iterations_collisions - 1 && prof.sampleOccupancy()){
+          collision_grid.computeOccupancy(prof.occupancy);
+          prof.setOccupancy();
+        }
+        prof.lap(DwPhysicsProfiler.OTHER);
       }
     }
 
@@ -146,19 +376,253 @@ public class DwPhysics<T extends DwParticle> {
       particles[i].addGravity(param.GRAVITY);
       particles[i].updatePosition(timestep);
       particles[i].updateBounds(param.bounds);
-      
-      if(update_particle_shapes){
+    }
+    if(prof != null) prof.lap(DwPhysicsProfiler.INTEGRATE);
+    
+    if(update_particle_shapes){
+      updateShapes();
+    }
+    
+    if(prof != null) prof.endFrame();
+  }
+  
+  
+  /**
+   * updates the display shapes (DwParticle.setShape()) of all particles.
+   * Called once after each update(), if "update_particle_shapes" is true.
+   */
+  public void updateShapes(){
+    if(particles == null || store_only){
+      return;
+    }
+    for(int i = 0; i < particles_count; i++){
+      if(particles[i].getShape() != null){
         particles[i].updateShape();
       }
     }
+  }
+  
+  
+  
+  private int frame_count = 0;
+  private int[] reorder_order;
+  private int[] reorder_slot_of = new int[0];
+  
+  /**
+   * store only: reorders the particle store along a Z-order (Morton) curve,
+   * so particles that are close in space are close in memory.
+   * Spring indices are updated, DwParticleStore.id keeps the original ids.
+   */
+  public void reorderParticles(){
+    if(!store_only){
+      return;
+    }
+    DwParticleStore store = particle_store;
+    reorder_order = store.computeMortonOrder(reorder_order);
+    store.permute(reorder_order);
+    
+    if(reorder_slot_of.length < store.count){
+      reorder_slot_of = new int[store.count];
+    }
+    for(int i = 0; i < store.count; i++){
+      reorder_slot_of[reorder_order[i]] = i;
+    }
+    spring_table.remap(reorder_slot_of);
+    islands.permute(reorder_order, store.count);
+  }
+  
+  
+  private void updateStore(float timestep){
+    
+    final DwParticleStore store = particle_store;
+    final DwPhysicsProfiler prof = this.prof;
+    
+    if(!store_only){
+      if(particles == null){
+        return;
+      }
+      store.bind(particles, particles_count);
+    }
+    
+    int count = store.count;
+    if(count == 0){
+      return;
+    }
+    
+    // after the early returns, each beginFrame() has its endFrame()
+    if(prof != null) prof.beginFrame(count, spring_table.count);
+    
+    parallel.setThreadCount(param.num_threads);
+    
+    if(!store_only){
+      parallel.forRange(0, particles_count, task_pull);
+    }
+    
+    // memory locality
+    if(store_only && param.reorder_interval > 0 && (frame_count % param.reorder_interval) == 0){
+      reorderParticles();
+    }
+    frame_count++;
+    
+    // sleeping islands
+    if(param.sleep_velocity > 0){
+      if(islands.build(spring_table, count) || !sleeping_active){
+        islands.wakeAll(store);
+      }
+      islands.wake(store);
+      sleeping_active = true;
+    }
+    
+    // iterative spring refinement, color by color
+    updateSpringColoring(count);
+    spring_table.pull(springs);
+    spring_table.updateParams();
+    final int[] color_offset = spring_coloring.color_offset;
+    if(prof != null) prof.lap(DwPhysicsProfiler.OTHER);
+    for(int k = 0; k < param.iterations_springs; k++){
+      for(int c = 0; c < spring_coloring.num_colors; c++){
+        parallel.forRange(color_offset[c], color_offset[c+1], SPRING_GRAIN, task_springs);
+      }
+      if(prof != null) prof.lap(DwPhysicsProfiler.SPRINGS);
+      parallel.forRange(0, count, task_bounds);
+      if(prof != null) prof.lap(DwPhysicsProfiler.BOUNDS);
+    }
+    spring_table.push(springs);
+    
+    // iterative collision refinement
+    for(int k = 0; k < param.iterations_collisions; k++){
+      if(prof == null){
+        parallel.forRange(0, count, task_collision_before);
+        broadphase.build(store);
+        parallel.forRange(0, count, task_collision_solve);
+        parallel.forRange(0, count, task_collision_after);
+      } else {
+        prof.lap(DwPhysicsProfiler.OTHER);
+        parallel.forRange(0, count, task_collision_before);
+        prof.lap(DwPhysicsProfiler.COLLISION_SOLVE);
+        broadphase.build(store);
+        prof.lap(DwPhysicsProfiler.GRID_BUILD);
+        long pair_tests = broadphase.getPairTests();
+        parallel.forRange(0, count, task_collision_solve);
+        parallel.forRange(0, count, task_collision_apply);
+        prof.lap(DwPhysicsProfiler.COLLISION_SOLVE);
+        parallel.forRange(0, count, task_bounds);
+        prof.lap(DwPhysicsProfiler.BOUNDS);
+        
+        long hits = 0;
+        for(int i = 0; i < count; i++){
+          hits += store.collision_count[i];
+        }
+        prof.addHits(hits);
+        prof.addPairTests(broadphase.getPairTests() - pair_tests);
+        if(k == param.iterations_collisions - 1 && prof.sampleOccupancy()){
+          broadphase.computeOccupancy(prof.occupancy);
+          prof.setOccupancy();
+        }
+      }
+    }
 
+    // sleep detection, the velocity after the constraints were solved and
+    // before gravity is added
+    if(sleeping_active){
+      islands.update(store, param.sleep_velocity, param.sleep_frames);
+    }
+    if(prof != null) prof.lap(DwPhysicsProfiler.OTHER);
+
+    // verlet integration
+    this.timestep = timestep;
+    parallel.forRange(0, count, task_integrate);
+    if(prof != null) prof.lap(DwPhysicsProfiler.INTEGRATE);
+    
+    if(!store_only){
+      parallel.forRange(0, particles_count, task_push);
+      if(update_particle_shapes){
+        updateShapes();
+      }
+    }
+    
+    if(prof != null) prof.endFrame();
   }
   
   
   
+  //////////////////////////////////////////////////////////////////////////////
+  // PARTICLE STORE TASKS
+  //////////////////////////////////////////////////////////////////////////////
   
+  private float timestep;
   
+  private final DwParallel.Task task_pull = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      particle_store.pull(particles, lo, hi);
+    }
+  };
   
+  private final DwParallel.Task task_push = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      particle_store.push(particles, lo, hi);
+    }
+  };
   
+  // springs of the same color don't share particles and can be solved in any
+  // order, so the result is independent of the number of threads
+  static private final int SPRING_GRAIN = 256;
+  
+  private final DwParallel.Task task_springs = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      spring_table.update(particle_store, spring_coloring.order, lo, hi);
+    }
+  };
+  
+  private final DwParallel.Task task_bounds = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      particle_store.updateBounds(param.bounds, lo, hi);
+    }
+  };
+  
+  private final DwParallel.Task task_collision_before = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      particle_store.beforeCollision(lo, hi);
+    }
+  };
+  
+  // each particle only accumulates its own collision response, so the
+  // result is independent of the number of threads
+  private final DwParallel.Task task_collision_solve = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      broadphase.solveCollisions(particle_store, lo, hi);
+    }
+  };
+  
+  // task_collision_after without bounds, used for profiling
+  private final DwParallel.Task task_collision_apply = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      particle_store.afterCollision(lo, hi);
+    }
+  };
+  
+  private final DwParallel.Task task_collision_after = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      particle_store.afterCollision(lo, hi);
+      particle_store.updateBounds(param.bounds, lo, hi);
+    }
+  };
+  
+  private final DwParallel.Task task_integrate = new DwParallel.Task() {
+    @Override
+    public void run(int lo, int hi) {
+      particle_store.addGravity(param.GRAVITY, lo, hi);
+      particle_store.updatePosition(timestep, lo, hi);
+      particle_store.updateBounds(param.bounds, lo, hi);
+    }
+  };
   
 }
@@ -0,0 +1,297 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.softbodydynamics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+
+/**
+ *
+ * Per-phase timings and counters of DwPhysics.update().<br>
+ * <br>
+ * One record per frame: nanoseconds per phase, tested collision pairs,
+ * collision hits (sum of collision_count), particle/spring counts and a
+ * histogram of the collision grid occupancy (particles per cell).<br>
+ * Records are kept in a ring buffer of fixed size. There is one writer (the
+ * thread calling DwPhysics.update()), readers may run on any thread and never
+ * block the writer.<br>
+ * <br>
+ * Set with DwPhysics.setProfiler(), with no profiler (or enabled == false)
+ * the update only pays for a null check per phase.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwPhysicsProfiler {
+
+  // phases
+  static public final int SPRINGS         = 0;
+  static public final int BOUNDS          = 1;
+  static public final int GRID_BUILD      = 2;
+  static public final int COLLISION_SOLVE = 3;
+  static public final int INTEGRATE       = 4;
+  static public final int OTHER           = 5; // sync, sleeping, spring coloring, ...
+  static public final int NUM_PHASES      = 6;
+
+  static public final String[] PHASE_NAMES = {
+      "springs", "bounds", "grid_build", "collision_solve", "integrate", "other"
+  };
+
+  // record layout
+  static public final int FRAME          = 0;
+  static public final int TOTAL_NS       = 1;
+  static public final int PHASE_NS       = 2; // + phase
+  static public final int PAIR_TESTS     = PHASE_NS + NUM_PHASES;
+  static public final int HITS           = PAIR_TESTS + 1;
+  static public final int NUM_PARTICLES  = PAIR_TESTS + 2;
+  static public final int NUM_SPRINGS    = PAIR_TESTS + 3;
+  static public final int OCCUPANCY      = PAIR_TESTS + 4; // + number of particles per cell
+  static public final int OCCUPANCY_BINS = 16;
+  static public final int RECORD_SIZE    = OCCUPANCY + OCCUPANCY_BINS;
+
+  public boolean enabled = true;
+
+  // occupancy histogram every N frames, 0 ... disabled
+  public int occupancy_interval = 1;
+
+  // ring buffer, one extra slot for the record being written
+  private final int    capacity;
+  private final int    slots;
+  private final long[] ring;
+  private volatile long num_records = 0;
+
+  // current frame
+  private final long[] record = new long[RECORD_SIZE];
+  private long frame = 0;
+  private long t_start;
+  private long t_lap;
+  private boolean occupancy_sampled = false;
+
+  // filled by DwPhysics, see sampleOccupancy()
+  public final int[] occupancy = new int[OCCUPANCY_BINS];
+
+
+  public DwPhysicsProfiler(){
+    this(1024);
+  }
+
+  /**
+   * @param capacity number of frames kept in the ring buffer
+   */
+  public DwPhysicsProfiler(int capacity){
+    this.capacity = Math.max(capacity, 1);
+    this.slots    = this.capacity + 1;
+    this.ring     = new long[this.slots * RECORD_SIZE];
+  }
+
+  public int getCapacity(){
+    return capacity;
+  }
+
+  /**
+   * discards all records, (not thread-safe with concurrent readers).
+   */
+  public void clear(){
+    num_records = 0;
+    frame = 0;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // WRITER
+  //////////////////////////////////////////////////////////////////////////////
+
+  public void beginFrame(int num_particles, int num_springs){
+    Arrays.fill(record, 0);
+    record[FRAME]         = frame;
+    record[NUM_PARTICLES] = num_particles;
+    record[NUM_SPRINGS]   = num_springs;
+    occupancy_sampled = false;
+    t_start = t_lap = System.nanoTime();
+  }
+
+  /**
+   * adds the time since the last lap to the given phase.
+   */
+  public void lap(int phase){
+    long t = System.nanoTime();
+    record[PHASE_NS + phase] += t - t_lap;
+    t_lap = t;
+  }
+
+  public void addPairTests(long count){
+    record[PAIR_TESTS] += count;
+  }
+
+  public void addHits(long count){
+    record[HITS] += count;
+  }
+
+  /**
+   * true, if the occupancy histogram should be computed for this frame. The
+   * caller fills "occupancy" and the values are added to the record.
+   */
+  public boolean sampleOccupancy(){
+    return occupancy_interval > 0 && (frame % occupancy_interval) == 0;
+  }
+
+  public void setOccupancy(){
+    for(int i = 0; i < OCCUPANCY_BINS; i++){
+      record[OCCUPANCY + i] = occupancy[i];
+    }
+    occupancy_sampled = true;
+  }
+
+  public void endFrame(){
+    long t = System.nanoTime();
+    record[PHASE_NS + OTHER] += t - t_lap;
+    record[TOTAL_NS] = t - t_start;
+    if(!occupancy_sampled){
+      for(int i = 0; i < OCCUPANCY_BINS; i++) record[OCCUPANCY + i] = -1;
+    }
+
+    long n = num_records;
+    System.arraycopy(record, 0, ring, (int)(n % slots) * RECORD_SIZE, RECORD_SIZE);
+    num_records = n + 1; // publish
+    frame++;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // READERS
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * total number of recorded frames, including the ones that have been
+   * overwritten in the ring buffer.
+   */
+  public long getRecordCount(){
+    return num_records;
+  }
+
+  /**
+   * copies the most recent records (oldest first) into dst, at most
+   * max_frames, and returns the number of copied records.<br>
+   * dst must hold max_frames * RECORD_SIZE values.
+   */
+  public int copyLatest(long[] dst, int max_frames){
+    max_frames = Math.min(max_frames, Math.min(capacity, dst.length / RECORD_SIZE));
+    long end   = num_records;
+    long begin = Math.max(0, end - max_frames);
+
+    for(long r = begin; r < end; r++){
+      int src = (int)(r % slots) * RECORD_SIZE;
+      System.arraycopy(ring, src, dst, (int)(r - begin) * RECORD_SIZE, RECORD_SIZE);
+    }
+
+    // records the writer may have overwritten in the meantime
+    long valid = num_records - slots + 1;
+    if(valid > begin){
+      int skip = (int) Math.min(valid - begin, end - begin);
+      System.arraycopy(dst, skip * RECORD_SIZE, dst, 0, (int)(end - begin - skip) * RECORD_SIZE);
+      begin += skip;
+    }
+    return (int)(end - begin);
+  }
+
+  /**
+   * value of the given field of the last record, or 0.
+   */
+  public long getLatest(int field){
+    long[] tmp = new long[RECORD_SIZE];
+    return copyLatest(tmp, 1) == 1 ? tmp[field] : 0;
+  }
+
+  /**
+   * average of the given field over the last "frames" records.
+   */
+  public double getAverage(int field, int frames){
+    long[] tmp = new long[Math.max(1, Math.min(frames, capacity)) * RECORD_SIZE];
+    int count = copyLatest(tmp, frames);
+    if(count == 0){
+      return 0;
+    }
+    double sum = 0;
+    for(int i = 0; i < count; i++){
+      sum += tmp[i * RECORD_SIZE + field];
+    }
+    return sum / count;
+  }
+
+  /**
+   * average time of the given phase, in milliseconds.
+   */
+  public double getPhaseMillis(int phase, int frames){
+    return getAverage(PHASE_NS + phase, frames) / 1E6;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // CSV
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public String getHeaderCSV(){
+    StringBuilder sb = new StringBuilder();
+    sb.append("frame,total_ns");
+    for(int i = 0; i < NUM_PHASES; i++){
+      sb.append(',').append(PHASE_NAMES[i]).append("_ns");
+    }
+    sb.append(",pair_tests,hits,particles,springs");
+    for(int i = 0; i < OCCUPANCY_BINS; i++){
+      sb.append(",cells_").append(i);
+      if(i == OCCUPANCY_BINS - 1) sb.append("_plus");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * writes all records of the ring buffer, one line per frame.
+   * Occupancy columns are -1 for frames without a histogram.
+   */
+  public void writeCSV(Writer writer) throws IOException {
+    long[] tmp = new long[capacity * RECORD_SIZE];
+    int count = copyLatest(tmp, capacity);
+
+    writer.write(getHeaderCSV());
+    writer.write('\n');
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < count; i++){
+      sb.setLength(0);
+      int off = i * RECORD_SIZE;
+      for(int j = 0; j < RECORD_SIZE; j++){
+        if(j > 0) sb.append(',');
+        sb.append(tmp[off + j]);
+      }
+      sb.append('\n');
+      writer.write(sb.toString());
+    }
+    writer.flush();
+  }
+
+  public void saveCSV(File file) throws IOException {
+    Writer writer = new BufferedWriter(new FileWriter(file));
+    try {
+      writeCSV(writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+}
@@ -0,0 +1,910 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringTable;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.utils.DwFrameQueue;
+
+
+/**
+ *
+ * Recording of the DwPhysics state, for replays and debugging.<br>
+ * <br>
+ * Per frame: particle positions (cx, cy, cz), previous positions (px, py, pz)
+ * and the enabled state of all springs.<br>
+ * <br>
+ * Positions are quantized (precision, e.g. 1/1024) or, with precision = 0,
+ * stored losslessly as float bits. Each value is predicted from the last
+ * frame, (Verlet: p = c', c = p + (c' - p')), and only the difference
+ * (quantized) or XOR (float bits) is stored. For a smooth simulation most
+ * residuals are a few bits, they are bit-packed in blocks of 128 values, with
+ * the bit width of the largest value. Spring states are bits, XORed with the
+ * last frame. The frame is then compressed with Deflater, level 1.<br>
+ * <br>
+ * Every keyframe_interval frames, and when the number of particles or springs
+ * changes, a keyframe is stored, which has no reference to the last frame.
+ * The Player can seek to any frame, by decoding from the nearest keyframe.<br>
+ * <br>
+ * The quantization error is at most precision/2, it does not accumulate, the
+ * recorder predicts from the quantized values.<br>
+ * <br>
+ * file:<br>
+ * header (16 bytes), frames, index (per frame: offset, size, flags, tag),
+ * trailer (index offset, version, magic). Without trailer, e.g. after a crash,
+ * the index is rebuilt from the frame headers.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwPhysicsRecording {
+
+  static public final int FILE_MAGIC    = 0x52504444; // "DDPR", little endian
+  static public final int FILE_VERSION  = 1;
+  static public final int FILE_HEADER   = 16;  // magic, version, precision, keyframe interval
+  static public final int CHUNK_MAGIC   = 0x4D524644; // "DFRM", little endian
+  static public final int CHUNK_HEADER  = 32;  // magic, frame, flags, size, raw size, reserved, tag
+  static public final int INDEX_ENTRY   = 24;  // offset, size, flags, tag
+  static public final int TRAILER_SIZE  = 16;  // index offset, version, magic
+
+  static public final int FLAG_KEYFRAME = 1;
+
+  static private final int BLOCK = 128;
+
+  // quantization step of the positions, 0 ... lossless
+  public float precision = 1f / 1024f;
+
+  // frames between two keyframes
+  public int keyframe_interval = 60;
+
+  public int frame_count;
+
+  protected long[] frame_offset = new long[0];
+  protected int [] frame_size   = new int [0];
+  protected int [] frame_flags  = new int [0];
+  protected long[] frame_tag    = new long[0];
+
+  // state of the last encoded/decoded frame, quantized values or float bits
+  protected int dim;
+  protected int particles_count;
+  protected int springs_count;
+  protected int[][] state_c = new int[3][0];
+  protected int[][] state_p = new int[3][0];
+  protected byte[]  state_springs = new byte[0];
+
+  // residuals, one channel
+  protected int[] residual_c = new int[0];
+  protected int[] residual_p = new int[0];
+
+
+  public long getFrameTag(int frame){
+    return frame_tag[frame];
+  }
+
+  public boolean isKeyframe(int frame){
+    return (frame_flags[frame] & FLAG_KEYFRAME) != 0;
+  }
+
+  /**
+   * nearest keyframe, at or before the given frame.
+   */
+  public int getKeyframe(int frame){
+    if(frame < 0 || frame >= frame_count){
+      throw new IndexOutOfBoundsException("frame "+frame+", frame_count "+frame_count);
+    }
+    while(frame > 0 && !isKeyframe(frame)){
+      frame--;
+    }
+    return frame;
+  }
+
+  /**
+   * compressed size of the given frame, in bytes.
+   */
+  public int getFrameSize(int frame){
+    return frame_size[frame];
+  }
+
+  protected void setIndex(int frame, long offset, int size, int flags, long tag){
+    if(frame >= frame_offset.length){
+      int len = Math.max(64, Math.max(frame + 1, frame_offset.length * 2));
+      frame_offset = Arrays.copyOf(frame_offset, len);
+      frame_size   = Arrays.copyOf(frame_size  , len);
+      frame_flags  = Arrays.copyOf(frame_flags , len);
+      frame_tag    = Arrays.copyOf(frame_tag   , len);
+    }
+    frame_offset[frame] = offset;
+    frame_size  [frame] = size;
+    frame_flags [frame] = flags;
+    frame_tag   [frame] = tag;
+  }
+
+  protected void resizeState(int count, int springs){
+    if(state_c[0].length < count){
+      for(int k = 0; k < 3; k++){
+        state_c[k] = new int[count];
+        state_p[k] = new int[count];
+      }
+      residual_c = new int[count];
+      residual_p = new int[count];
+    }
+    if(state_springs.length < (springs + 7) / 8){
+      state_springs = new byte[(springs + 7) / 8];
+    }
+  }
+
+
+  static protected float getC(DwParticle particle, int k){
+    if(particle instanceof DwParticle3D){
+      DwParticle3D p = (DwParticle3D) particle;
+      return k == 0 ? p.cx : k == 1 ? p.cy : p.cz;
+    } else {
+      DwParticle2D p = (DwParticle2D) particle;
+      return k == 0 ? p.cx : p.cy;
+    }
+  }
+
+  static protected float getP(DwParticle particle, int k){
+    if(particle instanceof DwParticle3D){
+      DwParticle3D p = (DwParticle3D) particle;
+      return k == 0 ? p.px : k == 1 ? p.py : p.pz;
+    } else {
+      DwParticle2D p = (DwParticle2D) particle;
+      return k == 0 ? p.px : p.py;
+    }
+  }
+
+  static protected void set(DwParticle particle, int k, float c, float p){
+    if(particle instanceof DwParticle3D){
+      DwParticle3D p3 = (DwParticle3D) particle;
+      if     (k == 0){ p3.cx = c; p3.px = p; }
+      else if(k == 1){ p3.cy = c; p3.py = p; }
+      else           { p3.cz = c; p3.pz = p; }
+    } else {
+      DwParticle2D p2 = (DwParticle2D) particle;
+      if(k == 0){ p2.cx = c; p2.px = p; }
+      else      { p2.cy = c; p2.py = p; }
+    }
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // BIT-PACKING
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * growable byte buffer, little endian, with bit-packed int blocks.
+   */
+  static protected class Bytes {
+    byte[] buf = new byte[1 << 16];
+    int pos;
+
+    void ensure(int num){
+      if(pos + num > buf.length){
+        buf = Arrays.copyOf(buf, Math.max(pos + num, buf.length * 2));
+      }
+    }
+
+    void putInt(int v){
+      ensure(4);
+      buf[pos++] = (byte) (v       );
+      buf[pos++] = (byte) (v >>  8);
+      buf[pos++] = (byte) (v >> 16);
+      buf[pos++] = (byte) (v >> 24);
+    }
+
+    int getInt(){
+      return (buf[pos++] & 0xFF) | (buf[pos++] & 0xFF) << 8 | (buf[pos++] & 0xFF) << 16 | buf[pos++] << 24;
+    }
+
+    /**
+     * blocks of BLOCK values: 1 byte bit width, then the values, (LSB first)
+     */
+    void pack(int[] src, int count){
+      ensure(count * 4 + count / BLOCK + 1 + 8);
+      final byte[] buf = this.buf;
+      for(int lo = 0; lo < count; lo += BLOCK){
+        int hi = Math.min(lo + BLOCK, count);
+        int or = 0;
+        for(int i = lo; i < hi; i++){
+          or |= src[i];
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(or);
+        buf[pos++] = (byte) bits;
+        if(bits == 0){
+          continue;
+        }
+        long acc = 0;
+        int  acc_bits = 0;
+        long mask = (1L << bits) - 1;
+        for(int i = lo; i < hi; i++){
+          acc |= (src[i] & mask) << acc_bits;
+          acc_bits += bits;
+          while(acc_bits >= 8){
+            buf[pos++] = (byte) acc;
+            acc >>>= 8;
+            acc_bits -= 8;
+          }
+        }
+        if(acc_bits > 0){
+          buf[pos++] = (byte) acc;
+        }
+      }
+    }
+
+    void unpack(int[] dst, int count) throws IOException {
+      final byte[] buf = this.buf;
+      for(int lo = 0; lo < count; lo += BLOCK){
+        int hi = Math.min(lo + BLOCK, count);
+        int bits = buf[pos++];
+        if(bits == 0){
+          Arrays.fill(dst, lo, hi, 0);
+          continue;
+        }
+        if(bits < 0 || bits > 32){
+          throw new IOException("DwPhysicsRecording: invalid block");
+        }
+        long acc = 0;
+        int  acc_bits = 0;
+        long mask = (1L << bits) - 1;
+        for(int i = lo; i < hi; i++){
+          while(acc_bits < bits){
+            acc |= (long) (buf[pos++] & 0xFF) << acc_bits;
+            acc_bits += 8;
+          }
+          dst[i] = (int) (acc & mask);
+          acc >>>= bits;
+          acc_bits -= bits;
+        }
+      }
+    }
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // RECORDER
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public class Recorder extends DwPhysicsRecording {
+
+    public File file;
+
+    // Deflater level, 1 (fast) ... 9 (small)
+    public int level = Deflater.BEST_SPEED;
+
+    // number of frame buffers, (frames in flight)
+    public int num_buffers = 3;
+
+    // frames are deltas to the previous frame, none may be dropped, (BLOCK)
+    private DwFrameQueue<Frame> queue;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private ArrayList<Frame> frames;
+    private Deflater deflater;
+    private long file_end;
+    private int  frame_seq;
+    private boolean keyframe;
+    private volatile IOException error;
+
+
+    static public class Frame {
+      Bytes raw = new Bytes();
+      byte[] chunk = new byte[0];
+      int  index;
+      int  flags;
+      long tag;
+    }
+
+
+    public Recorder(){
+    }
+
+    public void create(File file) throws IOException {
+      if (file == null){
+        throw new NullPointerException();
+      }
+      if (precision < 0){
+        throw new IllegalArgumentException("precision invalid: "+precision);
+      }
+      close();
+      this.file        = file;
+      this.frame_count = 0;
+      this.frame_seq   = 0;
+      this.keyframe    = true;
+      this.error       = null;
+
+      raf = new RandomAccessFile(file, "rw");
+      raf.setLength(0);
+      channel = raf.getChannel();
+
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(FILE_MAGIC);
+      header.putInt(FILE_VERSION);
+      header.putFloat(precision);
+      header.putInt(keyframe_interval);
+      header.flip();
+      write(header, 0);
+      file_end = FILE_HEADER;
+
+      deflater = new Deflater(level);
+      frames = new ArrayList<Frame>();
+      for(int i = 0; i < Math.max(1, num_buffers); i++){
+        frames.add(new Frame());
+      }
+      // single thread, frames are written in order
+      queue = new DwFrameQueue<Frame>(frames, 1, new DwFrameQueue.Encoder<Frame>() {
+        @Override
+        public void encode(Frame frame) throws IOException {
+          if(error != null){
+            return;
+          }
+          try {
+            writeFrame(frame);
+          } catch (IOException e) {
+            error = e;
+            throw e;
+          }
+        }
+      });
+      queue.policy = DwFrameQueue.POLICY.BLOCK;
+    }
+
+    /**
+     * queue depth, encode times, ...
+     */
+    public String getStats(){
+      return queue != null ? queue.getStats() : "";
+    }
+
+
+    /**
+     * the next frame is a keyframe.
+     */
+    public void keyframe(){
+      keyframe = true;
+    }
+
+    public void addFrame(DwPhysics<?> physics) throws IOException {
+      addFrame(physics, frame_seq);
+    }
+
+    /**
+     * records the current particles and springs of the given physics.
+     */
+    public void addFrame(DwPhysics<?> physics, long tag) throws IOException {
+      if(queue == null){
+        throw new IllegalStateException("not created");
+      }
+      if(error != null){
+        throw error;
+      }
+      DwParticle[] particles = physics.getParticles();
+      int count = physics.getParticlesCount();
+      if(particles == null && count > 0){
+        throw new IllegalStateException("DwPhysicsRecording: no particle objects");
+      }
+      Frame frame = queue.acquire();
+      if(frame == null){
+        throw new IOException("DwPhysicsRecording: closed");
+      }
+      frame.index = frame_seq++;
+      frame.tag   = tag;
+      frame.flags = encode(frame.raw, frame.index, particles, count, physics) ? FLAG_KEYFRAME : 0;
+      queue.submit(frame);
+    }
+
+
+    // particles/springs -> residuals -> bit-packed
+    private boolean encode(Bytes raw, int index, DwParticle[] particles, int count, DwPhysics<?> physics){
+      DwSpringTable table = physics.getSpringTable();
+      int springs = table.count;
+      int dim = (count > 0 && particles[0] instanceof DwParticle3D) ? 3 : 2;
+
+      boolean key = keyframe || (keyframe_interval > 0 && index % keyframe_interval == 0)
+                 || count != particles_count || springs != springs_count || dim != this.dim;
+      keyframe = false;
+      resizeState(count, springs);
+      this.particles_count = count;
+      this.springs_count   = springs;
+      this.dim             = dim;
+
+      raw.pos = 0;
+      raw.putInt(count);
+      raw.putInt(dim);
+      raw.putInt(springs);
+
+      final int[] rc = residual_c;
+      final int[] rp = residual_p;
+      final boolean lossless = precision == 0;
+      final double scale = lossless ? 0 : 1.0 / precision;
+
+      for(int k = 0; k < dim; k++){
+        final int[] sc = state_c[k];
+        final int[] sp = state_p[k];
+        for(int i = 0; i < count; i++){
+          float c = getC(particles[i], k);
+          float p = getP(particles[i], k);
+          if(lossless){
+            int bc = Float.floatToRawIntBits(c);
+            int bp = Float.floatToRawIntBits(p);
+            int pred_p = key ? 0  : sc[i];
+            int pred_c = key ? bp : Float.floatToRawIntBits(p + (Float.intBitsToFloat(sc[i]) - Float.intBitsToFloat(sp[i])));
+            rp[i] = bp ^ pred_p;
+            rc[i] = bc ^ pred_c;
+            sc[i] = bc;
+            sp[i] = bp;
+          } else {
+            int qc = (int) Math.round(c * scale);
+            int qp = (int) Math.round(p * scale);
+            int pred_p = key ? 0  : sc[i];
+            int pred_c = key ? qp : qp + sc[i] - sp[i];
+            rp[i] = zigzag(qp - pred_p);
+            rc[i] = zigzag(qc - pred_c);
+            sc[i] = qc;
+            sp[i] = qp;
+          }
+        }
+        raw.pack(rp, count);
+        raw.pack(rc, count);
+      }
+
+      // springs, enabled bits XOR last frame
+      int num_bytes = (springs + 7) / 8;
+      raw.ensure(num_bytes);
+      for(int b = 0; b < num_bytes; b++){
+        int bits = 0;
+        for(int j = 0, s = b * 8; j < 8 && s < springs; j++, s++){
+          DwSpringConstraint spring = physics.getSpring(s);
+          boolean enabled = spring != null ? spring.enabled : table.enabled[s] != 0;
+          if(enabled) bits |= 1 << j;
+        }
+        raw.buf[raw.pos++] = (byte) (bits ^ (key ? 0 : state_springs[b]));
+        state_springs[b] = (byte) bits;
+      }
+      return key;
+    }
+
+
+    // writer thread, raw -> chunk
+    private void writeFrame(Frame frame) throws IOException {
+      Bytes raw = frame.raw;
+      deflater.reset();
+      deflater.setInput(raw.buf, 0, raw.pos);
+      deflater.finish();
+      if(frame.chunk.length < CHUNK_HEADER + raw.pos + 64){
+        frame.chunk = new byte[CHUNK_HEADER + raw.pos + (raw.pos >> 8) + 64];
+      }
+      byte[] chunk = frame.chunk;
+      int size = CHUNK_HEADER;
+      while(!deflater.finished()){
+        if(size == chunk.length){
+          chunk = frame.chunk = Arrays.copyOf(chunk, chunk.length * 2);
+        }
+        size += deflater.deflate(chunk, size, chunk.length - size);
+      }
+
+      ByteBuffer header = ByteBuffer.wrap(chunk, 0, CHUNK_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(CHUNK_MAGIC);
+      header.putInt(frame.index);
+      header.putInt(frame.flags);
+      header.putInt(size - CHUNK_HEADER);
+      header.putInt(raw.pos);
+      header.putInt(0);
+      header.putLong(frame.tag);
+
+      write(ByteBuffer.wrap(chunk, 0, size), file_end);
+      setIndex(frame_count++, file_end, size, frame.flags, frame.tag);
+      file_end += size;
+    }
+
+    private void write(ByteBuffer buffer, long offset) throws IOException {
+      while(buffer.hasRemaining()){
+        offset += channel.write(buffer, offset);
+      }
+    }
+
+
+    /**
+     * waits for all pending frames, writes the index and closes the file.
+     */
+    public void close() throws IOException {
+      if(channel == null){
+        return;
+      }
+      queue.shutdown();
+      deflater.end();
+
+      try {
+        if(error != null){
+          throw error;
+        }
+        long index_offset = file_end;
+        ByteBuffer index = ByteBuffer.allocate(frame_count * INDEX_ENTRY + TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < frame_count; i++){
+          index.putLong(frame_offset[i]);
+          index.putInt (frame_size[i]);
+          index.putInt (frame_flags[i]);
+          index.putLong(frame_tag[i]);
+        }
+        index.putLong(index_offset);
+        index.putInt(FILE_VERSION);
+        index.putInt(FILE_MAGIC);
+        index.flip();
+        raf.setLength(index_offset + index.remaining());
+        write(index, index_offset);
+      } finally {
+        channel.close();
+        raf.close();
+        channel = null;
+        raf = null;
+        frames = null;
+        deflater = null;
+      }
+    }
+
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // PLAYER
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public class Player extends DwPhysicsRecording {
+
+    public File file;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private Inflater inflater = new Inflater();
+    private Bytes  raw   = new Bytes();
+    private byte[] chunk = new byte[0];
+
+    // last decoded frame, -1 ... none
+    private int frame = -1;
+
+
+    public Player(){
+    }
+
+    public void open(File file) throws IOException {
+      if (file == null){
+        throw new NullPointerException();
+      }
+      close();
+      this.file = file;
+      this.frame = -1;
+      raf = new RandomAccessFile(file, "r");
+      channel = raf.getChannel();
+
+      ByteBuffer header = read(0, FILE_HEADER);
+      int magic   = header.getInt();
+      int version = header.getInt();
+      if(magic != FILE_MAGIC || version != FILE_VERSION){
+        close();
+        throw new IOException("DwPhysicsRecording: unsupported file, magic/version: "+Integer.toHexString(magic)+"/"+version);
+      }
+      precision         = header.getFloat();
+      keyframe_interval = header.getInt();
+
+      if(!readIndex()){
+        readChunks();
+      }
+    }
+
+    private boolean readIndex() throws IOException {
+      long size = channel.size();
+      if(size < FILE_HEADER + TRAILER_SIZE){
+        return false;
+      }
+      ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+      long index_offset = trailer.getLong();
+      int  version      = trailer.getInt();
+      int  magic        = trailer.getInt();
+      long index_size   = size - TRAILER_SIZE - index_offset;
+      if(magic != FILE_MAGIC || version != FILE_VERSION || index_offset < FILE_HEADER || index_size < 0 || index_size % INDEX_ENTRY != 0){
+        return false;
+      }
+      int count = (int) (index_size / INDEX_ENTRY);
+      ByteBuffer index = read(index_offset, (int) index_size);
+      for(int i = 0; i < count; i++){
+        long offset = index.getLong();
+        int  fsize  = index.getInt();
+        int  flags  = index.getInt();
+        long tag    = index.getLong();
+        setIndex(i, offset, fsize, flags, tag);
+      }
+      frame_count = count;
+      return true;
+    }
+
+    // no index, frames from the chunk headers
+    private void readChunks() throws IOException {
+      long size = channel.size();
+      long offset = FILE_HEADER;
+      int count = 0;
+      while(offset + CHUNK_HEADER <= size){
+        ByteBuffer header = read(offset, CHUNK_HEADER);
+        int  magic = header.getInt();
+        int  index = header.getInt();
+        int  flags = header.getInt();
+        int  fsize = header.getInt();
+        long end   = offset + CHUNK_HEADER + fsize;
+        header.getInt(); // raw size
+        header.getInt(); // reserved
+        long tag   = header.getLong();
+        if(magic != CHUNK_MAGIC || index != count || fsize < 0 || end > size){
+          break; // incomplete frame
+        }
+        setIndex(count++, offset, CHUNK_HEADER + fsize, flags, tag);
+        offset = end;
+      }
+      frame_count = count;
+    }
+
+
+    /**
+     * last decoded frame, -1 ... none
+     */
+    public int getFrame(){
+      return frame;
+    }
+
+    public int getParticlesCount(){
+      return particles_count;
+    }
+
+    public int getSpringsCount(){
+      return springs_count;
+    }
+
+    public int getDimension(){
+      return dim;
+    }
+
+    /**
+     * decodes the given frame, from the nearest keyframe, or from the last
+     * decoded frame if that is closer.
+     */
+    public void seek(int frame) throws IOException {
+      int key = getKeyframe(frame);
+      int start = (this.frame >= key && this.frame <= frame) ? this.frame + 1 : key;
+      for(int i = start; i <= frame; i++){
+        decode(i);
+      }
+    }
+
+    /**
+     * decodes the next frame.
+     * @return false, at the end of the recording
+     */
+    public boolean next() throws IOException {
+      if(frame + 1 >= frame_count){
+        return false;
+      }
+      seek(frame + 1);
+      return true;
+    }
+
+
+    private void decode(int index) throws IOException {
+      this.frame = -1;
+      int size = frame_size[index];
+      if(chunk.length < size){
+        chunk = new byte[size];
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, size);
+      long offset = frame_offset[index];
+      while(buffer.hasRemaining()){
+        if(channel.read(buffer, offset + buffer.position()) == -1){
+          throw new IOException("DwPhysicsRecording: unexpected end of file");
+        }
+      }
+      ByteBuffer header = ByteBuffer.wrap(chunk, 0, CHUNK_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      int  magic    = header.getInt();
+      /* index */     header.getInt();
+      int  flags    = header.getInt();
+      int  csize    = header.getInt();
+      int  raw_size = header.getInt();
+      if(magic != CHUNK_MAGIC || csize != size - CHUNK_HEADER || raw_size < 12){
+        throw new IOException("DwPhysicsRecording: invalid frame "+index);
+      }
+
+      raw.pos = 0;
+      raw.ensure(raw_size + 8);
+      inflater.reset();
+      inflater.setInput(chunk, CHUNK_HEADER, csize);
+      try {
+        int count = 0;
+        while(count < raw_size && !inflater.finished()){
+          int num = inflater.inflate(raw.buf, count, raw_size - count);
+          if(num == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+            break;
+          }
+          count += num;
+        }
+        if(count != raw_size){
+          throw new IOException("DwPhysicsRecording: corrupt frame "+index);
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("DwPhysicsRecording: corrupt frame "+index, e);
+      }
+
+      boolean key = (flags & FLAG_KEYFRAME) != 0;
+      try {
+        decode(key);
+      } catch (ArrayIndexOutOfBoundsException e) {
+        throw new IOException("DwPhysicsRecording: corrupt frame "+index, e);
+      }
+      this.frame = index;
+    }
+
+    // bit-packed -> residuals -> state
+    private void decode(boolean key) throws IOException {
+      int count   = raw.getInt();
+      int dim     = raw.getInt();
+      int springs = raw.getInt();
+      if(count < 0 || springs < 0 || (dim != 2 && dim != 3)){
+        throw new IOException("DwPhysicsRecording: invalid frame");
+      }
+      if(!key && (count != particles_count || springs != springs_count || dim != this.dim)){
+        throw new IOException("DwPhysicsRecording: delta frame without matching keyframe");
+      }
+      resizeState(count, springs);
+      this.particles_count = count;
+      this.springs_count   = springs;
+      this.dim             = dim;
+
+      final int[] rc = residual_c;
+      final int[] rp = residual_p;
+      final boolean lossless = precision == 0;
+
+      for(int k = 0; k < dim; k++){
+        final int[] sc = state_c[k];
+        final int[] sp = state_p[k];
+        raw.unpack(rp, count);
+        raw.unpack(rc, count);
+        for(int i = 0; i < count; i++){
+          if(lossless){
+            int bp = rp[i] ^ (key ? 0 : sc[i]);
+            int pred_c = key ? bp : Float.floatToRawIntBits(Float.intBitsToFloat(bp) + (Float.intBitsToFloat(sc[i]) - Float.intBitsToFloat(sp[i])));
+            sc[i] = rc[i] ^ pred_c;
+            sp[i] = bp;
+          } else {
+            int qp = unzigzag(rp[i]) + (key ? 0 : sc[i]);
+            int pred_c = key ? qp : qp + sc[i] - sp[i];
+            sc[i] = unzigzag(rc[i]) + pred_c;
+            sp[i] = qp;
+          }
+        }
+      }
+
+      int num_bytes = (springs + 7) / 8;
+      for(int b = 0; b < num_bytes; b++){
+        state_springs[b] = (byte) (raw.buf[raw.pos++] ^ (key ? 0 : state_springs[b]));
+      }
+    }
+
+
+    public float getC(int idx, int k){
+      return value(state_c[k][idx]);
+    }
+
+    public float getP(int idx, int k){
+      return value(state_p[k][idx]);
+    }
+
+    public boolean isSpringEnabled(int idx){
+      return (state_springs[idx >> 3] & (1 << (idx & 7))) != 0;
+    }
+
+    private float value(int v){
+      return precision == 0 ? Float.intBitsToFloat(v) : v * precision;
+    }
+
+
+    /**
+     * sets the positions of the given particles, (DwParticle2D/DwParticle3D,
+     * by index) to the current frame.
+     */
+    public void apply(DwParticle[] particles, int count){
+      if(frame == -1){
+        throw new IllegalStateException("no frame decoded");
+      }
+      count = Math.min(count, particles_count);
+      for(int k = 0; k < dim; k++){
+        for(int i = 0; i < count; i++){
+          set(particles[i], k, getC(i, k), getP(i, k));
+        }
+      }
+    }
+
+    /**
+     * sets the particles and springs of the given physics to the current
+     * frame, (the physics must have the same particles, e.g. the scene that
+     * was recorded).
+     */
+    public <T extends DwParticle> void apply(DwPhysics<T> physics){
+      T[] particles = physics.getParticles();
+      if(particles_count > 0 && (particles == null || particles.length < particles_count)){
+        throw new IllegalStateException("DwPhysicsRecording: physics has less particles than the recording: "+particles_count);
+      }
+      apply(particles, particles_count);
+      physics.setParticles(particles, particles_count);
+
+      DwSpringTable table = physics.getSpringTable();
+      int springs = Math.min(springs_count, table.count);
+      for(int s = 0; s < springs; s++){
+        boolean enabled = isSpringEnabled(s);
+        table.enable(s, enabled);
+        DwSpringConstraint spring = physics.getSpring(s);
+        if(spring != null){
+          spring.enable(enabled);
+        }
+      }
+    }
+
+
+    public void close() throws IOException {
+      if(channel != null){
+        channel.close();
+        raf.close();
+        channel = null;
+        raf = null;
+      }
+      frame = -1;
+    }
+
+    private ByteBuffer read(long offset, int size) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      while(buffer.hasRemaining()){
+        if(channel.read(buffer, offset + buffer.position()) == -1){
+          throw new IOException("DwPhysicsRecording: unexpected end of file");
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+
+  }
+
+
+
+  static protected int zigzag(int v){
+    return (v << 1) ^ (v >> 31);
+  }
+
+  static protected int unzigzag(int v){
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+}
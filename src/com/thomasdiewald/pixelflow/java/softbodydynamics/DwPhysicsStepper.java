@@ -0,0 +1,271 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+package com.thomasdiewald.pixelflow.java.softbodydynamics;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleStore;
+
+
+/**
+ *
+ * Fixed timestep driver for DwPhysics.<br>
+ * <br>
+ * The elapsed frame time is accumulated, and DwPhysics.update() is called
+ * with a constant "timestep" as often as it fits into the accumulator, but
+ * at most "max_substeps" times per frame. Time beyond that is dropped, so
+ * the simulation slows down under load instead of falling behind.<br>
+ * The remainder is used to interpolate render positions between the last
+ * two simulation states, see getRenderPositions().<br>
+ * <br>
+ * e.g. 60 fps, 4 substeps per frame:<br>
+ * stepper.timestep = 0.25f;<br>
+ * stepper.update(frame_seconds * 60);<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwPhysicsStepper {
+
+  // fixed timestep, passed to DwPhysics.update()
+  public float timestep = 1f;
+
+  // max number of substeps per update(), 0 ... no limit
+  public int max_substeps = 8;
+
+  private DwPhysics<? extends DwParticle> physics;
+
+  private float accumulator = 0;
+  private float alpha = 0;
+
+  // stats
+  public int   substeps = 0;      // last update()
+  public long  substeps_total = 0;
+  public float time_dropped = 0;  // total time skipped, due to max_substeps
+
+  // positions before the last substep, by particle id
+  private float[] prev = new float[0];
+  private int     prev_count = -1;
+  private int     prev_dim = 0;
+
+
+  public DwPhysicsStepper(DwPhysics<? extends DwParticle> physics){
+    this.physics = physics;
+  }
+
+  public DwPhysicsStepper(DwPhysics<? extends DwParticle> physics, float timestep, int max_substeps){
+    this.physics = physics;
+    this.timestep = timestep;
+    this.max_substeps = max_substeps;
+  }
+
+  public void reset(){
+    accumulator = 0;
+    alpha = 0;
+    substeps = 0;
+    prev_count = -1;
+  }
+
+
+  /**
+   * advances the simulation by "frame_time" (same unit as "timestep") and
+   * returns the number of substeps.
+   */
+  public int update(float frame_time){
+    if(!(timestep > 0)){
+      return 0;
+    }
+
+    accumulator += Math.max(frame_time, 0);
+
+    int num_steps = (int)(accumulator / timestep);
+    if(max_substeps > 0 && num_steps > max_substeps){
+      float drop = (num_steps - max_substeps) * timestep;
+      accumulator  -= drop;
+      time_dropped += drop;
+      num_steps = max_substeps;
+    }
+
+    for(int i = 0; i < num_steps; i++){
+      if(i == num_steps - 1){
+        capture();
+      }
+      physics.update(timestep);
+    }
+    accumulator -= num_steps * timestep;
+    if(accumulator < 0) accumulator = 0;
+
+    alpha = accumulator / timestep;
+    substeps = num_steps;
+    substeps_total += num_steps;
+    return num_steps;
+  }
+
+
+  /**
+   * interpolation factor between the previous (0) and the current (1) state.
+   */
+  public float getAlpha(){
+    return alpha;
+  }
+
+  public float getAccumulator(){
+    return accumulator;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // INTERPOLATION
+  //////////////////////////////////////////////////////////////////////////////
+
+  private int getDimension(){
+    DwParticle[] particles = physics.getParticles();
+    if(particles != null && physics.getParticlesCount() > 0){
+      return (particles[0] instanceof DwParticle3D) ? 3 : 2;
+    }
+    return physics.getParticleStore().dim;
+  }
+
+  private int getCount(){
+    DwParticle[] particles = physics.getParticles();
+    if(particles != null){
+      return physics.getParticlesCount();
+    }
+    return physics.getParticleStore().count;
+  }
+
+  // copies the current positions, by particle id, so a reordered store
+  // (DwPhysics.reorderParticles()) can still be interpolated
+  private void capture(){
+    int dim   = getDimension();
+    int count = getCount();
+    if(prev.length < count * dim){
+      prev = new float[count * dim];
+    }
+
+    DwParticle[] particles = physics.getParticles();
+    if(particles != null){
+      for(int i = 0, k = 0; i < count; i++){
+        DwParticle p = particles[i];
+        if(dim == 3){
+          DwParticle3D p3 = (DwParticle3D) p;
+          prev[k++] = p3.cx; prev[k++] = p3.cy; prev[k++] = p3.cz;
+        } else {
+          DwParticle2D p2 = (DwParticle2D) p;
+          prev[k++] = p2.cx; prev[k++] = p2.cy;
+        }
+      }
+    } else {
+      DwParticleStore store = physics.getParticleStore();
+      for(int i = 0; i < count; i++){
+        int k = store.id[i] * dim;
+        prev[k++] = store.cx[i];
+        prev[k++] = store.cy[i];
+        if(dim == 3) prev[k] = store.cz[i];
+      }
+    }
+    prev_count = count;
+    prev_dim   = dim;
+  }
+
+
+  /**
+   * returns the interpolated positions of all particles, in particle order
+   * (store slot order for a store-only simulation).<br>
+   * 2D [x0, y0, x1, y1, ...]<br>
+   * 3D [x0, y0, z0, x1, y1, z1, ...]<br>
+   * The array is (re)allocated if it is null or too small.
+   */
+  public float[] getRenderPositions(float[] out){
+    int dim   = getDimension();
+    int count = getCount();
+    if(out == null || out.length < count * dim){
+      out = new float[count * dim];
+    }
+
+    // nothing to interpolate, e.g. particles were added
+    boolean valid = prev_count == count && prev_dim == dim;
+    float t = valid ? alpha : 1;
+    float s = 1 - t;
+
+    DwParticle[] particles = physics.getParticles();
+    if(particles != null){
+      for(int i = 0, k = 0; i < count; i++){
+        DwParticle p = particles[i];
+        if(dim == 3){
+          DwParticle3D p3 = (DwParticle3D) p;
+          out[k] = valid ? prev[k] * s + p3.cx * t : p3.cx; k++;
+          out[k] = valid ? prev[k] * s + p3.cy * t : p3.cy; k++;
+          out[k] = valid ? prev[k] * s + p3.cz * t : p3.cz; k++;
+        } else {
+          DwParticle2D p2 = (DwParticle2D) p;
+          out[k] = valid ? prev[k] * s + p2.cx * t : p2.cx; k++;
+          out[k] = valid ? prev[k] * s + p2.cy * t : p2.cy; k++;
+        }
+      }
+    } else {
+      DwParticleStore store = physics.getParticleStore();
+      for(int i = 0; i < count; i++){
+        int k = i * dim;
+        int j = store.id[i] * dim;
+        out[k++] = valid ? prev[j++] * s + store.cx[i] * t : store.cx[i];
+        out[k++] = valid ? prev[j++] * s + store.cy[i] * t : store.cy[i];
+        if(dim == 3){
+          out[k] = valid ? prev[j] * s + store.cz[i] * t : store.cz[i];
+        }
+      }
+    }
+    return out;
+  }
+
+  /**
+   * interpolated position of a single particle, (see getRenderPositions()).
+   */
+  public float[] getRenderPosition(int idx, float[] out){
+    int dim = getDimension();
+    if(out == null || out.length < dim){
+      out = new float[dim];
+    }
+    boolean valid = prev_count == getCount() && prev_dim == dim;
+
+    float x, y, z = 0;
+    int j;
+    DwParticle[] particles = physics.getParticles();
+    if(particles != null){
+      DwParticle p = particles[idx];
+      if(dim == 3){
+        DwParticle3D p3 = (DwParticle3D) p;
+        x = p3.cx; y = p3.cy; z = p3.cz;
+      } else {
+        DwParticle2D p2 = (DwParticle2D) p;
+        x = p2.cx; y = p2.cy;
+      }
+      j = idx * dim;
+    } else {
+      DwParticleStore store = physics.getParticleStore();
+      x = store.cx[idx]; y = store.cy[idx]; z = store.cz[idx];
+      j = store.id[idx] * dim;
+    }
+
+    if(valid){
+      float t = alpha, s = 1 - alpha;
+      x = prev[j  ] * s + x * t;
+      y = prev[j+1] * s + y * t;
+      if(dim == 3) z = prev[j+2] * s + z * t;
+    }
+    out[0] = x;
+    out[1] = y;
+    if(dim == 3) out[2] = z;
+    return out;
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.constraint;
+
+import java.util.Arrays;
+
+
+/**
+ *
+ * Constraint coloring for parallel spring relaxation.<br>
+ * <br>
+ * Springs are partitioned into colors (independent sets), so that no two
+ * springs of the same color share a particle. All springs of one color can be
+ * solved concurrently, colors are solved one after another (Gauss-Seidel).<br>
+ * <br>
+ * Greedy coloring, each spring gets the smallest color that is not used yet
+ * by one of its two particles.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSpringColoring {
+
+  // spring indices, sorted by color
+  public int[] order = new int[0];
+
+  // springs of color c: order[color_offset[c]] ... order[color_offset[c+1]-1]
+  public int[] color_offset = new int[1];
+
+  public int num_colors = 0;
+  public int num_springs = 0;
+
+  // per particle color-bitmask, "words" longs per particle
+  private long[] used = new long[0];
+  private int words = 1;
+
+  private int[] color = new int[0];
+
+  public DwSpringColoring(){
+  }
+
+
+  /**
+   * @param ia            particle index a, per spring
+   * @param ib            particle index b, per spring
+   * @param num_springs   number of springs
+   * @param num_particles number of particles (max index + 1)
+   */
+  public void build(int[] ia, int[] ib, int num_springs, int num_particles){
+    this.num_springs = num_springs;
+
+    if(color.length < num_springs){
+      color = new int[num_springs];
+    }
+    if(order.length < num_springs){
+      order = new int[num_springs];
+    }
+
+    words = 1;
+    used = resize(used, num_particles * words);
+    Arrays.fill(used, 0, num_particles * words, 0L);
+
+    // 1) greedy coloring
+    num_colors = 0;
+    for(int s = 0; s < num_springs; s++){
+      int a = ia[s] * words;
+      int b = ib[s] * words;
+
+      int c = -1;
+      for(int w = 0; w < words; w++){
+        long free = ~(used[a + w] | used[b + w]);
+        if(free != 0){
+          c = w * 64 + Long.numberOfTrailingZeros(free);
+          break;
+        }
+      }
+
+      // all colors in use, add another 64
+      if(c == -1){
+        c = words * 64;
+        growWords(num_particles);
+        a = ia[s] * words;
+        b = ib[s] * words;
+      }
+
+      used[a + (c >> 6)] |= 1L << (c & 63);
+      used[b + (c >> 6)] |= 1L << (c & 63);
+      color[s] = c;
+      if(c + 1 > num_colors) num_colors = c + 1;
+    }
+
+    // 2) counting sort by color, springs keep their order within a color
+    if(color_offset.length < num_colors + 1){
+      color_offset = new int[num_colors + 1];
+    }
+    Arrays.fill(color_offset, 0, num_colors + 1, 0);
+    for(int s = 0; s < num_springs; s++){
+      color_offset[color[s] + 1]++;
+    }
+    for(int c = 0; c < num_colors; c++){
+      color_offset[c + 1] += color_offset[c];
+    }
+    int[] ptr = Arrays.copyOf(color_offset, num_colors);
+    for(int s = 0; s < num_springs; s++){
+      order[ptr[color[s]]++] = s;
+    }
+  }
+
+
+  private void growWords(int num_particles){
+    int words_new = words + 1;
+    long[] used_new = new long[num_particles * words_new];
+    for(int i = 0; i < num_particles; i++){
+      System.arraycopy(used, i * words, used_new, i * words_new, words);
+    }
+    used  = used_new;
+    words = words_new;
+  }
+
+  private static long[] resize(long[] array, int size){
+    return (array.length < size) ? new long[size] : array;
+  }
+
+}
@@ -47,6 +47,9 @@ public abstract class DwSpringConstraint {
   public float dd_rest;
   public float force;
   
+  // index in DwPhysics.spring_table
+  public int idx = -1;
+  
   
   public abstract void  updateRestlength();
   public abstract float computeForce();
@@ -10,7 +10,6 @@
 
 package com.thomasdiewald.pixelflow.java.softbodydynamics.constraint;
 
-import com.thomasdiewald.pixelflow.java.accelerationstructures.DwPair;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
@@ -85,8 +84,13 @@ public class DwSpringConstraint2D extends DwSpringConstraint{
   
   static public DwSpringConstraint addSpring(DwPhysics<DwParticle2D> physics, DwParticle2D pa, DwParticle2D pb, float rest_length, Param param){
     DwSpringConstraint spring = addSpring(physics, pa, pb, param, TYPE.STRUCT); 
-    spring.dd_rest = rest_length;
-    spring.dd_rest_sq = rest_length*rest_length;
+    if(spring != null){
+      spring.setRestLength(rest_length);
+    }
+    int idx = physics.spring_table.find(pa.idx, pb.idx);
+    if(idx != -1){
+      physics.spring_table.setRestLength(idx, rest_length);
+    }
     return spring;
   }
   
@@ -98,16 +102,26 @@ public class DwSpringConstraint2D extends DwSpringConstraint{
     
     if(pa.idx < pb.idx){ DwParticle2D pt = pa; pa = pb; pb = pt; } // swap
  
-    DwPair<DwParticle> pair = new DwPair<DwParticle>(pa, pb);
-    DwSpringConstraint spring = physics.spring_map.get(pair);
-    if(spring == null){
-      spring = new DwSpringConstraint2D(pa, pb, param, type);
-      physics.spring_map.put(pair, spring);
-      physics.springs.add(spring);
-      
-      pa.addSpring(spring);
-      pb.addSpring(spring);
-    } 
+    DwSpringTable table = physics.spring_table;
+    int idx = table.find(pa.idx, pb.idx);
+    if(idx != -1){
+      return physics.getSpring(idx);
+    }
+    
+    float dx = pb.cx - pa.cx;
+    float dy = pb.cy - pa.cy;
+    float dd_rest = (float) Math.sqrt(dx*dx + dy*dy);
+    idx = table.add(pa.idx, pb.idx, dd_rest, param, type);
+    
+    if(!physics.create_spring_objects){
+      return null;
+    }
+    
+    DwSpringConstraint spring = new DwSpringConstraint2D(pa, pb, param, type);
+    spring.idx = idx;
+    physics.addSpring(spring);
+    pa.addSpring(spring);
+    pb.addSpring(spring);
     return spring;
   }
 
@@ -10,7 +10,6 @@
 
 package com.thomasdiewald.pixelflow.java.softbodydynamics.constraint;
 
-import com.thomasdiewald.pixelflow.java.accelerationstructures.DwPair;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
@@ -93,16 +92,27 @@ public class DwSpringConstraint3D extends DwSpringConstraint{
     
     if(pa.idx < pb.idx){ DwParticle3D pt = pa; pa = pb; pb = pt; } // swap
  
-    DwPair<DwParticle> pair = new DwPair<DwParticle>(pa, pb);
-    DwSpringConstraint spring = physics.spring_map.get(pair);
-    if(spring == null){
-      spring = new DwSpringConstraint3D(pa, pb, param, type);
-      physics.spring_map.put(pair, spring);
-      physics.springs.add(spring);
-      
-      pa.addSpring(spring);
-      pb.addSpring(spring);
-    } 
+    DwSpringTable table = physics.spring_table;
+    int idx = table.find(pa.idx, pb.idx);
+    if(idx != -1){
+      return physics.getSpring(idx);
+    }
+    
+    float dx = pb.cx - pa.cx;
+    float dy = pb.cy - pa.cy;
+    float dz = pb.cz - pa.cz;
+    float dd_rest = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+    idx = table.add(pa.idx, pb.idx, dd_rest, param, type);
+    
+    if(!physics.create_spring_objects){
+      return null;
+    }
+    
+    DwSpringConstraint spring = new DwSpringConstraint3D(pa, pb, param, type);
+    spring.idx = idx;
+    physics.addSpring(spring);
+    pa.addSpring(spring);
+    pb.addSpring(spring);
     return spring;
   
   }
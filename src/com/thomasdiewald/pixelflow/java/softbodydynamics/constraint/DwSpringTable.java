@@ -0,0 +1,329 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.constraint;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwLongIntMap;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleStore;
+
+
+/**
+ *
+ * Packed spring constraints.<br>
+ * <br>
+ * Springs are stored in primitive arrays, indexed by the spring index. The
+ * particle indices ia/ib refer to slots of a DwParticleStore, (ia > ib).<br>
+ * Spring params are kept by reference in a small palette, so changes to a
+ * DwSpringConstraint.Param are applied in the next update.<br>
+ * DwSpringConstraint objects are optional views on this table.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwSpringTable {
+
+  static private final DwSpringConstraint.TYPE[] TYPES = DwSpringConstraint.TYPE.values();
+
+  public int count = 0;
+
+  public int  [] ia       = new int  [0];
+  public int  [] ib       = new int  [0];
+  public float[] rest     = new float[0];
+  public float[] rest_sq  = new float[0];
+  public float[] force    = new float[0];
+  public byte [] type     = new byte [0];
+  public byte [] enabled  = new byte [0];
+  public short[] param_id = new short[0];
+
+  // param palette
+  public DwSpringConstraint.Param[] params = new DwSpringConstraint.Param[0];
+  public int num_params = 0;
+  private float[] damp_inc = new float[0];
+  private float[] damp_dec = new float[0];
+
+  // (ia, ib) -> spring index
+  private DwLongIntMap map = new DwLongIntMap();
+
+  // per particle spring lists, built on demand
+  private int[] adj_offset = new int[1];
+  private int[] adj        = new int[0];
+  private int   adj_count  = -1;
+  private int   adj_particles = 0;
+
+
+  public DwSpringTable(){
+  }
+
+  public void clear(){
+    count = 0;
+    num_params = 0;
+    map.clear();
+    Arrays.fill(params, null);
+    adj_count = -1;
+  }
+
+  public void resize(int capacity){
+    if(capacity <= ia.length){
+      return;
+    }
+    ia       = Arrays.copyOf(ia      , capacity);
+    ib       = Arrays.copyOf(ib      , capacity);
+    rest     = Arrays.copyOf(rest    , capacity);
+    rest_sq  = Arrays.copyOf(rest_sq , capacity);
+    force    = Arrays.copyOf(force   , capacity);
+    type     = Arrays.copyOf(type    , capacity);
+    enabled  = Arrays.copyOf(enabled , capacity);
+    param_id = Arrays.copyOf(param_id, capacity);
+  }
+
+
+  /**
+   * returns the index of the spring between the particles a and b, or -1.
+   */
+  public int find(int a, int b){
+    if(a < b){ int t = a; a = b; b = t; } // swap
+    return map.get(DwLongIntMap.key(a, b), -1);
+  }
+
+  /**
+   * adds a spring between the particles a and b and returns its index.
+   * If the spring already exists, the index of the existing spring is returned.
+   */
+  public int add(int a, int b, float rest_length, DwSpringConstraint.Param param, DwSpringConstraint.TYPE type){
+    if(a < b){ int t = a; a = b; b = t; } // swap
+    long key = DwLongIntMap.key(a, b);
+    int idx = map.get(key, -1);
+    if(idx != -1){
+      return idx;
+    }
+
+    if(count >= ia.length){
+      resize(Math.max(64, (int) Math.ceil(count * 1.5f)));
+    }
+    idx = count++;
+    this.ia      [idx] = a;
+    this.ib      [idx] = b;
+    this.rest    [idx] = rest_length;
+    this.rest_sq [idx] = rest_length * rest_length;
+    this.force   [idx] = 0;
+    this.type    [idx] = (byte) type.ordinal();
+    this.enabled [idx] = 1;
+    this.param_id[idx] = (short) getParamId(param);
+    map.put(key, idx);
+    return idx;
+  }
+
+  public int getParamId(DwSpringConstraint.Param param){
+    for(int i = num_params-1; i >= 0; i--){
+      if(params[i] == param) return i;
+    }
+    if(num_params >= params.length){
+      params = Arrays.copyOf(params, Math.max(4, num_params * 2));
+    }
+    params[num_params] = param;
+    return num_params++;
+  }
+
+  public DwSpringConstraint.TYPE getType(int idx){
+    return TYPES[type[idx]];
+  }
+
+  public void setRestLength(int idx, float rest_length){
+    rest   [idx] = rest_length;
+    rest_sq[idx] = rest_length * rest_length;
+  }
+
+  public void enable(int idx, boolean enable){
+    enabled[idx] = (byte)(enable ? 1 : 0);
+  }
+
+
+
+
+  /**
+   * changes the particle indices after the particles have been reordered,
+   * particle i moved to slot_of[i].
+   */
+  public void remap(int[] slot_of){
+    map.clear();
+    for(int s = 0; s < count; s++){
+      int a = slot_of[ia[s]];
+      int b = slot_of[ib[s]];
+      if(a < b){ int t = a; a = b; b = t; } // swap
+      ia[s] = a;
+      ib[s] = b;
+      map.put(DwLongIntMap.key(a, b), s);
+    }
+    adj_count = -1;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // VIEWS, DwSpringConstraint <-> DwSpringTable
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * gathers rest length, enabled-state and params of the given spring objects.
+   */
+  public void pull(List<DwSpringConstraint> springs){
+    for(int i = 0, len = springs.size(); i < len; i++){
+      DwSpringConstraint spring = springs.get(i);
+      int idx = spring.idx;
+      rest    [idx] = spring.dd_rest;
+      rest_sq [idx] = spring.dd_rest_sq;
+      enabled [idx] = (byte)(spring.enabled ? 1 : 0);
+      if(params[param_id[idx]] != spring.param){
+        param_id[idx] = (short) getParamId(spring.param);
+      }
+    }
+  }
+
+  /**
+   * scatters the forces of the last relaxation step to the given spring objects.
+   */
+  public void push(List<DwSpringConstraint> springs){
+    for(int i = 0, len = springs.size(); i < len; i++){
+      DwSpringConstraint spring = springs.get(i);
+      spring.force = force[spring.idx];
+    }
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // RELAXATION
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * copies the current values of the param palette, call once before update().
+   */
+  public void updateParams(){
+    if(damp_inc.length < num_params){
+      damp_inc = new float[num_params];
+      damp_dec = new float[num_params];
+    }
+    for(int i = 0; i < num_params; i++){
+      damp_inc[i] = params[i].damp_inc;
+      damp_dec[i] = params[i].damp_dec;
+    }
+  }
+
+  /**
+   * relaxes the springs order[lo] ... order[hi-1].
+   * Works for 2D and 3D stores, (cz is 0 for 2D).
+   */
+  public void update(DwParticleStore store, int[] order, int lo, int hi){
+    final float[] cx = store.cx, cy = store.cy, cz = store.cz;
+    final float[] mass = store.mass;
+    final byte [] flags = store.flags;
+    final byte [] sleep = store.sleep;
+
+    for(int k = lo; k < hi; k++){
+      int s = order[k];
+      if(enabled[s] == 0) continue;
+
+      int a = ia[s];
+      int b = ib[s];
+      if(sleep[a] == DwParticleStore.SLEEPING && sleep[b] == DwParticleStore.SLEEPING) continue; // sleeping island
+      byte fa = flags[a];
+      byte fb = flags[b];
+
+      float dx    = cx[b] - cx[a];
+      float dy    = cy[b] - cy[a];
+      float dz    = cz[b] - cz[a];
+      float dd_sq = dx*dx + dy*dy + dz*dz;
+      float rr_sq = rest_sq[s];
+      int   pid   = param_id[s];
+      float f     = (rr_sq / (dd_sq + rr_sq) - 0.5f);
+      f          *= (dd_sq < rr_sq) ? damp_inc[pid] : damp_dec[pid];
+      force[s]    = f;
+
+      float pa_mass_factor = 2f * mass[b] / (mass[a] + mass[b]);
+      float pb_mass_factor = 2f - pa_mass_factor;
+
+      if((fa & DwParticleStore.ENABLE_SPRINGS) != 0){
+        cx[a] -= dx * f * pa_mass_factor;
+        cy[a] -= dy * f * pa_mass_factor;
+        cz[a] -= dz * f * pa_mass_factor;
+      }
+      if((fb & DwParticleStore.ENABLE_SPRINGS) != 0){
+        cx[b] += dx * f * pb_mass_factor;
+        cy[b] += dy * f * pb_mass_factor;
+        cz[b] += dz * f * pb_mass_factor;
+      }
+    }
+  }
+
+  /**
+   * the current force of the spring, computed from the given positions.
+   */
+  public float computeForce(int s, DwParticleStore store){
+    int a = ia[s], b = ib[s];
+    float dx    = store.cx[b] - store.cx[a];
+    float dy    = store.cy[b] - store.cy[a];
+    float dz    = store.cz[b] - store.cz[a];
+    float dd_sq = dx*dx + dy*dy + dz*dz;
+    return (rest_sq[s] / (dd_sq + rest_sq[s]) - 0.5f);
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // ADJACENCY
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * builds per particle spring lists (CSR), rebuilt when springs were added.
+   */
+  public void buildAdjacency(int num_particles){
+    if(adj_count == count && adj_particles == num_particles){
+      return;
+    }
+    if(adj_offset.length < num_particles + 1){
+      adj_offset = new int[num_particles + 1];
+    }
+    if(adj.length < count * 2){
+      adj = new int[count * 2];
+    }
+    Arrays.fill(adj_offset, 0, num_particles + 1, 0);
+    for(int s = 0; s < count; s++){
+      adj_offset[ia[s] + 1]++;
+      adj_offset[ib[s] + 1]++;
+    }
+    for(int i = 0; i < num_particles; i++){
+      adj_offset[i + 1] += adj_offset[i];
+    }
+    int[] ptr = Arrays.copyOf(adj_offset, num_particles);
+    for(int s = 0; s < count; s++){
+      adj[ptr[ia[s]]++] = s;
+      adj[ptr[ib[s]]++] = s;
+    }
+    adj_count = count;
+    adj_particles = num_particles;
+  }
+
+  /**
+   * springs of particle i: getAdjacency()[getAdjacencyOffset()[i] ... getAdjacencyOffset()[i+1]-1]
+   */
+  public int[] getAdjacency(){
+    return adj;
+  }
+
+  public int[] getAdjacencyOffset(){
+    return adj_offset;
+  }
+
+}
@@ -15,9 +15,6 @@ import java.util.Arrays;
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionObject;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
 
-import processing.core.PMatrix;
-import processing.core.PShape;
-
 
 public abstract class DwParticle implements DwCollisionObject{
   
@@ -60,9 +57,8 @@ public abstract class DwParticle implements DwCollisionObject{
   public int collision_count;
 
   
-  // display shape
-  protected PShape  shp_particle  = null;
-  protected PMatrix shp_transform = null;
+  // display shape, (e.g. softbodydynamics.render.DwParticleShape2D)
+  protected DwParticleShape shape = null;
   
 
   public DwParticle(int idx) {
@@ -272,20 +268,20 @@ public abstract class DwParticle implements DwCollisionObject{
   //////////////////////////////////////////////////////////////////////////////
   // DISPLAY
   //////////////////////////////////////////////////////////////////////////////
-  public abstract void setShape(PShape shape);
-  
-  public PShape getShape(){
-    return shp_particle;
+  public void setShape(DwParticleShape shape){
+    this.shape = shape;
+    if(shape != null){
+      updateShape();
+    }
   }
   
-  public PMatrix getShapeTransform(){
-    return shp_transform;
+  public DwParticleShape getShape(){
+    return shape;
   }
   
   public void setColor(int col_argb){
-    if(shp_particle != null){
-      shp_particle.setTint(col_argb);
-      shp_particle.setFill(col_argb);
+    if(shape != null){
+      shape.setColor(col_argb);
     }
   }
   
@@ -294,9 +290,13 @@ public abstract class DwParticle implements DwCollisionObject{
     updateShapeColor();
   }
   
-  public abstract void updateShapePosition();
+  public void updateShapePosition(){
+    if(shape != null){
+      shape.updatePosition(this);
+    }
+  }
   
-  protected final float[][] PALLETTE = 
+  static protected final float[][] SHADING = 
     {
     {  50,  80,  130},    
     { 100, 178, 255}, 
@@ -304,39 +304,34 @@ public abstract class DwParticle implements DwCollisionObject{
 //      {   25,    100,    255}, 
 //      {   255,    0,    100}, 
   };
-
-  protected final void getShading(float val, float[] rgb){
-    if(val < 0.0) val = 0.0f; else if(val >= 1.0) val = 0.99999f;
-    float lum_steps = val * (PALLETTE.length-1);
+  
+  /**
+   * default particle color (ARGB), shaded by velocity and by the radius
+   * relative to MAX_RAD.
+   */
+  static public int getShadingColor(float vel, float rad){
+    float radn = 1.1f * rad / MAX_RAD;
+    
+    if(vel < 0.0) vel = 0.0f; else if(vel >= 1.0) vel = 0.99999f;
+    float lum_steps = vel * (SHADING.length-1);
     int   idx = (int)(Math.floor(lum_steps));
     float fract = lum_steps - idx;
+    float[] ca = SHADING[idx], cb = SHADING[idx+1];
     
-    rgb[0] = PALLETTE[idx][0] * (1-fract) +  PALLETTE[idx+1][0] * fract;
-    rgb[1] = PALLETTE[idx][1] * (1-fract) +  PALLETTE[idx+1][1] * fract;
-    rgb[2] = PALLETTE[idx][2] * (1-fract) +  PALLETTE[idx+1][2] * fract;
+    int r = clampColor((ca[0] * (1-fract) + cb[0] * fract) * radn);
+    int g = clampColor((ca[1] * (1-fract) + cb[1] * fract) * radn);
+    int b = clampColor((ca[2] * (1-fract) + cb[2] * fract) * radn);
+    return 0xFF000000 | r << 16 | g << 8 | b;
   }
-
   
-  protected int clamp(float v){
+  static private int clampColor(float v){
     if( v <   0 ) return 0;
     if( v > 255 ) return 255;
     return (int)v;
   }
   
-  private final float[] rgb = new float[3];
-  
   public void updateShapeColor(){
-    float vel  = getVelocity();
-    float radn = 1.1f * rad / MAX_RAD;
-
-    getShading(vel, rgb);
-    int a = 255;
-    int r = clamp(rgb[0] * radn) & 0xFF;
-    int g = clamp(rgb[1] * radn) & 0xFF;
-    int b = clamp(rgb[2] * radn) & 0xFF;
-    
-    int col = a << 24 | r << 16 | g << 8 | b;
-    setColor(col);
+    setColor(getShadingColor(getVelocity(), rad));
   }
   
   public abstract float getVelocity();
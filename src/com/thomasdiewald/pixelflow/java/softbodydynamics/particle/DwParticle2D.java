@@ -12,9 +12,6 @@ package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
 
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionObject;
 
-import processing.core.PMatrix2D;
-import processing.core.PShape;
-
 
 public class DwParticle2D extends DwParticle{
 
@@ -223,34 +220,6 @@ public class DwParticle2D extends DwParticle{
   
   
   
-  //////////////////////////////////////////////////////////////////////////////
-  // DISPLAY
-  ////////////////////////////////////////////////////////////////////////////// 
-  
-  @Override
-  public void setShape(PShape shape){
-    shp_particle = shape;
-    shp_transform = new PMatrix2D();
-    updateShapePosition();
-  }
-  
-  
-  @Override
-  public void updateShapePosition(){ 
-    // build transformation matrix
-    if(shp_transform != null){
-      shp_transform.reset();
-      shp_transform.translate(cx, cy);
-      shp_transform.rotate((float)Math.atan2(cy-py, cx-px));
-    }
-
-    // update shape position
-    if(shp_particle != null){
-      shp_particle.resetMatrix();
-      shp_particle.applyMatrix(shp_transform);
-    }
-  }
-
   @Override
   public float getVelocity(){
     float vx = cx - px;
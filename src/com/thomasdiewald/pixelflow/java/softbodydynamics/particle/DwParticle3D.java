@@ -13,9 +13,6 @@ package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
 import com.thomasdiewald.pixelflow.java.accelerationstructures.DwCollisionObject;
 import com.thomasdiewald.pixelflow.java.utils.DwUtils;
 
-import processing.core.PMatrix3D;
-import processing.core.PShape;
-
 public class DwParticle3D extends DwParticle{
   
   public float cx = 0, cy = 0, cz = 0; // current position
@@ -214,50 +211,6 @@ public class DwParticle3D extends DwParticle{
   
 
   
-  //////////////////////////////////////////////////////////////////////////////
-  // DISPLAY
-  //////////////////////////////////////////////////////////////////////////////
-  @Override
-  public void setShape(PShape shape){
-    shp_particle = shape;
-    shp_transform = new PMatrix3D();
-    updateShape();
-  }
-  
-  @Override
-  public void updateShapePosition(){
-    // build transformation matrix
-    if(shp_transform != null){
-      shp_transform.reset();
-      shp_transform.translate(cx, cy, cz);
-      // TODO: rotation matrix
-      // normalize up vector
-//      float vx = cx - px;
-//      float vy = cy - py;
-//      float vz = cz - pz;
-//      float vlen = (float) (1.0/ Math.sqrt(vx*vx + vy*vy + vz*vz));
-//      vx *= vlen;
-//      vy *= vlen;
-//      vz *= vlen;
-//      PMatrix3D shp_rot = new PMatrix3D();
-//      // [m00 m01 m02 m03]
-//      // [m10 m11 m12 m13]
-//      // [m20 m21 m22 m23]
-//      // [m30 m31 m32 m33]
-//      shp_rot.m02 = vx;
-//      shp_rot.m12 = vy;
-//      shp_rot.m22 = vz;
-//      shp_transform.apply(shp_rot);
-    }
-
-    // update shape position
-    if(shp_particle != null){
-      shp_particle.resetMatrix();
-      shp_particle.applyMatrix(shp_transform);
-    }
-  }
-  
-
   @Override
   public float getVelocity(){
     float vx = cx - px;
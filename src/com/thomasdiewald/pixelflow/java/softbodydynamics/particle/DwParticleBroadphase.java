@@ -0,0 +1,45 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
+
+
+/**
+ *
+ * Broad-phase collision detection for a DwParticleStore.<br>
+ * <br>
+ * build() is called once per collision iteration, solveCollisions() is then
+ * called concurrently for disjoint ranges of particles and may only write the
+ * collision accumulators of the particles in its range.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public interface DwParticleBroadphase {
+
+  public void build(DwParticleStore store);
+
+  public void solveCollisions(DwParticleStore store, int lo, int hi);
+
+  /**
+   * number of candidate pairs tested in solveCollisions(), since the last
+   * resetPairTests().
+   */
+  public long getPairTests();
+
+  public void resetPairTests();
+
+  /**
+   * number of particles per cell, of the last build().<br>
+   * histogram[k] is the number of cells with k particles, the last bin
+   * counts all cells with (histogram.length-1) or more particles.
+   */
+  public void computeOccupancy(int[] histogram);
+
+}
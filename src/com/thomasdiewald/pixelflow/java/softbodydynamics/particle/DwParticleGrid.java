@@ -0,0 +1,222 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Uniform collision grid for a DwParticleStore.<br>
+ * <br>
+ * Each particle is inserted once, into the cell of its center, as a per-cell
+ * linked list of particle indices (HEAD/NEXT).<br>
+ * Queries cover all cells within (radius + max radius), so each neighbor is
+ * visited exactly once and no "already collided" marker is required.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleGrid implements DwParticleBroadphase {
+
+  // upper limit of cells per particle, avoids huge grids for sparse scenes
+  static public int MAX_CELLS_PER_PARTICLE = 8;
+
+  protected float CELL_SIZE = 10f;
+  protected float CELL_SIZE_INV = 0.1f;
+  protected int   GRID_X;
+  protected int   GRID_Y;
+  protected int   GRID_Z;
+
+  protected float RAD_MAX;
+
+  protected int[] HEAD = new int[0];
+  protected int[] NEXT = new int[0];
+
+  public float[] bounds = new float[6];
+
+  // stats
+  private final AtomicLong pair_tests = new AtomicLong();
+
+  public DwParticleGrid(){
+  }
+
+
+  public void computeBounds(DwParticleStore store){
+    float x_min = +Float.MAX_VALUE, x_max = -Float.MAX_VALUE;
+    float y_min = +Float.MAX_VALUE, y_max = -Float.MAX_VALUE;
+    float z_min = +Float.MAX_VALUE, z_max = -Float.MAX_VALUE;
+
+    final float[] cx = store.cx, cy = store.cy, cz = store.cz;
+    final float[] rc = store.rad_collision;
+
+    float r_sum = 0;
+    float r_max = 0;
+    for(int i = 0; i < store.count; i++){
+      float x = cx[i], y = cy[i], z = cz[i], r = rc[i];
+      r_sum += r;
+      if(r > r_max) r_max = r;
+      if(x-r < x_min) x_min = x-r;
+      if(x+r > x_max) x_max = x+r;
+      if(y-r < y_min) y_min = y-r;
+      if(y+r > y_max) y_max = y+r;
+      if(z-r < z_min) z_min = z-r;
+      if(z+r > z_max) z_max = z+r;
+    }
+
+    bounds[0] = x_min;
+    bounds[1] = y_min;
+    bounds[2] = z_min;
+    bounds[3] = x_max;
+    bounds[4] = y_max;
+    bounds[5] = z_max;
+
+    RAD_MAX   = r_max;
+    CELL_SIZE = Math.max((r_sum * 2) / Math.max(store.count, 1), 0.0001f);
+  }
+
+
+  /**
+   * sets the grid dimensions and returns the number of cells.
+   */
+  protected int resizeGrid(DwParticleStore store){
+    int count = store.count;
+    boolean is3D = store.dim == 3;
+
+    // grid dimension, enlarge cells if the grid gets too sparse
+    int gx, gy, gz;
+    while(true){
+      gx = (int) Math.ceil((bounds[3] - bounds[0]) / CELL_SIZE) + 1;
+      gy = (int) Math.ceil((bounds[4] - bounds[1]) / CELL_SIZE) + 1;
+      gz = is3D ? (int) Math.ceil((bounds[5] - bounds[2]) / CELL_SIZE) + 1 : 1;
+      long num_cells = (long) gx * gy * gz;
+      if(num_cells <= (long) Math.max(count, 1024) * MAX_CELLS_PER_PARTICLE) break;
+      CELL_SIZE *= 1.5f;
+    }
+    CELL_SIZE_INV = 1f / CELL_SIZE;
+
+    GRID_X = gx;
+    GRID_Y = gy;
+    GRID_Z = gz;
+    return gx * gy * gz;
+  }
+
+
+  private void resize(DwParticleStore store){
+    int count = store.count;
+    int num_cells = resizeGrid(store);
+    if(num_cells > HEAD.length){
+      HEAD = new int[num_cells];
+    }
+    if(count > NEXT.length){
+      NEXT = new int[(int)(count * 1.2f)];
+    }
+
+    // clear HEAD pointers
+    for(int i = 0; i < num_cells; i++) HEAD[i] = -1;
+  }
+
+
+  protected final int cell(float v, float bmin, int grid_size){
+    int c = (int)((v - bmin) * CELL_SIZE_INV);
+    if(c < 0) return 0;
+    if(c >= grid_size) return grid_size-1;
+    return c;
+  }
+
+
+  @Override
+  public void build(DwParticleStore store){
+
+    // 0) prepare dimensions, size
+    computeBounds(store);
+
+    // 1) resize if necessary
+    resize(store);
+
+    // 2) create per-cell-linked-list
+    final float[] cx = store.cx, cy = store.cy, cz = store.cz;
+    for(int i = 0; i < store.count; i++){
+      int x = cell(cx[i], bounds[0], GRID_X);
+      int y = cell(cy[i], bounds[1], GRID_Y);
+      int z = cell(cz[i], bounds[2], GRID_Z);
+      int gid = (z * GRID_Y + y) * GRID_X + x;
+      NEXT[i] = HEAD[gid];
+      HEAD[gid] = i;
+    }
+  }
+
+
+  @Override
+  public void solveCollisions(DwParticleStore store, int lo, int hi){
+    final float[] cx = store.cx, cy = store.cy, cz = store.cz;
+    final float[] rc = store.rad_collision;
+    final byte[] flags = store.flags;
+    final byte[] sleep = store.sleep;
+    long tests = 0;
+
+    for(int i = lo; i < hi; i++){
+      if((flags[i] & DwParticleStore.ENABLE_COLLISIONS) == 0 || sleep[i] == DwParticleStore.SLEEPING) continue;
+
+      float pr = rc[i] + RAD_MAX;
+      int xmin = cell(cx[i] - pr, bounds[0], GRID_X);
+      int xmax = cell(cx[i] + pr, bounds[0], GRID_X);
+      int ymin = cell(cy[i] - pr, bounds[1], GRID_Y);
+      int ymax = cell(cy[i] + pr, bounds[1], GRID_Y);
+      int zmin = cell(cz[i] - pr, bounds[2], GRID_Z);
+      int zmax = cell(cz[i] + pr, bounds[2], GRID_Z);
+
+      for(int z = zmin; z <= zmax; z++){
+        for(int y = ymin; y <= ymax; y++){
+          for(int x = xmin; x <= xmax; x++){
+            int head = HEAD[(z * GRID_Y + y) * GRID_X + x];
+            while(head != -1){
+              store.updateCollision(i, head);
+              head = NEXT[head];
+              tests++;
+            }
+          }
+        }
+      }
+    }
+    addPairTests(tests);
+  }
+
+
+
+  protected final void addPairTests(long tests){
+    pair_tests.addAndGet(tests);
+  }
+
+  @Override
+  public long getPairTests(){
+    return pair_tests.get();
+  }
+
+  @Override
+  public void resetPairTests(){
+    pair_tests.set(0);
+  }
+
+  @Override
+  public void computeOccupancy(int[] histogram){
+    Arrays.fill(histogram, 0);
+    int last = histogram.length - 1;
+    int num_cells = GRID_X * GRID_Y * GRID_Z;
+    for(int gid = 0; gid < num_cells; gid++){
+      int n = 0;
+      for(int head = HEAD[gid]; head != -1 && n < last; head = NEXT[head]){
+        n++;
+      }
+      histogram[n]++;
+    }
+  }
+
+}
@@ -0,0 +1,198 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
+
+import java.util.Arrays;
+
+
+/**
+ *
+ * Uniform collision grid for a DwParticleStore, with persistent cells.<br>
+ * <br>
+ * The grid covers fixed world bounds (e.g. DwPhysics.Param.bounds), each
+ * particle keeps its cell between builds. A build only moves particles whose
+ * cell changed, in O(1) per particle (doubly linked lists).<br>
+ * The grid is rebuilt completely if the particle count changed, or if the
+ * fraction of moved particles exceeds "rebuild_threshold".<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleIncrementalGrid extends DwParticleGrid {
+
+  // rebuild, if more than this fraction of particles changed their cell
+  public float rebuild_threshold = 0.25f;
+
+  // world bounds, by reference
+  // 2D [xmin, ymin, xmax, ymax]
+  // 3D [xmin, ymin, zmin, xmax, ymax, zmax]
+  private float[] world_bounds;
+
+  private int[] PREV = new int[0];
+  private int[] CELL = new int[0];
+  private int[] CELL_NEW = new int[0];
+
+  private int   grid_count = -1;
+  private int   grid_dim = 0;
+  private float[] grid_bounds = new float[6];
+
+  // stats, last build
+  public int     num_moved = 0;
+  public boolean rebuilt = false;
+  public int     num_rebuilds = 0;
+
+
+  /**
+   * @param world_bounds fixed grid bounds, if null (or empty) the bounds of
+   *                     the particles at the time of a rebuild are used.
+   */
+  public DwParticleIncrementalGrid(float[] world_bounds){
+    this.world_bounds = world_bounds;
+  }
+
+  public void setBounds(float[] world_bounds){
+    this.world_bounds = world_bounds;
+    invalidate();
+  }
+
+  /**
+   * forces a complete rebuild in the next build().
+   */
+  public void invalidate(){
+    grid_count = -1;
+  }
+
+
+  private boolean boundsChanged(int dim){
+    if(world_bounds == null) return false;
+    float[] wb = world_bounds;
+    if(dim == 3 && wb.length >= 6){
+      return wb[0] != grid_bounds[0] || wb[1] != grid_bounds[1] || wb[2] != grid_bounds[2] ||
+             wb[3] != grid_bounds[3] || wb[4] != grid_bounds[4] || wb[5] != grid_bounds[5];
+    } else {
+      return wb[0] != grid_bounds[0] || wb[1] != grid_bounds[1] ||
+             wb[2] != grid_bounds[3] || wb[3] != grid_bounds[4];
+    }
+  }
+
+
+  private void rebuild(DwParticleStore store){
+    int count = store.count;
+
+    // cell size and max radius from the particles
+    computeBounds(store);
+
+    // fixed bounds
+    float[] wb = world_bounds;
+    if(wb != null){
+      if(store.dim == 3 && wb.length >= 6){
+        System.arraycopy(wb, 0, grid_bounds, 0, 6);
+      } else {
+        grid_bounds[0] = wb[0]; grid_bounds[1] = wb[1]; grid_bounds[2] = 0;
+        grid_bounds[3] = wb[2]; grid_bounds[4] = wb[3]; grid_bounds[5] = 0;
+      }
+      boolean valid = grid_bounds[3] > grid_bounds[0] && grid_bounds[4] > grid_bounds[1];
+      if(valid){
+        System.arraycopy(grid_bounds, 0, bounds, 0, 6);
+      }
+    }
+
+    int num_cells = resizeGrid(store);
+    if(num_cells > HEAD.length){
+      HEAD = new int[num_cells];
+    }
+    if(count > NEXT.length){
+      int size = (int)(count * 1.2f);
+      NEXT     = new int[size];
+      PREV     = new int[size];
+      CELL     = new int[size];
+      CELL_NEW = new int[size];
+    }
+    Arrays.fill(HEAD, 0, num_cells, -1);
+
+    final float[] cx = store.cx, cy = store.cy, cz = store.cz;
+    for(int i = 0; i < count; i++){
+      int x = cell(cx[i], bounds[0], GRID_X);
+      int y = cell(cy[i], bounds[1], GRID_Y);
+      int z = cell(cz[i], bounds[2], GRID_Z);
+      link(i, (z * GRID_Y + y) * GRID_X + x);
+    }
+
+    grid_count = count;
+    grid_dim   = store.dim;
+    num_moved  = count;
+    rebuilt    = true;
+    num_rebuilds++;
+  }
+
+
+  private void link(int i, int gid){
+    int head = HEAD[gid];
+    NEXT[i] = head;
+    PREV[i] = -1;
+    if(head != -1) PREV[head] = i;
+    HEAD[gid] = i;
+    CELL[i] = gid;
+  }
+
+  private void unlink(int i){
+    int prev = PREV[i];
+    int next = NEXT[i];
+    if(prev != -1) NEXT[prev] = next; else HEAD[CELL[i]] = next;
+    if(next != -1) PREV[next] = prev;
+  }
+
+
+  @Override
+  public void build(DwParticleStore store){
+    int count = store.count;
+
+    if(count != grid_count || store.dim != grid_dim || boundsChanged(store.dim)){
+      rebuild(store);
+      return;
+    }
+
+    // 1) new cells, count changes
+    final float[] cx = store.cx, cy = store.cy, cz = store.cz;
+    final float[] rc = store.rad_collision;
+    float r_max = 0;
+    int moved = 0;
+    for(int i = 0; i < count; i++){
+      int x = cell(cx[i], bounds[0], GRID_X);
+      int y = cell(cy[i], bounds[1], GRID_Y);
+      int z = cell(cz[i], bounds[2], GRID_Z);
+      int gid = (z * GRID_Y + y) * GRID_X + x;
+      CELL_NEW[i] = gid;
+      if(gid != CELL[i]) moved++;
+      if(rc[i] > r_max) r_max = rc[i];
+    }
+    RAD_MAX = r_max;
+
+    // 2) too many changes, rebuild
+    if(moved > count * rebuild_threshold){
+      rebuild(store);
+      return;
+    }
+
+    // 3) move particles, that changed their cell
+    if(moved > 0){
+      for(int i = 0; i < count; i++){
+        int gid = CELL_NEW[i];
+        if(gid != CELL[i]){
+          unlink(i);
+          link(i, gid);
+        }
+      }
+    }
+    num_moved = moved;
+    rebuilt   = false;
+  }
+
+}
@@ -0,0 +1,33 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
+
+
+/**
+ * 
+ * Display shape of a particle.<br>
+ * <br>
+ * The simulation core has no dependency on any renderer, shapes are updated
+ * in a batch after each simulation step (DwPhysics.updateShapes()).<br>
+ * Processing implementations: softbodydynamics.render.DwParticleShape2D/3D
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public interface DwParticleShape {
+  
+  /**
+   * called after a simulation step, e.g. to update a transformation matrix.
+   */
+  public void updatePosition(DwParticle particle);
+  
+  public void setColor(int col_argb);
+
+}
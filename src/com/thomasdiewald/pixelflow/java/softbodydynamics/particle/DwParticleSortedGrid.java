@@ -0,0 +1,202 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
+
+import java.util.Arrays;
+
+
+/**
+ *
+ * Uniform collision grid for a DwParticleStore, built by a counting sort.<br>
+ * <br>
+ * 1) particles are counted per cell, the prefix sum gives the start of each
+ *    cell in the sorted array (CELL_START).<br>
+ * 2) particle indices are scattered into their cells (SORTED), and the data
+ *    used by the collision test is copied in the same order.<br>
+ * <br>
+ * Cells of a grid row are adjacent in the sorted array, so a query reads one
+ * contiguous range per row, instead of following linked lists.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleSortedGrid extends DwParticleGrid {
+
+  private int[] CELL_START = new int[1];
+  private int[] CELL       = new int[0];
+  private int[] SORTED     = new int[0];
+
+  // particle data, in cell order
+  private float[] sx = new float[0];
+  private float[] sy = new float[0];
+  private float[] sz = new float[0];
+  private float[] sr = new float[0];
+  private float[] sm = new float[0];
+  private int  [] sg = new int  [0];
+
+  public DwParticleSortedGrid(){
+  }
+
+
+  private void resize(DwParticleStore store){
+    int count = store.count;
+    int num_cells = resizeGrid(store);
+    if(num_cells + 1 > CELL_START.length){
+      CELL_START = new int[num_cells + 1];
+    }
+    if(count > SORTED.length){
+      int size = (int)(count * 1.2f);
+      CELL   = new int  [size];
+      SORTED = new int  [size];
+      sx     = new float[size];
+      sy     = new float[size];
+      sz     = new float[size];
+      sr     = new float[size];
+      sm     = new float[size];
+      sg     = new int  [size];
+    }
+    Arrays.fill(CELL_START, 0, num_cells + 1, 0);
+  }
+
+
+  @Override
+  public void build(DwParticleStore store){
+
+    // 0) prepare dimensions, size
+    computeBounds(store);
+
+    // 1) resize if necessary
+    resize(store);
+
+    final int count = store.count;
+    final int num_cells = GRID_X * GRID_Y * GRID_Z;
+    final float[] cx = store.cx, cy = store.cy, cz = store.cz;
+
+    // 2) count particles per cell
+    for(int i = 0; i < count; i++){
+      int x = cell(cx[i], bounds[0], GRID_X);
+      int y = cell(cy[i], bounds[1], GRID_Y);
+      int z = cell(cz[i], bounds[2], GRID_Z);
+      int gid = (z * GRID_Y + y) * GRID_X + x;
+      CELL[i] = gid;
+      CELL_START[gid + 1]++;
+    }
+
+    // 3) prefix sum -> start of each cell
+    for(int c = 0; c < num_cells; c++){
+      CELL_START[c + 1] += CELL_START[c];
+    }
+
+    // 4) scatter, CELL_START[c] is used as insert pointer and restored after
+    for(int i = 0; i < count; i++){
+      SORTED[CELL_START[CELL[i]]++] = i;
+    }
+    for(int c = num_cells; c > 0; c--){
+      CELL_START[c] = CELL_START[c - 1];
+    }
+    CELL_START[0] = 0;
+
+    // 5) gather particle data in cell order
+    final float[] rc = store.rad_collision, mass = store.mass;
+    final int  [] group = store.collision_group;
+    for(int j = 0; j < count; j++){
+      int i = SORTED[j];
+      sx[j] = cx[i];
+      sy[j] = cy[i];
+      sz[j] = cz[i];
+      sr[j] = rc[i];
+      sm[j] = mass[i];
+      sg[j] = group[i];
+    }
+  }
+
+
+  @Override
+  public void solveCollisions(DwParticleStore store, int lo, int hi){
+    final float[] cx = store.cx, cy = store.cy, cz = store.cz;
+    final float[] rc = store.rad_collision;
+    final float[] mass = store.mass;
+    final float[] damp_collision = store.damp_collision;
+    final int  [] group = store.collision_group;
+    final byte [] flags = store.flags;
+    final byte [] sleep = store.sleep;
+    final byte [] wake  = store.wake;
+    long tests = 0;
+
+    for(int i = lo; i < hi; i++){
+      if((flags[i] & DwParticleStore.ENABLE_COLLISIONS) == 0 || sleep[i] == DwParticleStore.SLEEPING) continue;
+
+      final float ax = cx[i], ay = cy[i], az = cz[i], ar = rc[i], am = mass[i];
+      final int   ag = group[i];
+      final float damp = damp_collision[i];
+
+      float pr = ar + RAD_MAX;
+      int xmin = cell(ax - pr, bounds[0], GRID_X);
+      int xmax = cell(ax + pr, bounds[0], GRID_X);
+      int ymin = cell(ay - pr, bounds[1], GRID_Y);
+      int ymax = cell(ay + pr, bounds[1], GRID_Y);
+      int zmin = cell(az - pr, bounds[2], GRID_Z);
+      int zmax = cell(az + pr, bounds[2], GRID_Z);
+
+      float col_x = 0, col_y = 0, col_z = 0;
+      int   col_count = 0;
+
+      for(int z = zmin; z <= zmax; z++){
+        for(int y = ymin; y <= ymax; y++){
+          int row = (z * GRID_Y + y) * GRID_X;
+          // cells xmin ... xmax are one contiguous range
+          int jlo = CELL_START[row + xmin];
+          int jhi = CELL_START[row + xmax + 1];
+          tests += jhi - jlo;
+          for(int j = jlo; j < jhi; j++){
+            if(sg[j] == ag) continue; // same group, or myself
+
+            float dx        = sx[j] - ax;
+            float dy        = sy[j] - ay;
+            float dz        = sz[j] - az;
+            float dd_cur_sq = dx*dx + dy*dy + dz*dz;
+            float dd_min    = sr[j] + ar;
+            float dd_min_sq = dd_min*dd_min;
+
+            if (dd_cur_sq < dd_min_sq) {
+              float a_mass_factor = 2f * sm[j] / (am + sm[j]);
+              float force = (dd_min_sq / (dd_cur_sq + dd_min_sq) - 0.5f) * damp;
+              col_x -= dx * force * a_mass_factor;
+              col_y -= dy * force * a_mass_factor;
+              col_z -= dz * force * a_mass_factor;
+              col_count++;
+              int b = SORTED[j];
+              if(sleep[b] == DwParticleStore.SLEEPING && sleep[i] == DwParticleStore.AWAKE) wake[b] = 1;
+            }
+          }
+        }
+      }
+
+      store.collision_x[i] += col_x;
+      store.collision_y[i] += col_y;
+      store.collision_z[i] += col_z;
+      store.collision_count[i] += col_count;
+    }
+    addPairTests(tests);
+  }
+
+
+  @Override
+  public void computeOccupancy(int[] histogram){
+    Arrays.fill(histogram, 0);
+    int last = histogram.length - 1;
+    int num_cells = GRID_X * GRID_Y * GRID_Z;
+    for(int gid = 0; gid < num_cells; gid++){
+      int n = CELL_START[gid + 1] - CELL_START[gid];
+      histogram[Math.min(n, last)]++;
+    }
+  }
+
+}
@@ -0,0 +1,554 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.particle;
+
+
+import java.util.Arrays;
+
+import com.thomasdiewald.pixelflow.java.accelerationstructures.DwMortonCode;
+import com.thomasdiewald.pixelflow.java.utils.DwUtils;
+
+
+/**
+ *
+ * Structure-of-arrays (SoA) particle storage.<br>
+ * <br>
+ * All particle attributes are kept in packed primitive arrays, so the
+ * integration, boundary and collision loops run over contiguous memory.<br>
+ * DwParticle2D/DwParticle3D instances are optional views. They are gathered
+ * (pull) before and scattered (push) after each simulation step.<br>
+ * <br>
+ * The slot of a particle is its index (DwParticle.idx).<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleStore {
+
+  static public final byte ENABLE_COLLISIONS = 1;
+  static public final byte ENABLE_SPRINGS    = 2;
+  static public final byte ENABLE_FORCES     = 4;
+  static public final byte ENABLE_ALL        = ENABLE_COLLISIONS | ENABLE_SPRINGS | ENABLE_FORCES;
+
+  // sleep states
+  static public final byte AWAKE    = 0;
+  static public final byte RESTING  = 1; // awake, but below the sleep velocity
+  static public final byte SLEEPING = 2;
+
+  // 2 ... 2D, 3 ... 3D
+  public int dim = 2;
+
+  // number of used slots
+  public int count = 0;
+
+  public float[] cx = new float[0], cy = new float[0], cz = new float[0]; // current position
+  public float[] px = new float[0], py = new float[0], pz = new float[0]; // previous position
+  public float[] ax = new float[0], ay = new float[0], az = new float[0]; // acceleration
+
+  public float[] rad           = new float[0];
+  public float[] rad_collision = new float[0];
+  public float[] mass          = new float[0];
+
+  // DwParticle.Param, per particle
+  public float[] damp_bounds    = new float[0];
+  public float[] damp_collision = new float[0];
+  public float[] damp_velocity  = new float[0];
+
+  public int [] collision_group = new int[0];
+  public int [] collision_count = new int[0];
+  public byte[] flags           = new byte[0];
+
+  // collision force, accumulated per particle
+  public float[] collision_x = new float[0];
+  public float[] collision_y = new float[0];
+  public float[] collision_z = new float[0];
+
+  // persistent particle id, the slot changes when the store is reordered
+  public int[] id = new int[0];
+
+  // sleeping particles are skipped in all update loops, (see DwIslands).
+  // Not changed by pull(). A wake request is set by a collision with a moving
+  // (AWAKE) particle, or when the view was moved.
+  public byte[] sleep = new byte[0];
+  public byte[] wake  = new byte[0];
+
+
+  public DwParticleStore(){
+  }
+
+  public DwParticleStore(int dim, int capacity){
+    this.dim = dim;
+    resize(capacity);
+  }
+
+  public int capacity(){
+    return cx.length;
+  }
+
+
+  public void resize(int capacity){
+    if(capacity <= cx.length){
+      return;
+    }
+    cx = Arrays.copyOf(cx, capacity);
+    cy = Arrays.copyOf(cy, capacity);
+    cz = Arrays.copyOf(cz, capacity);
+    px = Arrays.copyOf(px, capacity);
+    py = Arrays.copyOf(py, capacity);
+    pz = Arrays.copyOf(pz, capacity);
+    ax = Arrays.copyOf(ax, capacity);
+    ay = Arrays.copyOf(ay, capacity);
+    az = Arrays.copyOf(az, capacity);
+
+    rad           = Arrays.copyOf(rad          , capacity);
+    rad_collision = Arrays.copyOf(rad_collision, capacity);
+    mass          = Arrays.copyOf(mass         , capacity);
+
+    damp_bounds    = Arrays.copyOf(damp_bounds   , capacity);
+    damp_collision = Arrays.copyOf(damp_collision, capacity);
+    damp_velocity  = Arrays.copyOf(damp_velocity , capacity);
+
+    collision_group = Arrays.copyOf(collision_group, capacity);
+    collision_count = Arrays.copyOf(collision_count, capacity);
+    flags           = Arrays.copyOf(flags          , capacity);
+
+    id = Arrays.copyOf(id, capacity);
+
+    sleep = Arrays.copyOf(sleep, capacity);
+    wake  = Arrays.copyOf(wake , capacity);
+
+    collision_x = Arrays.copyOf(collision_x, capacity);
+    collision_y = Arrays.copyOf(collision_y, capacity);
+    collision_z = Arrays.copyOf(collision_z, capacity);
+  }
+
+
+  /**
+   * appends a new particle and returns its slot.
+   */
+  public int add(float x, float y, float z, float r){
+    if(count >= cx.length){
+      resize(Math.max(16, (int) Math.ceil(count * 1.5f)));
+    }
+    int i = count++;
+    cx[i] = px[i] = x; ax[i] = 0;
+    cy[i] = py[i] = y; ay[i] = 0;
+    cz[i] = pz[i] = z; az[i] = 0;
+    rad[i] = rad_collision[i] = Math.max(r, 0.1f);
+    mass[i] = 1f;
+    damp_bounds   [i] = 1f;
+    damp_collision[i] = 1f;
+    damp_velocity [i] = 1f;
+    collision_group[i] = i;
+    collision_count[i] = 0;
+    flags[i] = ENABLE_ALL;
+    id[i] = i;
+    sleep[i] = AWAKE; wake[i] = 0;
+    return i;
+  }
+
+  public void clear(){
+    count = 0;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // VIEWS, DwParticle <-> DwParticleStore
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * gathers the state of the given particles into the store.
+   */
+  public void pull(DwParticle[] particles, int num_particles){
+    bind(particles, num_particles);
+    pull(particles, 0, num_particles);
+  }
+
+  /**
+   * sets size and dimension of the store to match the given particles.
+   */
+  public void bind(DwParticle[] particles, int num_particles){
+    resize(num_particles);
+    count = num_particles;
+    if(num_particles > 0){
+      dim = (particles[0] instanceof DwParticle3D) ? 3 : 2;
+    }
+  }
+
+  public void pull(DwParticle[] particles, int lo, int hi){
+    for(int i = lo; i < hi; i++){
+      id[i] = i;
+      DwParticle p = particles[i];
+      if(dim == 3){
+        DwParticle3D p3 = (DwParticle3D) p;
+        if(sleep[i] == SLEEPING && (cx[i] != p3.cx || cy[i] != p3.cy || cz[i] != p3.cz)) wake[i] = 1;
+        cx[i] = p3.cx; cy[i] = p3.cy; cz[i] = p3.cz;
+        px[i] = p3.px; py[i] = p3.py; pz[i] = p3.pz;
+        ax[i] = p3.ax; ay[i] = p3.ay; az[i] = p3.az;
+      } else {
+        DwParticle2D p2 = (DwParticle2D) p;
+        if(sleep[i] == SLEEPING && (cx[i] != p2.cx || cy[i] != p2.cy)) wake[i] = 1;
+        cx[i] = p2.cx; cy[i] = p2.cy; cz[i] = 0;
+        px[i] = p2.px; py[i] = p2.py; pz[i] = 0;
+        ax[i] = p2.ax; ay[i] = p2.ay; az[i] = 0;
+      }
+      rad          [i] = p.rad;
+      rad_collision[i] = p.rad_collision;
+      mass         [i] = p.mass;
+
+      damp_bounds   [i] = p.param.DAMP_BOUNDS;
+      damp_collision[i] = p.param.DAMP_COLLISION;
+      damp_velocity [i] = p.param.DAMP_VELOCITY;
+
+      collision_group[i] = p.collision_group;
+      collision_count[i] = p.collision_count;
+
+      byte flag = 0;
+      if(p.enable_collisions) flag |= ENABLE_COLLISIONS;
+      if(p.enable_springs   ) flag |= ENABLE_SPRINGS;
+      if(p.enable_forces    ) flag |= ENABLE_FORCES;
+      flags[i] = flag;
+    }
+  }
+
+
+  /**
+   * scatters the simulated state back to the given particles.
+   */
+  public void push(DwParticle[] particles, int num_particles){
+    push(particles, 0, Math.min(num_particles, count));
+  }
+
+  public void push(DwParticle[] particles, int lo, int hi){
+    for(int i = lo; i < hi; i++){
+      DwParticle p = particles[i];
+      if(dim == 3){
+        DwParticle3D p3 = (DwParticle3D) p;
+        p3.cx = cx[i]; p3.cy = cy[i]; p3.cz = cz[i];
+        p3.px = px[i]; p3.py = py[i]; p3.pz = pz[i];
+        p3.ax = ax[i]; p3.ay = ay[i]; p3.az = az[i];
+      } else {
+        DwParticle2D p2 = (DwParticle2D) p;
+        p2.cx = cx[i]; p2.cy = cy[i];
+        p2.px = px[i]; p2.py = py[i];
+        p2.ax = ax[i]; p2.ay = ay[i];
+      }
+      p.collision_count = collision_count[i];
+    }
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // VERLET INTEGRATION
+  //////////////////////////////////////////////////////////////////////////////
+
+  public void addGravity(float[] gravity, int lo, int hi){
+    final float gx = gravity[0];
+    final float gy = gravity[1];
+    final float gz = gravity[2];
+    for(int i = lo; i < hi; i++){
+      if(sleep[i] == SLEEPING) continue;
+      ax[i] += gx;
+      ay[i] += gy;
+      az[i] += gz;
+    }
+  }
+
+  public void updatePosition(float timestep, int lo, int hi){
+    if(dim == 3){
+      updatePosition3D(timestep, lo, hi);
+    } else {
+      updatePosition2D(timestep, lo, hi);
+    }
+  }
+
+  private void updatePosition2D(float timestep, int lo, int hi){
+    for(int i = lo; i < hi; i++){
+      if(sleep[i] == SLEEPING) continue;
+      if((flags[i] & ENABLE_FORCES) != 0){
+        // velocity
+        float vx = (cx[i] - px[i]) * damp_velocity[i];
+        float vy = (cy[i] - py[i]) * damp_velocity[i];
+
+        px[i] = cx[i];
+        py[i] = cy[i];
+
+        // clamp velocity
+        float rc = rad_collision[i];
+        float vv_cur = vx*vx + vy*vy;
+        float vv_max = rc * rc * 8;
+        if(vv_cur > vv_max){
+          float damp = (float) Math.sqrt(vv_max / vv_cur);
+          vx *= damp;
+          vy *= damp;
+        }
+
+        // verlet integration
+        cx[i] += vx + ax[i] * 0.5 * timestep * timestep;
+        cy[i] += vy + ay[i] * 0.5 * timestep * timestep;
+      }
+      ax[i] = ay[i] = az[i] = 0;
+    }
+  }
+
+  private void updatePosition3D(float timestep, int lo, int hi){
+    for(int i = lo; i < hi; i++){
+      if(sleep[i] == SLEEPING) continue;
+      if((flags[i] & ENABLE_FORCES) != 0){
+        // velocity
+        float vx = (cx[i] - px[i]) * damp_velocity[i];
+        float vy = (cy[i] - py[i]) * damp_velocity[i];
+        float vz = (cz[i] - pz[i]) * damp_velocity[i];
+
+        px[i] = cx[i];
+        py[i] = cy[i];
+        pz[i] = cz[i];
+
+        // clamp velocity
+        float rc = rad_collision[i];
+        float vv_cur = vx*vx + vy*vy + vz*vz;
+        float vv_max = rc * rc * rc * 8;
+        if(vv_cur > vv_max){
+          float damp = (float) Math.pow(vv_max / vv_cur, DwUtils._1_DIV_3);
+          vx *= damp;
+          vy *= damp;
+          vz *= damp;
+        }
+
+        // verlet integration
+        cx[i] += vx + ax[i] * 0.5 * timestep * timestep;
+        cy[i] += vy + ay[i] * 0.5 * timestep * timestep;
+        cz[i] += vz + az[i] * 0.5 * timestep * timestep;
+      }
+      ax[i] = ay[i] = az[i] = 0;
+    }
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // PARTICLE COLLISION
+  //////////////////////////////////////////////////////////////////////////////
+
+  public void beforeCollision(int lo, int hi){
+    for(int i = lo; i < hi; i++){
+      if(sleep[i] == SLEEPING) continue;
+      collision_x[i] = collision_y[i] = collision_z[i] = 0;
+      collision_count[i] = 0;
+    }
+  }
+
+  public void afterCollision(int lo, int hi){
+    float limit = 1f;
+    for(int i = lo; i < hi; i++){
+      if(sleep[i] == SLEEPING) continue;
+      cx[i] += collision_x[i] * limit;
+      cy[i] += collision_y[i] * limit;
+      cz[i] += collision_z[i] * limit;
+    }
+  }
+
+  /**
+   * accumulates the collision response of particle "a" against particle "b".
+   * Only particle "a" is modified, so this can be called concurrently for
+   * different "a".
+   */
+  public final void updateCollision(int a, int b){
+    if(collision_group[a] == collision_group[b]) return; // particles are of the same group
+    if(a == b) return; // not colliding with myself
+
+    float dx        = cx[b] - cx[a];
+    float dy        = cy[b] - cy[a];
+    float dz        = cz[b] - cz[a];
+    float dd_cur_sq = dx*dx + dy*dy + dz*dz;
+    float dd_min    = rad_collision[b] + rad_collision[a];
+    float dd_min_sq = dd_min*dd_min;
+
+    if (dd_cur_sq < dd_min_sq) {
+      float a_mass_factor = 2f * mass[b] / (mass[a] + mass[b]);
+      // http://www.gotoandplay.it/_articles/2005/08/advCharPhysics.php
+      float force = (dd_min_sq / (dd_cur_sq + dd_min_sq) - 0.5f) * damp_collision[a];
+
+      collision_x[a] -= dx * force * a_mass_factor;
+      collision_y[a] -= dy * force * a_mass_factor;
+      collision_z[a] -= dz * force * a_mass_factor;
+      collision_count[a]++;
+      if(sleep[b] == SLEEPING && sleep[a] == AWAKE) wake[b] = 1;
+    }
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // BOUNDARY COLLISION
+  //////////////////////////////////////////////////////////////////////////////
+
+  // 2D [xmin, ymin, xmax, ymax]
+  // 3D [xmin, ymin, zmin, xmax, ymax, zmax]
+  public void updateBounds(float[] bounds, int lo, int hi){
+    if(dim == 3){
+      updateBounds3D(bounds, lo, hi);
+    } else {
+      updateBounds2D(bounds, lo, hi);
+    }
+  }
+
+  private void updateBounds2D(float[] bd, int lo, int hi){
+    float vx, vy;
+    for(int i = lo; i < hi; i++){
+      if((flags[i] & ENABLE_COLLISIONS) == 0 || sleep[i] == SLEEPING) continue;
+      float damp = damp_bounds[i];
+      float r  = rad_collision[i];
+      float cx = this.cx[i], cy = this.cy[i];
+      float px = this.px[i], py = this.py[i];
+      if ((cx - r) < bd[0]) {vx=cx-px;vy=cy-py; cx=bd[0]+r;px=cx+vx*damp;py=cy-vy*damp;}
+      if ((cx + r) > bd[2]) {vx=cx-px;vy=cy-py; cx=bd[2]-r;px=cx+vx*damp;py=cy-vy*damp;}
+      if ((cy - r) < bd[1]) {vx=cx-px;vy=cy-py; cy=bd[1]+r;px=cx-vx*damp;py=cy+vy*damp;}
+      if ((cy + r) > bd[3]) {vx=cx-px;vy=cy-py; cy=bd[3]-r;px=cx-vx*damp;py=cy+vy*damp;}
+      this.cx[i] = cx; this.cy[i] = cy;
+      this.px[i] = px; this.py[i] = py;
+    }
+  }
+
+  private void updateBounds3D(float[] bd, int lo, int hi){
+    float vx, vy, vz;
+    for(int i = lo; i < hi; i++){
+      if((flags[i] & ENABLE_COLLISIONS) == 0 || sleep[i] == SLEEPING) continue;
+      float damp = damp_bounds[i];
+      float r  = rad_collision[i];
+      float cx = this.cx[i], cy = this.cy[i], cz = this.cz[i];
+      float px = this.px[i], py = this.py[i], pz = this.pz[i];
+      if ((cx - r) < bd[0]) {vx=cx-px;vy=cy-py;vz=cz-pz; cx=bd[0]+r;px=cx+vx*damp;py=cy-vy*damp;pz=cz-vz*damp;}
+      if ((cx + r) > bd[3]) {vx=cx-px;vy=cy-py;vz=cz-pz; cx=bd[3]-r;px=cx+vx*damp;py=cy-vy*damp;pz=cz-vz*damp;}
+      if ((cy - r) < bd[1]) {vx=cx-px;vy=cy-py;vz=cz-pz; cy=bd[1]+r;px=cx-vx*damp;py=cy+vy*damp;pz=cz-vz*damp;}
+      if ((cy + r) > bd[4]) {vx=cx-px;vy=cy-py;vz=cz-pz; cy=bd[4]-r;px=cx-vx*damp;py=cy+vy*damp;pz=cz-vz*damp;}
+      if ((cz - r) < bd[2]) {vx=cx-px;vy=cy-py;vz=cz-pz; cz=bd[2]+r;px=cx-vx*damp;py=cy-vy*damp;pz=cz+vz*damp;}
+      if ((cz + r) > bd[5]) {vx=cx-px;vy=cy-py;vz=cz-pz; cz=bd[5]-r;px=cx-vx*damp;py=cy-vy*damp;pz=cz+vz*damp;}
+      this.cx[i] = cx; this.cy[i] = cy; this.cz[i] = cz;
+      this.px[i] = px; this.py[i] = py; this.pz[i] = pz;
+    }
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // REORDERING
+  //////////////////////////////////////////////////////////////////////////////
+
+  private float[] tmp_f = new float[0];
+  private int  [] tmp_i = new int  [0];
+  private long [] tmp_l = new long [0];
+
+  /**
+   * moves the particle in slot order[j] to slot j.
+   */
+  public void permute(int[] order){
+    if(tmp_f.length < count){
+      tmp_f = new float[count];
+      tmp_i = new int  [count];
+    }
+    permute(order, cx); permute(order, cy); permute(order, cz);
+    permute(order, px); permute(order, py); permute(order, pz);
+    permute(order, ax); permute(order, ay); permute(order, az);
+    permute(order, rad);
+    permute(order, rad_collision);
+    permute(order, mass);
+    permute(order, damp_bounds);
+    permute(order, damp_collision);
+    permute(order, damp_velocity);
+    permute(order, collision_group);
+    permute(order, collision_count);
+    permute(order, id);
+    permute(order, collision_x);
+    permute(order, collision_y);
+    permute(order, collision_z);
+    permute(order, flags);
+    permute(order, sleep);
+    permute(order, wake);
+  }
+
+  private void permute(int[] order, float[] data){
+    for(int j = 0; j < count; j++) tmp_f[j] = data[order[j]];
+    System.arraycopy(tmp_f, 0, data, 0, count);
+  }
+
+  private void permute(int[] order, int[] data){
+    for(int j = 0; j < count; j++) tmp_i[j] = data[order[j]];
+    System.arraycopy(tmp_i, 0, data, 0, count);
+  }
+
+  private void permute(int[] order, byte[] data){
+    for(int j = 0; j < count; j++) tmp_i[j] = data[order[j]];
+    for(int j = 0; j < count; j++) data[j] = (byte) tmp_i[j];
+  }
+
+  /**
+   * computes the order of the particles along a Z-order (Morton) curve over
+   * their current positions. Neighbors in space become neighbors in memory.
+   */
+  public int[] computeMortonOrder(int[] order){
+    if(order == null || order.length < count){
+      order = new int[count];
+    }
+    if(tmp_l.length < count){
+      tmp_l = new long[count];
+    }
+
+    float x_min = +Float.MAX_VALUE, x_max = -Float.MAX_VALUE;
+    float y_min = +Float.MAX_VALUE, y_max = -Float.MAX_VALUE;
+    float z_min = +Float.MAX_VALUE, z_max = -Float.MAX_VALUE;
+    for(int i = 0; i < count; i++){
+      if(cx[i] < x_min) x_min = cx[i]; if(cx[i] > x_max) x_max = cx[i];
+      if(cy[i] < y_min) y_min = cy[i]; if(cy[i] > y_max) y_max = cy[i];
+      if(cz[i] < z_min) z_min = cz[i]; if(cz[i] > z_max) z_max = cz[i];
+    }
+
+    // quantize to 10 bits (3D) or 15 bits (2D) per axis
+    int res = (dim == 3) ? 1023 : 32767;
+    float size = Math.max(Math.max(x_max - x_min, y_max - y_min), z_max - z_min);
+    float scale = (size > 0) ? res / size : 0;
+
+    for(int i = 0; i < count; i++){
+      int x = (int)((cx[i] - x_min) * scale);
+      int y = (int)((cy[i] - y_min) * scale);
+      int code;
+      if(dim == 3){
+        int z = (int)((cz[i] - z_min) * scale);
+        code = DwMortonCode.encode3D(x, y, z);
+      } else {
+        code = DwMortonCode.encode2D(x, y);
+      }
+      tmp_l[i] = ((long) code << 32) | i;
+    }
+    Arrays.sort(tmp_l, 0, count);
+    for(int i = 0; i < count; i++){
+      order[i] = (int) tmp_l[i];
+    }
+    return order;
+  }
+
+
+
+
+  public float getVelocity(int i){
+    float vx = cx[i] - px[i];
+    float vy = cy[i] - py[i];
+    float vz = cz[i] - pz[i];
+    return (float) Math.sqrt(vx*vx + vy*vy + vz*vz);
+  }
+
+}
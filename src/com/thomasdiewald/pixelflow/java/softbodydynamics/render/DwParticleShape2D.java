@@ -0,0 +1,61 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.render;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleShape;
+
+import processing.core.PMatrix2D;
+import processing.core.PShape;
+
+
+/**
+ * 
+ * PShape of a DwParticle2D, translated to the particle position and rotated
+ * along its velocity.
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleShape2D implements DwParticleShape {
+  
+  public PShape    shape;
+  public PMatrix2D transform = new PMatrix2D();
+  
+  public DwParticleShape2D(PShape shape){
+    this.shape = shape;
+  }
+  
+  @Override
+  public void updatePosition(DwParticle particle){
+    DwParticle2D p = (DwParticle2D) particle;
+    
+    // build transformation matrix
+    transform.reset();
+    transform.translate(p.cx, p.cy);
+    transform.rotate((float)Math.atan2(p.cy-p.py, p.cx-p.px));
+
+    // update shape position
+    if(shape != null){
+      shape.resetMatrix();
+      shape.applyMatrix(transform);
+    }
+  }
+  
+  @Override
+  public void setColor(int col_argb){
+    if(shape != null){
+      shape.setTint(col_argb);
+      shape.setFill(col_argb);
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * 
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ * 
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ * 
+ */
+
+package com.thomasdiewald.pixelflow.java.softbodydynamics.render;
+
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticleShape;
+
+import processing.core.PMatrix3D;
+import processing.core.PShape;
+
+
+/**
+ * 
+ * PShape of a DwParticle3D, translated to the particle position.
+ * 
+ * @author Thomas Diewald
+ *
+ */
+public class DwParticleShape3D implements DwParticleShape {
+  
+  public PShape    shape;
+  public PMatrix3D transform = new PMatrix3D();
+  
+  // true, setColor() also sets the stroke color, (e.g. for POINT shapes)
+  public boolean stroke = false;
+  
+  public DwParticleShape3D(PShape shape){
+    this.shape = shape;
+  }
+  
+  public DwParticleShape3D(PShape shape, boolean stroke){
+    this.shape = shape;
+    this.stroke = stroke;
+  }
+  
+  @Override
+  public void updatePosition(DwParticle particle){
+    DwParticle3D p = (DwParticle3D) particle;
+    
+    // build transformation matrix
+    transform.reset();
+    transform.translate(p.cx, p.cy, p.cz);
+
+    // update shape position
+    if(shape != null){
+      shape.resetMatrix();
+      shape.applyMatrix(transform);
+    }
+  }
+  
+  @Override
+  public void setColor(int col_argb){
+    if(shape != null){
+      shape.setTint(col_argb);
+      shape.setFill(col_argb);
+      if(stroke){
+        shape.setStroke(col_argb);
+      }
+    }
+  }
+  
+  public void setStroke(int col_argb){
+    if(shape != null){
+      shape.setStroke(col_argb);
+    }
+  }
+
+}
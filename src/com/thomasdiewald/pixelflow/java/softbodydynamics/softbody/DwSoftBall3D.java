@@ -1,9 +1,9 @@
 package com.thomasdiewald.pixelflow.java.softbodydynamics.softbody;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import com.thomasdiewald.pixelflow.java.geometry.DwHalfEdge;
-import com.thomasdiewald.pixelflow.java.geometry.DwHalfEdge.Edge;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.DwPhysics;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint3D;
@@ -11,6 +11,7 @@ import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
 import com.thomasdiewald.pixelflow.java.utils.DwStrokeStyle;
 import com.thomasdiewald.pixelflow.java.geometry.DwIcosahedron;
 import com.thomasdiewald.pixelflow.java.geometry.DwIndexedFaceSetAble;
+import com.thomasdiewald.pixelflow.java.geometry.DwMeshCache;
 
 import processing.core.PConstants;
 import processing.core.PGraphics;
@@ -20,7 +21,7 @@ import processing.core.PShape;
 public class DwSoftBall3D extends DwSoftBody3D{
   
 
-  public DwHalfEdge.Mesh mesh;
+  public DwHalfEdge.IndexedMesh mesh;
   
   // specific attributes for this body
   public float nodes_r;
@@ -38,16 +39,36 @@ public class DwSoftBall3D extends DwSoftBody3D{
   public void create(DwPhysics<DwParticle3D> physics, int subdivisions, float radius,float start_x, float start_y, float start_z){
     
     DwIndexedFaceSetAble ifs = new DwIcosahedron(subdivisions);
+    DwHalfEdge.IndexedMesh mesh = new DwHalfEdge.IndexedMesh(ifs);
+    int[] springs = createSprings(mesh, bend_spring_dist);
     
-    this.mesh               = new DwHalfEdge.Mesh(ifs);
+    create(physics, mesh, springs, springs.length / 3, radius, start_x, start_y, start_z);
+    this.subdivisions = subdivisions;
+  }
+  
+  /**
+   * creates the body from a cached mesh and spring list, see DwMeshCache.
+   */
+  public void create(DwPhysics<DwParticle3D> physics, DwMeshCache cache, float radius, float start_x, float start_y, float start_z){
+    create(physics, cache.mesh, cache.springs, cache.springs_count, radius, start_x, start_y, start_z);
+  }
+  
+  
+  /**
+   * creates the body from a half-edge mesh (unit sphere) and a spring list,
+   * [ia, ib, DwSpringConstraint.TYPE.ordinal()] per spring.
+   */
+  public void create(DwPhysics<DwParticle3D> physics, DwHalfEdge.IndexedMesh mesh, int[] springs, int springs_count, float radius, float start_x, float start_y, float start_z){
+    
+    this.mesh               = mesh;
     this.physics            = physics;
     this.rand               = new Random(0);
     this.collision_group_id = physics.getNewCollisionGroupId();
     this.nodes_offset       = physics.getParticlesCount();
-    this.subdivisions       = subdivisions;
+    this.subdivisions       = -1;
     this.radius             = radius;
     this.nodes_r            = 1; // computed automatically, bellow
-    this.num_nodes          = mesh.verts.length;
+    this.num_nodes          = mesh.verts_count;
     this.particles          = new DwParticle3D[num_nodes];
     this.normals            = new float[num_nodes][3];
 
@@ -75,21 +96,19 @@ public class DwSoftBall3D extends DwSoftBody3D{
     }
     
 
+    DwSpringConstraint.TYPE[] types = DwSpringConstraint.TYPE.values();
+    int STRUCT = DwSpringConstraint.TYPE.STRUCT.ordinal();
 
     // 2) create STRUCT springs
-    // an icosahedron has a t most 6 edges per vertex
     float nodes_r_tmp = Float.MAX_VALUE;
-    DwHalfEdge.Edge[] edges = new DwHalfEdge.Edge[6];
-    for(int ia = 0; ia < num_nodes; ia++){
-      int edge_count = mesh.getVertexEdges(ia, edges);
-      
-      for(int j = 0; j < edge_count; j++){
-        int ib = edges[j].pair.vert;     
-        DwSpringConstraint spring = addSpring(ia, ib, DwSpringConstraint.TYPE.STRUCT);
-        if(spring != null && spring.dd_rest < nodes_r_tmp){
-          nodes_r_tmp = spring.dd_rest;
-        }
-        
+    for(int i = 0; i < springs_count; i++){
+      int ia = springs[i*3+0];
+      int ib = springs[i*3+1];
+      if(springs[i*3+2] != STRUCT) continue;
+      addSpring(ia, ib, DwSpringConstraint.TYPE.STRUCT);
+      int spring_idx = physics.spring_table.find(particles[ia].idx, particles[ib].idx);
+      if(spring_idx != -1 && physics.spring_table.rest[spring_idx] < nodes_r_tmp){
+        nodes_r_tmp = physics.spring_table.rest[spring_idx];
       }
     }
 
@@ -114,30 +133,66 @@ public class DwSoftBall3D extends DwSoftBody3D{
     DwParticle3D.MAX_RAD = Math.max(DwParticle3D.MAX_RAD, nodes_r);
 
     
-    // 2) create BEND springs
-    for(int ia = 0, ib = 0; ia < num_nodes; ia++){
+    // 2) create BEND (and other) springs
+    for(int i = 0; i < springs_count; i++){
+      int ia = springs[i*3+0];
+      int ib = springs[i*3+1];
+      if(springs[i*3+2] == STRUCT) continue;
+      addSpring(ia, ib, types[springs[i*3+2]]);
+    }
+    
 
+    
+    // add new particles to the physics-world
+    physics.addParticles(particles, num_nodes);
+  }
+  
+  
+  /**
+   * spring list of the given mesh, [ia, ib, DwSpringConstraint.TYPE.ordinal()]
+   * per spring, STRUCT springs first, then BEND springs.<br>
+   * Springs are listed per half-edge, so most of them are listed twice.
+   */
+  static public int[] createSprings(DwHalfEdge.IndexedMesh mesh, int bend_spring_dist){
+    int STRUCT = DwSpringConstraint.TYPE.STRUCT.ordinal();
+    int BEND   = DwSpringConstraint.TYPE.BEND  .ordinal();
+    
+    int[] springs = new int[mesh.edges_count * 2 * 3];
+    int count = 0;
+    
+    // an icosahedron has a t most 6 edges per vertex
+    int[] edges = new int[6];
+    
+    // STRUCT springs
+    for(int ia = 0; ia < mesh.verts_count; ia++){
+      int edge_count = mesh.getVertexEdges(ia, edges);
+      for(int j = 0; j < edge_count; j++){
+        int ib = mesh.vert[mesh.pair[edges[j]]];
+        springs[count++] = ia;
+        springs[count++] = ib;
+        springs[count++] = STRUCT;
+      }
+    }
+    
+    // BEND springs
+    for(int ia = 0; ia < mesh.verts_count; ia++){
       int edge_count = mesh.getVertexEdges(ia, edges);
-      
       for(int j = 0; j < edge_count; j++){
-        Edge edge = edges[j];
+        int edge = edges[j];
         
         //  iterate edges, to get bend_spring_dist-edges offset
         for(int k = 0; k < bend_spring_dist; k++){
-          edge = edge.next;
-          edge = edge.pair.next;
-          edge = edge.pair.next;
+          edge = mesh.next[edge];
+          edge = mesh.next[mesh.pair[edge]];
+          edge = mesh.next[mesh.pair[edge]];
         }
-
-        ib = edge.vert;     
-        addSpring(ia, ib, DwSpringConstraint.TYPE.BEND);
+        springs[count++] = ia;
+        springs[count++] = mesh.vert[edge];
+        springs[count++] = BEND;
       } 
     }
     
-
-    
-    // add new particles to the physics-world
-    physics.addParticles(particles, num_nodes);
+    return Arrays.copyOf(springs, count);
   }
   
  
@@ -184,19 +239,19 @@ public class DwSoftBall3D extends DwSoftBody3D{
 
   @Override
   public void computeNormals(){
-    DwHalfEdge.Edge[] edges = new DwHalfEdge.Edge[6]; // octrahedron, so max=6, min=5 (edges/vertex) 
+    int[] edges = new int[6]; // octrahedron, so max=6, min=5 (edges/vertex) 
     for(int ia = 0; ia < num_nodes; ia++){
       
       DwParticle3D pC = particles[ia];
       float[]n = normals[ia]; n[0] = n[1] = n[2] = 0;
       int edge_count = mesh.getVertexEdges(ia, edges);
       for(int j = 0; j < edge_count-1; j++){
-        int ib0 = edges[j+0].next.vert;
-        int ib1 = edges[j+1].next.vert;
+        int ib0 = mesh.getEndVert(edges[j+0]);
+        int ib1 = mesh.getEndVert(edges[j+1]);
         DwParticle3D.crossAccum(pC, particles[ib0], particles[ib1], n);
       }
-      int ib0 = edges[0].next.vert;
-      int ib1 = edges[edge_count-1].next.vert;
+      int ib0 = mesh.getEndVert(edges[0]);
+      int ib1 = mesh.getEndVert(edges[edge_count-1]);
       DwParticle3D.crossAccum(pC, particles[ib0], particles[ib1], n);
       
       float dd_sq  = n[0]*n[0] +  n[1]*n[1] +  n[2]*n[2];
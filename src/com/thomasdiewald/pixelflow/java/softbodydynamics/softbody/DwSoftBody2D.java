@@ -1,8 +1,11 @@
 package com.thomasdiewald.pixelflow.java.softbodydynamics.softbody;
 
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringTable;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint.TYPE;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle2D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.render.DwParticleShape2D;
 import com.thomasdiewald.pixelflow.java.utils.DwStrokeStyle;
 
 import processing.core.PApplet;
@@ -55,7 +58,7 @@ public abstract class DwSoftBody2D extends DwSoftBody{
     PShape shp = papplet.createShape(PShape.GROUP);
     for(int i = 0; i < particles.length; i++){
       PShape shp_pa = createShape(papplet, particles[i].rad);
-      particles[i].setShape(shp_pa);
+      particles[i].setShape(new DwParticleShape2D(shp_pa));
       shp.addChild(shp_pa);
     }
     setShapeParticles(papplet, shp);
@@ -78,6 +81,12 @@ public abstract class DwSoftBody2D extends DwSoftBody{
     pg.strokeWeight(style.stroke_weight);
     pg.stroke(style.stroke_color);
     
+    if(!physics.create_spring_objects){
+      displaySpringTable(pg, type);
+      pg.endShape();
+      return;
+    }
+    
     for(int i = 0; i < particles.length; i++){
       DwParticle2D pa = particles[i];
       for(int j = 0; j < pa.spring_count; j++){
@@ -104,6 +113,41 @@ public abstract class DwSoftBody2D extends DwSoftBody{
     pg.endShape();
   }
   
+  // springs without DwSpringConstraint objects, read from the spring table
+  private void displaySpringTable(PGraphics pg, TYPE type){
+    DwSpringTable table = physics.spring_table;
+    DwParticle[] all = physics.getParticles();
+    table.buildAdjacency(physics.getParticlesCount());
+    int[] adj        = table.getAdjacency();
+    int[] adj_offset = table.getAdjacencyOffset();
+    
+    for(int i = 0; i < particles.length; i++){
+      DwParticle2D pa = particles[i];
+      for(int j = adj_offset[pa.idx]; j < adj_offset[pa.idx+1]; j++){
+        int s = adj[j];
+        if(table.ia[s] != pa.idx) continue;
+        if(table.type[s] != type.ordinal()) continue;
+        if(table.enabled[s] == 0) continue;
+        DwParticle2D pb = (DwParticle2D) all[table.ib[s]];
+        
+        if(shade_springs_by_tension){
+          float dx = pb.cx - pa.cx;
+          float dy = pb.cy - pa.cy;
+          float force_curr = table.rest_sq[s] / (dx*dx + dy*dy + table.rest_sq[s]) - 0.5f;
+          float force_relx = table.force[s];
+          float force = Math.abs(force_curr) + Math.abs(force_relx);
+          float r = force * 10000;
+          float g = force * 1000;
+          float b = 0;
+          pg.stroke(toARGB(r,g,b));
+        } 
+        
+        pg.vertex(pa.cx, pa.cy); 
+        pg.vertex(pb.cx, pb.cy);
+      }
+    }
+  }
+  
 
   
 }
@@ -5,8 +5,11 @@ import com.thomasdiewald.pixelflow.java.geometry.DwIcosahedron;
 import com.thomasdiewald.pixelflow.java.geometry.DwIndexedFaceSetAble;
 import com.thomasdiewald.pixelflow.java.geometry.DwMeshUtils;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringTable;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.constraint.DwSpringConstraint.TYPE;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle;
 import com.thomasdiewald.pixelflow.java.softbodydynamics.particle.DwParticle3D;
+import com.thomasdiewald.pixelflow.java.softbodydynamics.render.DwParticleShape3D;
 import com.thomasdiewald.pixelflow.java.utils.DwStrokeStyle;
 
 import processing.core.PApplet;
@@ -34,14 +37,11 @@ public abstract class DwSoftBody3D extends DwSoftBody{
       if(use_particles_color){
         if(collision_group_id != this.collision_group){
           setColor(particle_color2);
-          shp_particle.setStroke(particle_color2);
         } else {
           setColor(particle_color);
-          shp_particle.setStroke(particle_color);
         }
       } else {
         setColor(particle_gray);
-        shp_particle.setStroke(particle_gray);
       }
 //      super.updateShapeColor();
     }
@@ -69,7 +69,7 @@ public abstract class DwSoftBody3D extends DwSoftBody{
     PShape shp = papplet.createShape(PShape.GROUP);
     for(int i = 0; i < particles.length; i++){
       PShape shp_pa = createShape(papplet, particles[i].rad, icosahedron);
-      particles[i].setShape(shp_pa);
+      particles[i].setShape(new DwParticleShape3D(shp_pa, true));
       shp.addChild(shp_pa);
     }
     setShapeParticles(papplet, shp);
@@ -112,6 +112,12 @@ public abstract class DwSoftBody3D extends DwSoftBody{
     pg.strokeWeight(style.stroke_weight);
     pg.stroke(style.stroke_color);
     
+    if(!physics.create_spring_objects){
+      displaySpringTable(pg, type);
+      pg.endShape();
+      return;
+    }
+    
     for(int i = 0; i < particles.length; i++){
       DwParticle3D pa = particles[i];
       for(int j = 0; j < pa.spring_count; j++){
@@ -138,6 +144,42 @@ public abstract class DwSoftBody3D extends DwSoftBody{
     pg.endShape();
   }
   
+  // springs without DwSpringConstraint objects, read from the spring table
+  private void displaySpringTable(PGraphics pg, TYPE type){
+    DwSpringTable table = physics.spring_table;
+    DwParticle[] all = physics.getParticles();
+    table.buildAdjacency(physics.getParticlesCount());
+    int[] adj        = table.getAdjacency();
+    int[] adj_offset = table.getAdjacencyOffset();
+    
+    for(int i = 0; i < particles.length; i++){
+      DwParticle3D pa = particles[i];
+      for(int j = adj_offset[pa.idx]; j < adj_offset[pa.idx+1]; j++){
+        int s = adj[j];
+        if(table.ia[s] != pa.idx) continue;
+        if(table.type[s] != type.ordinal()) continue;
+        if(table.enabled[s] == 0) continue;
+        DwParticle3D pb = (DwParticle3D) all[table.ib[s]];
+        
+        if(shade_springs_by_tension){
+          float dx = pb.cx - pa.cx;
+          float dy = pb.cy - pa.cy;
+          float dz = pb.cz - pa.cz;
+          float force_curr = table.rest_sq[s] / (dx*dx + dy*dy + dz*dz + table.rest_sq[s]) - 0.5f;
+          float force_relx = table.force[s];
+          float force = Math.abs(force_curr) + Math.abs(force_relx);
+          float r = force * 10000;
+          float g = force * 1000;
+          float b = 0;
+          pg.stroke(toARGB(r,g,b));
+        } 
+        
+        pg.vertex(pa.cx, pa.cy, pa.cz); 
+        pg.vertex(pb.cx, pb.cy, pb.cz);
+      }
+    }
+  }
+  
   
   
   
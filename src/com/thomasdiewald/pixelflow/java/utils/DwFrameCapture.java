@@ -16,28 +16,50 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
 import processing.core.PApplet;
 import processing.core.PGraphics;
 
+
+/**
+ * 
+ * Captures the sketch window as a jpeg sequence.<br>
+ * <br>
+ * Frames are copied into a fixed number of reusable image buffers and encoded
+ * by worker threads. If the encoder falls behind, the queue policy decides
+ * between waiting (BLOCK, default) or dropping frames, so memory stays bounded.
+ * Dropped frames leave a gap in the frame numbers.<br>
+ * <br>
+ * e.g. capture.queue.policy = DwFrameQueue.POLICY.DROP_OLDEST;<br>
+ * capture.queue.getStats(), queue depth, dropped frames, encode times<br>
+ * <br>
+ * LOSSLESS = true: frames are written into a single DwFrameSequence file
+ * (.dwfs), RGBA8, fast lossless compression, instead of jpeg files.<br>
+ * 
+ * @author Thomas Diewald
+ *
+ */
 public class DwFrameCapture {
   
   public PApplet papplet;
   public boolean AUTO_CAPTURE = !true;
   public float   jpeg_compression = 0.8f;
+  public boolean LOSSLESS = false;
   
   public String root_dir = "";
   
 
-  private ExecutorService executorService;
+  public DwFrameQueue<Frame> queue;
+  public DwFrameSequence.Writer sequence;
+  private ArrayList<Frame> frames = new ArrayList<Frame>();
   private long start_ms = 0;
   private int frame_count = 0;
   
@@ -48,6 +70,14 @@ public class DwFrameCapture {
   public long usedMemory   ;
 
   public DwFrameCapture(PApplet papplet, String root_dir){
+    this(papplet, root_dir, 2 * Runtime.getRuntime().availableProcessors(), DwFrameQueue.POLICY.BLOCK);
+  }
+  
+  /**
+   * @param num_buffers number of reusable frame buffers, (frames in flight)
+   * @param policy      what to do, when all buffers are in use
+   */
+  public DwFrameCapture(PApplet papplet, String root_dir, int num_buffers, DwFrameQueue.POLICY policy){
     this.papplet = papplet;
     
     this.papplet.registerMethod("post", this);
@@ -79,7 +109,16 @@ public class DwFrameCapture {
 //      System.out.printf("UsableSpace: %5d gb \n", (root_UsableSpace>> 30));
 //    }
     
-    this.executorService = Executors.newFixedThreadPool(num_processors);
+    for(int i = 0; i < Math.max(1, num_buffers); i++){
+      frames.add(new Frame());
+    }
+    this.queue = new DwFrameQueue<Frame>(frames, num_processors, new DwFrameQueue.Encoder<Frame>() {
+      @Override
+      public void encode(Frame frame) throws IOException {
+        frame.save();
+      }
+    });
+    this.queue.policy = policy;
     
   }
    
@@ -99,24 +138,31 @@ public class DwFrameCapture {
     AUTO_CAPTURE = true;
   }
   
+  /**
+   * encodes all pending frames, and stops capturing.
+   */
   public void stop(){
-    executorService.shutdown();
-    
-    try {
-      executorService.awaitTermination(1, TimeUnit.MINUTES);
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+    if(queue.isShutdown()){
+      return;
     }
+    queue.shutdown();
+    for(Frame frame : frames){
+      frame.dispose();
+    }
+    closeSequence();
 
     if(AUTO_CAPTURE){
       File file = createFilename();
       File dir = new File(file.getParent());
+      // frame_count also counts dropped frames, (gaps in the file names)
+      long count     = sequence != null ? sequence.frame_count : queue.getFramesEncoded();
       long size_dir  = folderSize(dir);
-      long size_file = size_dir/frame_count;
+      long size_file = size_dir/Math.max(1, count);
       
       String size_dir_str  = NumberFormat.getNumberInstance(Locale.US).format(size_dir  >> 10);
       String size_file_str = NumberFormat.getNumberInstance(Locale.US).format(size_file >> 10);
-      System.out.printf(">> Captured %d frames (%s kb)  > dir: \"%s\" (%s kb)\n", frame_count, size_file_str, dir, size_dir_str);
+      System.out.printf(">> Captured %d frames (%s kb)  > dir: \"%s\" (%s kb)\n", count, size_file_str, dir, size_dir_str);
+      System.out.printf(">> %s\n", (sequence != null ? sequence.queue : queue).getStats());
     }
   }
   
@@ -141,13 +187,24 @@ public class DwFrameCapture {
   
   
   
+  /**
+   * copies the current frame into a free buffer and queues it for encoding,
+   * (blocks, or drops a frame, depending on queue.policy).
+   */
   public void capture(){
-    File          file  = createFilename();
-    BufferedImage image = createBufferedImage();
-    Frame         frame = new Frame(image, file, jpeg_compression);
-    
-    executorService.submit(frame);
-//    new Thread(frame).start();
+    if(LOSSLESS){
+      captureSequence();
+      return;
+    }
+    Frame frame = queue.acquire();
+    if(frame == null){
+      frame_count++;
+      return;
+    }
+    PGraphics pg = papplet.g;
+    pg.loadPixels();
+    frame.set(pg.pixels, pg.width, pg.height, createFilename(), jpeg_compression);
+    queue.submit(frame);
     
     freeMemory     = Runtime.getRuntime().freeMemory ();
     maxMemory      = Runtime.getRuntime().maxMemory  ();
@@ -157,6 +214,36 @@ public class DwFrameCapture {
   }
   
   
+  private void captureSequence(){
+    if(queue.isShutdown()){
+      return;
+    }
+    PGraphics pg = papplet.g;
+    pg.loadPixels();
+    try {
+      if(sequence == null || sequence.width != pg.width || sequence.height != pg.height){
+        closeSequence();
+        sequence = new DwFrameSequence.Writer();
+        sequence.policy = queue.policy;
+        sequence.createRGBA8(createFilename("dwfs"), pg.width, pg.height);
+      }
+      sequence.addFrame(pg.pixels);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+  
+  private void closeSequence(){
+    if(sequence != null){
+      try {
+        sequence.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+  
+  
   public BufferedImage createBufferedImage(){
     PGraphics pg = papplet.g;
   //  BufferedImage img_native = (BufferedImage) papplet.getGraphics().getNative();
@@ -190,50 +277,53 @@ public class DwFrameCapture {
   }
 
 
-  static class Frame implements Runnable {
+  /**
+   * reusable frame buffer, image and jpeg writer are allocated once.
+   */
+  static public class Frame {
     
     float jpeg_compression = 0.9f;
     BufferedImage img;
     File filename;
     
-    public Frame(BufferedImage img, File filename, float jpeg_compression){
-      this.img = img ;
+    ImageWriter writer;
+    ImageWriteParam param;
+    
+    void set(int[] pixels, int w, int h, File filename, float jpeg_compression){
+      if(img == null || img.getWidth() != w || img.getHeight() != h){
+        img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+      }
+      img.getRaster().setDataElements(0, 0, w, h, pixels);
       this.filename = filename;
       this.jpeg_compression = jpeg_compression;
     }
-
-    public void run() {
-      save();
-    }
     
-    public void save(){
-      try {
-        
-        BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(filename));
-        
-        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
-
+    void save() throws IOException{
+      if(writer == null){
+        writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        param = writer.getDefaultWriteParam();
         param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        param.setCompressionQuality(jpeg_compression);
-        
-        writer.setOutput(ImageIO.createImageOutputStream(output));
+      }
+      param.setCompressionQuality(jpeg_compression);
+
+      BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(filename));
+      try {
+        ImageOutputStream ios = ImageIO.createImageOutputStream(output);
+        writer.setOutput(ios);
         writer.write(null, new IIOImage(img, null, null), param);
-        writer.dispose();
-        output.flush();
+        writer.setOutput(null);
+        ios.close();
+      } finally {
         output.close();
-      } catch (IOException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
       }
-      
-//      try {
-//        BufferedOutputStream imageOutputStream = new BufferedOutputStream(new FileOutputStream(filename));
-//        ImageIO.write(img, "JPG", imageOutputStream);
-//        imageOutputStream.close();
-//      } catch (IOException e) {
-//        e.printStackTrace();
-//      }
+    }
+    
+    void dispose(){
+      if(writer != null){
+        writer.dispose();
+        writer = null;
+      }
+      img = null;
     }
     
 
@@ -0,0 +1,351 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.utils;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ *
+ * Bounded frame queue, for asynchronous frame writers.<br>
+ * <br>
+ * A fixed set of frame slots (e.g. reusable image buffers) is passed around
+ * between the producer and a number of worker threads:<br>
+ * acquire() -> fill -> submit() -> Encoder.encode() -> free again<br>
+ * <br>
+ * When all slots are in use, the policy decides:<br>
+ * BLOCK ........ acquire() waits for a free slot<br>
+ * DROP_OLDEST .. acquire() takes the oldest frame that is not yet being
+ *                encoded, (waits, if all are being encoded)<br>
+ * DROP_NEWEST .. acquire() returns null, the new frame is dropped<br>
+ * <br>
+ * So memory is bounded by the number of slots, no matter how far the encoder
+ * falls behind.<br>
+ * shutdown() encodes all pending frames and joins the worker threads.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFrameQueue<T> {
+
+  static public enum POLICY{
+    BLOCK,
+    DROP_OLDEST,
+    DROP_NEWEST,
+  }
+
+  public static interface Encoder<T>{
+    public void encode(T frame) throws Exception;
+  }
+
+
+  public volatile POLICY policy = POLICY.BLOCK;
+
+  private final Encoder<T> encoder;
+  private final ArrayDeque<T>    slots_free;
+  private final ArrayDeque<T>    slots_pending;
+  private final ArrayDeque<Long> slots_time;     // submit time, per pending slot
+  private final Thread[] workers;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition cond_free    = lock.newCondition();
+  private final Condition cond_pending = lock.newCondition();
+  private boolean closed = false;
+
+  // metrics
+  private long frames_submitted;
+  private long frames_encoded;
+  private long frames_dropped;
+  private long frames_failed;
+  private int  queue_depth_max;
+  private final long[] time_encode  = new long[1024]; // ns, last encode durations
+  private final long[] time_latency = new long[1024]; // ns, last submit -> done
+  private int time_count;
+
+
+  /**
+   * @param slots       frame buffers, (capacity of the queue)
+   * @param num_threads worker threads
+   */
+  public DwFrameQueue(List<T> slots, int num_threads, Encoder<T> encoder){
+    this.encoder       = encoder;
+    this.slots_free    = new ArrayDeque<T>(slots);
+    this.slots_pending = new ArrayDeque<T>(slots.size());
+    this.slots_time    = new ArrayDeque<Long>(slots.size());
+    this.workers       = new Thread[Math.max(1, num_threads)];
+    for(int i = 0; i < workers.length; i++){
+      workers[i] = new Thread(worker, "DwFrameQueue-"+i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+
+  /**
+   * returns a free frame slot, to be filled and passed to submit().<br>
+   * null, if the frame is dropped (DROP_NEWEST) or the queue is shut down.
+   */
+  public T acquire(){
+    lock.lock();
+    try {
+      while(!closed){
+        if(!slots_free.isEmpty()){
+          return slots_free.pollFirst();
+        }
+        if(policy == POLICY.DROP_NEWEST){
+          frames_dropped++;
+          return null;
+        }
+        if(policy == POLICY.DROP_OLDEST && !slots_pending.isEmpty()){
+          frames_dropped++;
+          slots_time.pollFirst();
+          return slots_pending.pollFirst();
+        }
+        cond_free.awaitUninterruptibly();
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * queues a frame slot (from acquire()) for encoding.
+   */
+  public void submit(T frame){
+    lock.lock();
+    try {
+      frames_submitted++;
+      slots_pending.addLast(frame);
+      slots_time.addLast(System.nanoTime());
+      queue_depth_max = Math.max(queue_depth_max, slots_pending.size());
+      cond_pending.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * returns an acquired, unused slot, e.g. when filling it failed.
+   */
+  public void release(T frame){
+    lock.lock();
+    try {
+      slots_free.addLast(frame);
+      cond_free.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+  private final Runnable worker = new Runnable() {
+    @Override
+    public void run() {
+      while(true){
+        T frame;
+        long time_submit;
+        lock.lock();
+        try {
+          while(slots_pending.isEmpty() && !closed){
+            cond_pending.awaitUninterruptibly();
+          }
+          if(slots_pending.isEmpty()){
+            return; // closed and drained
+          }
+          frame = slots_pending.pollFirst();
+          time_submit = slots_time.pollFirst();
+        } finally {
+          lock.unlock();
+        }
+
+        long time_start = System.nanoTime();
+        boolean failed = false;
+        try {
+          encoder.encode(frame);
+        } catch (Throwable e) {
+          e.printStackTrace();
+          failed = true;
+        }
+        long time_end = System.nanoTime();
+
+        lock.lock();
+        try {
+          if(failed){
+            frames_failed++;
+          } else {
+            frames_encoded++;
+          }
+          int idx = time_count++ % time_encode.length;
+          time_encode [idx] = time_end - time_start;
+          time_latency[idx] = time_end - time_submit;
+          slots_free.addLast(frame);
+          cond_free.signal();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  };
+
+
+  /**
+   * stops accepting frames, encodes all pending frames and waits for the
+   * worker threads.
+   */
+  public void shutdown(){
+    lock.lock();
+    try {
+      closed = true;
+      cond_pending.signalAll();
+      cond_free.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    for(Thread thread : workers){
+      boolean interrupted = false;
+      while(thread.isAlive()){
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if(interrupted){
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public boolean isShutdown(){
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // METRICS
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * number of frames waiting for a worker.
+   */
+  public int getQueueDepth(){
+    lock.lock();
+    try {
+      return slots_pending.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getQueueDepthMax(){
+    lock.lock();
+    try {
+      return queue_depth_max;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getFramesSubmitted(){
+    lock.lock();
+    try {
+      return frames_submitted;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getFramesEncoded(){
+    lock.lock();
+    try {
+      return frames_encoded;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * frames that were dropped by the policy.
+   */
+  public long getFramesDropped(){
+    lock.lock();
+    try {
+      return frames_dropped;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * frames, the encoder threw an exception for.
+   */
+  public long getFramesFailed(){
+    lock.lock();
+    try {
+      return frames_failed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * encode duration in milliseconds, of the recent frames.
+   * @param percentile [0, 100], e.g. 50, 95, 99
+   */
+  public float getEncodeTime(float percentile){
+    return getPercentile(time_encode, percentile);
+  }
+
+  /**
+   * submit-to-done duration in milliseconds, (queue + encode) of the recent
+   * frames.
+   * @param percentile [0, 100], e.g. 50, 95, 99
+   */
+  public float getLatency(float percentile){
+    return getPercentile(time_latency, percentile);
+  }
+
+  private float getPercentile(long[] times, float percentile){
+    long[] sorted;
+    lock.lock();
+    try {
+      sorted = Arrays.copyOf(times, Math.min(time_count, times.length));
+    } finally {
+      lock.unlock();
+    }
+    if(sorted.length == 0){
+      return 0;
+    }
+    Arrays.sort(sorted);
+    int idx = (int) Math.ceil(percentile / 100f * sorted.length) - 1;
+    idx = Math.max(0, Math.min(sorted.length - 1, idx));
+    return sorted[idx] / 1E6f;
+  }
+
+  public String getStats(){
+    return String.format("frames %d, encoded %d, dropped %d, failed %d, queue %d (max %d), encode p50/p95/p99 %.1f/%.1f/%.1f ms, latency p50/p95/p99 %.1f/%.1f/%.1f ms",
+        getFramesSubmitted(), getFramesEncoded(), getFramesDropped(), getFramesFailed(), getQueueDepth(), getQueueDepthMax(),
+        getEncodeTime(50), getEncodeTime(95), getEncodeTime(99),
+        getLatency   (50), getLatency   (95), getLatency   (99));
+  }
+
+}
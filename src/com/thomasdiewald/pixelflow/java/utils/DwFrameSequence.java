@@ -0,0 +1,822 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ *
+ * Lossless, compressed frame sequence, all frames in one file.<br>
+ * <br>
+ * Frames are either RGBA8 (Processing pixels, int ARGB) or FLOAT (1-4
+ * channels, e.g. a texture read back as float[]).<br>
+ * Each frame is one chunk: the 4 bytes of each value are split into 4 byte
+ * planes, each plane is delta coded, (byte - previous byte) and the result is
+ * compressed with Deflater, level 1 by default. Smooth images and float data
+ * compress a lot better this way, and deflate is faster on it.<br>
+ * <br>
+ * file:<br>
+ * header (32 bytes), chunks, index (per frame: offset, size, tag), trailer
+ * (index offset, version, magic)<br>
+ * If the trailer is missing, e.g. after a crash, the index is rebuilt from the
+ * chunk headers.<br>
+ * <br>
+ * Writer: frames are copied into a bounded DwFrameQueue and compressed by
+ * multiple threads, each thread appends its chunk to the file as soon as it
+ * is done, so chunks are not in frame order, the index is. Dropped frames
+ * (DwFrameQueue.POLICY) are not in the index.<br>
+ * Reader: random access to any frame, or decode(), decoding a range of frames
+ * in parallel and passing them to a Listener in frame order, e.g. for piping
+ * them into a video encoder.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwFrameSequence {
+
+  static public final int FILE_MAGIC    = 0x53464644; // "DFFS", little endian
+  static public final int FILE_VERSION  = 1;
+  static public final int FILE_HEADER   = 32;  // magic, version, width, height, format, channels, filter, level
+  static public final int CHUNK_MAGIC   = 0x4B484344; // "DCHK", little endian
+  static public final int CHUNK_HEADER  = 24;  // magic, sequence number, size, raw size, tag
+  static public final int INDEX_ENTRY   = 24;  // offset, size, raw size, tag
+  static public final int TRAILER_SIZE  = 16;  // index offset, version, magic
+
+  static public final int FORMAT_RGBA8  = 0;
+  static public final int FORMAT_FLOAT  = 1;
+
+  static public final int FILTER_NONE          = 0;
+  static public final int FILTER_SHUFFLE_DELTA = 1;
+
+  // format
+  public int width;
+  public int height;
+  public int format   = FORMAT_RGBA8;
+  public int channels = 4;
+  public int filter   = FILTER_SHUFFLE_DELTA;
+  public int frame_count;
+
+  protected long[] frame_offset = new long[0];
+  protected int [] frame_size   = new int [0];
+  protected long[] frame_tag    = new long[0];
+
+
+  /**
+   * number of 4 byte values per frame, (pixels or floats)
+   */
+  public int getValuesPerFrame(){
+    return format == FORMAT_RGBA8 ? width * height : width * height * channels;
+  }
+
+  public int getRawSize(){
+    return getValuesPerFrame() * 4;
+  }
+
+  /**
+   * user value of the given frame, (e.g. time), frame index by default.
+   */
+  public long getFrameTag(int frame){
+    return frame_tag[frame];
+  }
+
+  /**
+   * compressed size of the given frame, in bytes.
+   */
+  public int getFrameSize(int frame){
+    return frame_size[frame];
+  }
+
+  protected void setFormat(int w, int h, int format, int channels){
+    if (w <= 0 || h <= 0){
+      throw new IllegalArgumentException("width/height invalid");
+    }
+    if (format != FORMAT_RGBA8 && format != FORMAT_FLOAT){
+      throw new IllegalArgumentException("format invalid: "+format);
+    }
+    if (format == FORMAT_FLOAT && (channels < 1 || channels > 4)){
+      throw new IllegalArgumentException("channels invalid: "+channels);
+    }
+    this.width    = w;
+    this.height   = h;
+    this.format   = format;
+    this.channels = format == FORMAT_RGBA8 ? 4 : channels;
+  }
+
+  /**
+   * sorts the index by the sequence numbers, (capture order)
+   */
+  protected void sortIndex(int[] frame_seq, int count){
+    long[] order = new long[count];
+    for(int i = 0; i < count; i++){
+      order[i] = (long) frame_seq[i] << 32 | i;
+    }
+    Arrays.sort(order);
+    long[] offset = frame_offset.clone();
+    int [] size   = frame_size  .clone();
+    long[] tag    = frame_tag   .clone();
+    for(int i = 0; i < count; i++){
+      int j = (int) order[i];
+      frame_offset[i] = offset[j];
+      frame_size  [i] = size  [j];
+      frame_tag   [i] = tag   [j];
+    }
+  }
+
+  protected void setIndex(int frame, long offset, int size, long tag){
+    if(frame >= frame_offset.length){
+      int len = Math.max(64, Math.max(frame + 1, frame_offset.length * 2));
+      frame_offset = Arrays.copyOf(frame_offset, len);
+      frame_size   = Arrays.copyOf(frame_size  , len);
+      frame_tag    = Arrays.copyOf(frame_tag   , len);
+    }
+    frame_offset[frame] = offset;
+    frame_size  [frame] = size;
+    frame_tag   [frame] = tag;
+  }
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // FRAME
+  //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * frame buffer, raw data and codec state, reused for many frames.<br>
+   * pixels (RGBA8) or data (FLOAT), the other one is null.
+   */
+  static public class Frame {
+
+    public int     index;  // frame index, (Writer: sequence number)
+    public long    tag;
+    public int  [] pixels;
+    public float[] data;
+
+    byte[] raw;
+    byte[] chunk;
+    int    chunk_size;
+    Deflater deflater;
+    Inflater inflater;
+
+    Frame(DwFrameSequence seq){
+      if(seq.format == FORMAT_RGBA8){
+        pixels = new int[seq.getValuesPerFrame()];
+      } else {
+        data = new float[seq.getValuesPerFrame()];
+      }
+      raw = new byte[seq.getRawSize()];
+    }
+
+    // pixels/data -> raw, (filtered)
+    void encode(int filter){
+      final int n = pixels != null ? pixels.length : data.length;
+      final byte[] raw = this.raw;
+      if(filter == FILTER_NONE){
+        for(int i = 0, j = 0; i < n; i++){
+          int v = pixels != null ? pixels[i] : Float.floatToRawIntBits(data[i]);
+          raw[j++] = (byte) (v       );
+          raw[j++] = (byte) (v >>  8);
+          raw[j++] = (byte) (v >> 16);
+          raw[j++] = (byte) (v >> 24);
+        }
+        return;
+      }
+      int p0 = 0, p1 = 0, p2 = 0, p3 = 0;
+      if(pixels != null){
+        for(int i = 0; i < n; i++){
+          int v = pixels[i];
+          int b0 = v & 0xFF, b1 = (v >> 8) & 0xFF, b2 = (v >> 16) & 0xFF, b3 = v >>> 24;
+          raw[i        ] = (byte) (b0 - p0);
+          raw[i + n    ] = (byte) (b1 - p1);
+          raw[i + n * 2] = (byte) (b2 - p2);
+          raw[i + n * 3] = (byte) (b3 - p3);
+          p0 = b0; p1 = b1; p2 = b2; p3 = b3;
+        }
+      } else {
+        for(int i = 0; i < n; i++){
+          int v = Float.floatToRawIntBits(data[i]);
+          int b0 = v & 0xFF, b1 = (v >> 8) & 0xFF, b2 = (v >> 16) & 0xFF, b3 = v >>> 24;
+          raw[i        ] = (byte) (b0 - p0);
+          raw[i + n    ] = (byte) (b1 - p1);
+          raw[i + n * 2] = (byte) (b2 - p2);
+          raw[i + n * 3] = (byte) (b3 - p3);
+          p0 = b0; p1 = b1; p2 = b2; p3 = b3;
+        }
+      }
+    }
+
+    // raw, (filtered) -> pixels/data
+    void decode(int filter){
+      final int n = pixels != null ? pixels.length : data.length;
+      final byte[] raw = this.raw;
+      if(filter == FILTER_NONE){
+        for(int i = 0, j = 0; i < n; i++, j += 4){
+          int v = (raw[j] & 0xFF) | (raw[j+1] & 0xFF) << 8 | (raw[j+2] & 0xFF) << 16 | raw[j+3] << 24;
+          if(pixels != null) pixels[i] = v; else data[i] = Float.intBitsToFloat(v);
+        }
+        return;
+      }
+      int p0 = 0, p1 = 0, p2 = 0, p3 = 0;
+      if(pixels != null){
+        for(int i = 0; i < n; i++){
+          p0 = (p0 + raw[i        ]) & 0xFF;
+          p1 = (p1 + raw[i + n    ]) & 0xFF;
+          p2 = (p2 + raw[i + n * 2]) & 0xFF;
+          p3 = (p3 + raw[i + n * 3]) & 0xFF;
+          pixels[i] = p0 | p1 << 8 | p2 << 16 | p3 << 24;
+        }
+      } else {
+        for(int i = 0; i < n; i++){
+          p0 = (p0 + raw[i        ]) & 0xFF;
+          p1 = (p1 + raw[i + n    ]) & 0xFF;
+          p2 = (p2 + raw[i + n * 2]) & 0xFF;
+          p3 = (p3 + raw[i + n * 3]) & 0xFF;
+          data[i] = Float.intBitsToFloat(p0 | p1 << 8 | p2 << 16 | p3 << 24);
+        }
+      }
+    }
+
+    // raw -> chunk, (header + compressed data)
+    void compress(int level, int strategy){
+      if(deflater == null){
+        deflater = new Deflater(level);
+      }
+      deflater.reset();
+      deflater.setLevel(level);
+      deflater.setStrategy(strategy);
+      deflater.setInput(raw);
+      deflater.finish();
+      if(chunk == null){
+        chunk = new byte[CHUNK_HEADER + raw.length + (raw.length >> 8) + 64];
+      }
+      int size = CHUNK_HEADER;
+      while(!deflater.finished()){
+        if(size == chunk.length){
+          chunk = Arrays.copyOf(chunk, chunk.length * 2);
+        }
+        size += deflater.deflate(chunk, size, chunk.length - size);
+      }
+      chunk_size = size;
+
+      ByteBuffer header = ByteBuffer.wrap(chunk, 0, CHUNK_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(CHUNK_MAGIC);
+      header.putInt(index);
+      header.putInt(chunk_size - CHUNK_HEADER);
+      header.putInt(raw.length);
+      header.putLong(tag);
+    }
+
+    // chunk -> raw
+    void decompress() throws IOException {
+      ByteBuffer header = ByteBuffer.wrap(chunk, 0, CHUNK_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      int magic    = header.getInt();
+      /* seq */      header.getInt();
+      int size     = header.getInt();
+      int raw_size = header.getInt();
+      if(magic != CHUNK_MAGIC || size != chunk_size - CHUNK_HEADER || raw_size != raw.length){
+        throw new IOException("DwFrameSequence: invalid chunk, frame "+index);
+      }
+      if(inflater == null){
+        inflater = new Inflater();
+      }
+      inflater.reset();
+      inflater.setInput(chunk, CHUNK_HEADER, size);
+      try {
+        int count = 0;
+        while(count < raw.length && !inflater.finished()){
+          int num = inflater.inflate(raw, count, raw.length - count);
+          if(num == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+            break;
+          }
+          count += num;
+        }
+        if(count != raw.length || !inflater.finished()){
+          throw new IOException("DwFrameSequence: corrupt chunk, frame "+index);
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("DwFrameSequence: corrupt chunk, frame "+index, e);
+      }
+    }
+
+    void release(){
+      if(deflater != null) deflater.end();
+      if(inflater != null) inflater.end();
+      deflater = null;
+      inflater = null;
+    }
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // WRITER
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public class Writer extends DwFrameSequence {
+
+    public File file;
+
+    // Deflater level, 1 (fast) ... 9 (small)
+    public int level = Deflater.BEST_SPEED;
+
+    // Deflater strategy, HUFFMAN_ONLY is faster on noisy frames, but can't
+    // compress large flat areas as well
+    public int strategy = Deflater.DEFAULT_STRATEGY;
+
+    // number of frame buffers, (frames in flight)
+    public int num_buffers = 2 * Runtime.getRuntime().availableProcessors();
+
+    // number of compression threads
+    public int num_threads = Runtime.getRuntime().availableProcessors();
+
+    // what to do when all frame buffers are in use
+    public DwFrameQueue.POLICY policy = DwFrameQueue.POLICY.BLOCK;
+
+    public DwFrameQueue<Frame> queue;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private ArrayList<Frame> frames;
+    private int[] frame_seq = new int[0];
+    private int seq;
+    private long file_end;
+    private volatile IOException error;
+
+
+    public Writer(){
+    }
+
+    public void createRGBA8(File file, int w, int h) throws IOException {
+      create(file, w, h, FORMAT_RGBA8, 4);
+    }
+
+    public void createFLOAT(File file, int w, int h, int channels) throws IOException {
+      create(file, w, h, FORMAT_FLOAT, channels);
+    }
+
+    public void create(File file, int w, int h, int format, int channels) throws IOException {
+      if (file == null){
+        throw new NullPointerException();
+      }
+      close();
+      setFormat(w, h, format, channels);
+      this.file        = file;
+      this.frame_count = 0;
+      this.seq         = 0;
+      this.error       = null;
+
+      raf = new RandomAccessFile(file, "rw");
+      raf.setLength(0);
+      channel = raf.getChannel();
+
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(FILE_MAGIC);
+      header.putInt(FILE_VERSION);
+      header.putInt(width);
+      header.putInt(height);
+      header.putInt(this.format);
+      header.putInt(this.channels);
+      header.putInt(filter);
+      header.putInt(level);
+      header.flip();
+      write(header, 0);
+      file_end = FILE_HEADER;
+
+      frames = new ArrayList<Frame>();
+      for(int i = 0; i < Math.max(1, num_buffers); i++){
+        frames.add(new Frame(this));
+      }
+      final int filter   = this.filter;
+      final int level    = this.level;
+      final int strategy = this.strategy;
+      queue = new DwFrameQueue<Frame>(frames, num_threads, new DwFrameQueue.Encoder<Frame>() {
+        @Override
+        public void encode(Frame frame) throws IOException {
+          if(error != null){
+            return;
+          }
+          try {
+            frame.encode(filter);
+            frame.compress(level, strategy);
+            writeChunk(frame);
+          } catch (IOException e) {
+            error = e;
+            throw e;
+          }
+        }
+      });
+      queue.policy = policy;
+    }
+
+
+    public boolean addFrame(int[] pixels) throws IOException {
+      return addFrame(pixels, seq);
+    }
+
+    public boolean addFrame(float[] data) throws IOException {
+      return addFrame(data, seq);
+    }
+
+    /**
+     * copies the pixels, (RGBA8, width * height) and queues the frame.
+     * @return false, if the frame was dropped, (policy)
+     */
+    public boolean addFrame(int[] pixels, long tag) throws IOException {
+      if(format != FORMAT_RGBA8){
+        throw new IllegalStateException("format is not RGBA8");
+      }
+      Frame frame = acquire(pixels.length, tag);
+      if(frame == null){
+        return false;
+      }
+      System.arraycopy(pixels, 0, frame.pixels, 0, frame.pixels.length);
+      queue.submit(frame);
+      return true;
+    }
+
+    /**
+     * copies the data, (FLOAT, width * height * channels) and queues the
+     * frame.
+     * @return false, if the frame was dropped, (policy)
+     */
+    public boolean addFrame(float[] data, long tag) throws IOException {
+      if(format != FORMAT_FLOAT){
+        throw new IllegalStateException("format is not FLOAT");
+      }
+      Frame frame = acquire(data.length, tag);
+      if(frame == null){
+        return false;
+      }
+      System.arraycopy(data, 0, frame.data, 0, frame.data.length);
+      queue.submit(frame);
+      return true;
+    }
+
+    private Frame acquire(int length, long tag) throws IOException {
+      if(queue == null){
+        throw new IllegalStateException("not created");
+      }
+      if(error != null){
+        throw error;
+      }
+      if(length < getValuesPerFrame()){
+        throw new IllegalArgumentException("frame size: "+length+" < "+getValuesPerFrame());
+      }
+      Frame frame = queue.acquire();
+      if(frame != null){
+        frame.index = seq;
+        frame.tag   = tag;
+      }
+      seq++;
+      return frame;
+    }
+
+
+    // compression threads
+    private void writeChunk(Frame frame) throws IOException {
+      long offset;
+      synchronized(this){
+        offset = file_end;
+        file_end += frame.chunk_size;
+        setIndex(frame_count, offset, frame.chunk_size, frame.tag);
+        if(frame_count == frame_seq.length){
+          frame_seq = Arrays.copyOf(frame_seq, frame_offset.length);
+        }
+        frame_seq[frame_count++] = frame.index;
+      }
+      write(ByteBuffer.wrap(frame.chunk, 0, frame.chunk_size), offset);
+    }
+
+    private void write(ByteBuffer buffer, long offset) throws IOException {
+      while(buffer.hasRemaining()){
+        offset += channel.write(buffer, offset);
+      }
+    }
+
+
+    /**
+     * waits for all pending frames, writes the index and closes the file.
+     */
+    public void close() throws IOException {
+      if(channel == null){
+        return;
+      }
+      queue.shutdown();
+      for(Frame frame : frames){
+        frame.release();
+      }
+
+      try {
+        if(error != null){
+          throw error;
+        }
+        sortIndex(frame_seq, frame_count);
+        long index_offset = file_end;
+        ByteBuffer index = ByteBuffer.allocate(frame_count * INDEX_ENTRY + TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < frame_count; i++){
+          index.putLong(frame_offset[i]);
+          index.putInt (frame_size[i]);
+          index.putInt (getRawSize());
+          index.putLong(frame_tag[i]);
+        }
+        index.putLong(index_offset);
+        index.putInt(FILE_VERSION);
+        index.putInt(FILE_MAGIC);
+        index.flip();
+        raf.setLength(index_offset + index.remaining());
+        write(index, index_offset);
+      } finally {
+        channel.close();
+        raf.close();
+        channel = null;
+        raf = null;
+        frames = null;
+      }
+    }
+
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // READER
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public class Reader extends DwFrameSequence {
+
+    public static interface Listener {
+      /**
+       * frame is reused once this returns.
+       */
+      public void frame(Frame frame) throws IOException;
+    }
+
+    public File file;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private Frame frame;
+
+
+    public Reader(){
+    }
+
+    public void open(File file) throws IOException {
+      if (file == null){
+        throw new NullPointerException();
+      }
+      close();
+      this.file = file;
+      raf = new RandomAccessFile(file, "r");
+      channel = raf.getChannel();
+
+      ByteBuffer header = read(0, FILE_HEADER);
+      int magic   = header.getInt();
+      int version = header.getInt();
+      if(magic != FILE_MAGIC || version != FILE_VERSION){
+        close();
+        throw new IOException("DwFrameSequence: unsupported file, magic/version: "+Integer.toHexString(magic)+"/"+version);
+      }
+      int w = header.getInt();
+      int h = header.getInt();
+      int format   = header.getInt();
+      int channels = header.getInt();
+      filter = header.getInt();
+      setFormat(w, h, format, channels);
+
+      if(!readIndex()){
+        readChunks();
+      }
+    }
+
+    private boolean readIndex() throws IOException {
+      long size = channel.size();
+      if(size < FILE_HEADER + TRAILER_SIZE){
+        return false;
+      }
+      ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+      long index_offset = trailer.getLong();
+      int  version      = trailer.getInt();
+      int  magic        = trailer.getInt();
+      long index_size   = size - TRAILER_SIZE - index_offset;
+      if(magic != FILE_MAGIC || version != FILE_VERSION || index_offset < FILE_HEADER || index_size < 0 || index_size % INDEX_ENTRY != 0){
+        return false;
+      }
+      int count = (int) (index_size / INDEX_ENTRY);
+      ByteBuffer index = read(index_offset, (int) index_size);
+      frame_count = 0;
+      for(int i = 0; i < count; i++){
+        long offset = index.getLong();
+        int  fsize  = index.getInt();
+        /* raw size */ index.getInt();
+        long tag    = index.getLong();
+        setIndex(i, offset, fsize, tag);
+      }
+      frame_count = count;
+      return true;
+    }
+
+    // no index, frames from the chunk headers
+    private void readChunks() throws IOException {
+      long size = channel.size();
+      long offset = FILE_HEADER;
+      int count = 0;
+      int[] frame_seq = new int[64];
+      while(offset + CHUNK_HEADER <= size){
+        ByteBuffer header = read(offset, CHUNK_HEADER);
+        int  magic    = header.getInt();
+        int  frame    = header.getInt();
+        int  fsize    = header.getInt();
+        int  raw_size = header.getInt();
+        long tag      = header.getLong();
+        long end      = offset + CHUNK_HEADER + fsize;
+        if(magic != CHUNK_MAGIC || fsize < 0 || raw_size != getRawSize() || end > size){
+          break; // incomplete chunk
+        }
+        setIndex(count, offset, CHUNK_HEADER + fsize, tag);
+        if(count == frame_seq.length){
+          frame_seq = Arrays.copyOf(frame_seq, count * 2);
+        }
+        frame_seq[count++] = frame;
+        offset = end;
+      }
+      sortIndex(frame_seq, count);
+      frame_count = count;
+    }
+
+
+    /**
+     * decodes the given frame, (not thread-safe, the returned Frame is reused)
+     */
+    public Frame getFrame(int frame) throws IOException {
+      if(this.frame == null){
+        this.frame = new Frame(this);
+      }
+      decode(frame, this.frame);
+      return this.frame;
+    }
+
+    /**
+     * decodes the given frame, RGBA8, into dst, (realloc only when needed).
+     */
+    public int[] getFrame(int frame, int[] dst) throws IOException {
+      int[] pixels = getFrame(frame).pixels;
+      if(pixels == null){
+        throw new IllegalStateException("format is not RGBA8");
+      }
+      if(dst == null || dst.length < pixels.length){
+        dst = new int[pixels.length];
+      }
+      System.arraycopy(pixels, 0, dst, 0, pixels.length);
+      return dst;
+    }
+
+    /**
+     * decodes the given frame, FLOAT, into dst, (realloc only when needed).
+     */
+    public float[] getFrame(int frame, float[] dst) throws IOException {
+      float[] data = getFrame(frame).data;
+      if(data == null){
+        throw new IllegalStateException("format is not FLOAT");
+      }
+      if(dst == null || dst.length < data.length){
+        dst = new float[data.length];
+      }
+      System.arraycopy(data, 0, dst, 0, data.length);
+      return dst;
+    }
+
+
+    /**
+     * decodes the frames [lo, hi) with num_threads threads, and passes them in
+     * frame order to the listener, (on the calling thread). At most
+     * 2 * num_threads frames are decoded ahead.
+     */
+    public void decode(int lo, int hi, int num_threads, Listener listener) throws IOException {
+      if(lo < 0 || hi > frame_count || lo > hi){
+        throw new IndexOutOfBoundsException("frames ["+lo+", "+hi+"), frame_count "+frame_count);
+      }
+      num_threads = Math.max(1, num_threads);
+      final int window = Math.min(2 * num_threads, Math.max(1, hi - lo));
+      final Frame[] frames = new Frame[window];
+      Future<?>[] futures = new Future<?>[window];
+
+      ExecutorService executor = Executors.newFixedThreadPool(num_threads);
+      try {
+        for(int i = lo; i < Math.min(hi, lo + window); i++){
+          frames[i % window] = new Frame(this);
+          futures[i % window] = submit(executor, i, frames[i % window]);
+        }
+        for(int i = lo; i < hi; i++){
+          int slot = i % window;
+          try {
+            futures[slot].get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+          } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+          }
+          listener.frame(frames[slot]);
+          if(i + window < hi){
+            futures[slot] = submit(executor, i + window, frames[slot]);
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+        for(Frame frame : frames){
+          if(frame != null) frame.release();
+        }
+      }
+    }
+
+    private Future<?> submit(ExecutorService executor, final int index, final Frame frame){
+      return executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          decode(index, frame);
+          return null;
+        }
+      });
+    }
+
+
+    // thread-safe, positional reads
+    private void decode(int index, Frame frame) throws IOException {
+      if(index < 0 || index >= frame_count){
+        throw new IndexOutOfBoundsException("frame "+index+", frame_count "+frame_count);
+      }
+      int size = frame_size[index];
+      if(frame.chunk == null || frame.chunk.length < size){
+        frame.chunk = new byte[size];
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(frame.chunk, 0, size);
+      long offset = frame_offset[index];
+      while(buffer.hasRemaining()){
+        if(channel.read(buffer, offset + buffer.position()) == -1){
+          throw new IOException("DwFrameSequence: unexpected end of file");
+        }
+      }
+      frame.index = index;
+      frame.tag = frame_tag[index];
+      frame.chunk_size = size;
+      frame.decompress();
+      frame.decode(filter);
+    }
+
+
+    public void close() throws IOException {
+      if(frame != null){
+        frame.release();
+        frame = null;
+      }
+      if(channel != null){
+        channel.close();
+        raf.close();
+        channel = null;
+        raf = null;
+      }
+    }
+
+
+    private ByteBuffer read(long offset, int size) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      while(buffer.hasRemaining()){
+        if(channel.read(buffer, offset + buffer.position()) == -1){
+          throw new IOException("DwFrameSequence: unexpected end of file");
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+
+  }
+
+}
@@ -0,0 +1,145 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+package com.thomasdiewald.pixelflow.java.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ *
+ * Persistent worker pool for data-parallel loops over index ranges.<br>
+ * <br>
+ * A range [lo, hi) is split into a fixed number of chunks, that only depends
+ * on the range size and the thread count. So each index is always processed
+ * by the same chunk and results are deterministic, as long as the task only
+ * writes to data of the indices it was given.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwParallel {
+
+  public static interface Task{
+    public void run(int lo, int hi);
+  }
+
+  // minimum number of indices per chunk
+  public int min_grain = 1024;
+
+  // chunks per thread, for some load balancing
+  public int chunks_per_thread = 4;
+
+  private int num_threads;
+  private ForkJoinPool pool;
+
+  public DwParallel(){
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public DwParallel(int num_threads){
+    setThreadCount(num_threads);
+  }
+
+  public void setThreadCount(int num_threads){
+    num_threads = Math.max(1, num_threads);
+    if(this.num_threads == num_threads && (pool != null || num_threads == 1)){
+      return;
+    }
+    release();
+    this.num_threads = num_threads;
+    if(num_threads > 1){
+      pool = new ForkJoinPool(num_threads);
+    }
+  }
+
+  public int getThreadCount(){
+    return num_threads;
+  }
+
+  public void release(){
+    if(pool != null){
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+
+  /**
+   * number of chunks, [lo, hi) is split into.
+   */
+  public int getChunkCount(int lo, int hi, int grain){
+    int size = hi - lo;
+    if(size <= 0) return 0;
+    grain = Math.max(1, grain);
+    int chunks = Math.min(num_threads * chunks_per_thread, (size + grain - 1) / grain);
+    return Math.max(1, chunks);
+  }
+
+  /**
+   * start index of the given chunk.
+   */
+  public int getChunkStart(int lo, int hi, int chunk, int num_chunks){
+    return lo + (int)(((long)(hi - lo) * chunk) / num_chunks);
+  }
+
+
+  /**
+   * executes task.run() on chunks of [lo, hi) and returns when all chunks are
+   * done.
+   */
+  public void forRange(int lo, int hi, Task task){
+    forRange(lo, hi, min_grain, task);
+  }
+
+  public void forRange(int lo, int hi, int grain, Task task){
+    int num_chunks = getChunkCount(lo, hi, grain);
+    if(num_chunks == 0){
+      return;
+    }
+    if(num_chunks == 1 || pool == null){
+      task.run(lo, hi);
+      return;
+    }
+    pool.invoke(new Chunks(task, lo, hi, 0, num_chunks, num_chunks));
+  }
+
+
+  @SuppressWarnings("serial")
+  private class Chunks extends RecursiveAction {
+
+    final Task task;
+    final int lo, hi;
+    final int chunk_lo, chunk_hi, num_chunks;
+
+    Chunks(Task task, int lo, int hi, int chunk_lo, int chunk_hi, int num_chunks){
+      this.task = task;
+      this.lo = lo;
+      this.hi = hi;
+      this.chunk_lo = chunk_lo;
+      this.chunk_hi = chunk_hi;
+      this.num_chunks = num_chunks;
+    }
+
+    @Override
+    protected void compute() {
+      if(chunk_hi - chunk_lo == 1){
+        int ilo = getChunkStart(lo, hi, chunk_lo, num_chunks);
+        int ihi = getChunkStart(lo, hi, chunk_hi, num_chunks);
+        task.run(ilo, ihi);
+      } else {
+        int chunk_mid = (chunk_lo + chunk_hi) >>> 1;
+        invokeAll(new Chunks(task, lo, hi, chunk_lo, chunk_mid, num_chunks),
+                  new Chunks(task, lo, hi, chunk_mid, chunk_hi, num_chunks));
+      }
+    }
+  }
+
+}
@@ -13,17 +13,18 @@
 
 package com.thomasdiewald.pixelflow.java.utils;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 
 
 /**
@@ -35,6 +36,16 @@ import java.io.PrintWriter;
  * 3) https://www.nayuki.io/page/portable-floatmap-format-io-java<br>
  * <br>
  * This version is based on 3)<br>
+ * <br>
+ * Files are read and written through memory mapped buffers, the float data
+ * is copied in bulk, (FloatBuffer views in the byte order of the file).<br>
+ * mapRead()/mapWrite() return these views directly, e.g. to write texture
+ * data without an intermediate float[]:<br>
+ * <br>
+ * pfm.bigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;<br>
+ * tex.getData_GL2GL3(pfm.mapWrite(file, tex.w, tex.h, false));<br>
+ * <br>
+ * (GL writes native byte order, regardless of the buffer's order)<br>
  * 
  * @author Nayuki (nayuki.io)
  * @author Thomas Diewald
@@ -54,7 +65,7 @@ public final class DwPortableFloatMap {
 
   // float data
   public float[] float_array;
-  // byte data for faster writing pmf to a BufferedOutputStream
+  // byte data, for stream reading/writing
   private byte byte_array[];
 
 
@@ -62,15 +73,48 @@ public final class DwPortableFloatMap {
   }
 
   public void read(File file) throws IOException {
+    FloatBuffer data = mapRead(file);
+    
+    // realloc only when needed
+    int num_floats = data.remaining();
+    if(float_array == null || float_array.length != num_floats){
+      float_array = new float[num_floats];
+    }
+    data.get(float_array);
+  }
+  
+  
+  /**
+   * maps the given file and reads its header (width, height, grayscale,
+   * bigEndian).
+   * 
+   * @return the float data of the file, (no copy, read-only)
+   */
+  public FloatBuffer mapRead(File file) throws IOException {
     if (file == null){
       throw new NullPointerException();
     }
     this.file = file;
-    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
     try {
-      read(in);
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      
+      String format     = readLine(buffer).trim();
+      String dimension  = readLine(buffer).trim();
+      String endianness = readLine(buffer).trim();
+      setHeader(format, dimension, endianness);
+      
+      int num_floats = width * height * (grayscale ? 1 : 3);
+      if(buffer.remaining() < num_floats * 4){
+        throw new IOException("PFM data too short: "+buffer.remaining()+" < "+(num_floats * 4)+" bytes");
+      }
+      
+      ByteBuffer data = buffer.slice();
+      data.limit(num_floats * 4);
+      return data.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
     } finally {
-      in.close();
+      channel.close();
     }
   }
 
@@ -83,17 +127,7 @@ public final class DwPortableFloatMap {
     String format     = readLine(in).trim();
     String dimension  = readLine(in).trim();
     String endianness = readLine(in).trim();
-
-    grayscale = format.equals("Pf");           //  Pf ... R, PF ... RGB
-    String[] tokens = dimension.split(" ", 2); // widht height
-    width  = Integer.parseInt(tokens[0]);
-    height = Integer.parseInt(tokens[1]);
-    bigEndian = Double.parseDouble(endianness) > 0.0; // bigEndian > 0, littleEndian < 0, error ... 0
-
-    if (width <= 0 || height <= 0){
-      throw new IllegalArgumentException("width/height invalid");
-    }
-
+    setHeader(format, dimension, endianness);
 
     // realloc only when needed
     int num_floats = width * height * (grayscale ? 1 : 3);
@@ -105,35 +139,49 @@ public final class DwPortableFloatMap {
       byte_array = new byte[num_bytes];
     }
 
+    // read() may return less than requested
+    for(int off = 0, len; off < num_bytes; off += len){
+      len = in.read(byte_array, off, num_bytes - off);
+      if(len == -1){
+        throw new IOException("PFM data too short: "+off+" < "+num_bytes+" bytes");
+      }
+    }
 
-    BufferedInputStream bis = new BufferedInputStream(in);
+    // float32 from 4 bytes
+    ByteBuffer.wrap(byte_array).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(float_array);
+  }
 
-    int len = bis.read(byte_array);
-    if(len != byte_array.length){
-      throw new IOException("TODO BufferedInputStream.read(b_array) ");
-    }
 
-    // read float32 from 4 bytes 
-    if(bigEndian){
-      for (int i = 0, bi = 0; i < num_floats; i++) {
-        int val = (byte_array[bi++] & 0xFF) << 24 | 
-                  (byte_array[bi++] & 0xFF) << 16 | 
-                  (byte_array[bi++] & 0xFF) <<  8 | 
-                  (byte_array[bi++] & 0xFF);
-        float_array[i] = Float.intBitsToFloat(val);
-      }
-    } else {
-      for (int i = num_floats-1, bi = num_bytes-1; i >= 0; i--) {
-        int val = (byte_array[bi--] & 0xFF) << 24 | 
-                  (byte_array[bi--] & 0xFF) << 16 | 
-                  (byte_array[bi--] & 0xFF) <<  8 | 
-                  (byte_array[bi--] & 0xFF);
-        float_array[i] = Float.intBitsToFloat(val);
-      }
-    }
+  private void setHeader(String format, String dimension, String endianness){
+    grayscale = format.equals("Pf");           //  Pf ... R, PF ... RGB
+    String[] tokens = dimension.split(" ", 2); // widht height
+    width  = Integer.parseInt(tokens[0]);
+    height = Integer.parseInt(tokens[1].trim());
+    bigEndian = Double.parseDouble(endianness) > 0.0; // bigEndian > 0, littleEndian < 0, error ... 0
 
+    if (width <= 0 || height <= 0){
+      throw new IllegalArgumentException("width/height invalid");
+    }
+  }
+  
+  private String getHeader(){
+    // Must use Unix newlines, not universal style
+    return (grayscale ? "Pf" : "PF") + "\n" + width + " " + height + "\n" + (bigEndian ? "1.0" : "-1.0") + "\n";
   }
 
+  private static String readLine(ByteBuffer in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; ; i++) {
+      int b = in.hasRemaining() ? in.get() : -1;
+      if (b == '\n' || b == -1)
+        break;
+      else if (i == 100)
+        throw new IllegalArgumentException("Line too long");
+      else
+        sb.append((char) (b & 0xFF));
+    }
+    return sb.toString();
+  }
 
 
   private static String readLine(InputStream in) throws IOException {
@@ -153,14 +201,62 @@ public final class DwPortableFloatMap {
 
 
   public void write(File file, float[] data, int w, int h) throws IOException {
+    this.float_array = data;
+    write(file, FloatBuffer.wrap(data), w, h);
+  }
+  
+  
+  /**
+   * writes the remaining floats of data, e.g. a texture readback buffer
+   * (DwGLTexture.getData_GL2ES3().asFloatBuffer()). Byte order conversion is
+   * done by the buffer copy.
+   */
+  public void write(File file, FloatBuffer data, int w, int h) throws IOException {
+    if (data == null)
+      throw new NullPointerException();
+    
+    int num_pixels = w * h;
+    int num_floats = data.remaining();
+    
+    boolean grayscale;
+    if(num_floats == num_pixels * 1) { grayscale = true; }
+    else if(num_floats == num_pixels * 3) { grayscale = false; }
+    else throw new IllegalStateException("f_array length does match neither format (Grayscale or RGB).");
+    
+    mapWrite(file, w, h, grayscale).put(data);
+  }
+  
+  
+  /**
+   * creates the file with the header (width, height, grayscale, bigEndian)
+   * and maps it.
+   * 
+   * @return the float data of the file, to be filled by the caller, in the
+   *         byte order of bigEndian
+   */
+  public FloatBuffer mapWrite(File file, int w, int h, boolean grayscale) throws IOException {
     if (file == null)
       throw new NullPointerException();
+    if (w <= 0 || h <= 0){
+      throw new IllegalArgumentException("width/height invalid");
+    }
     this.file = file;
-    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+    this.width = w;
+    this.height = h;
+    this.grayscale = grayscale;
+    
+    byte[] header = getHeader().getBytes(Charset.forName("US-ASCII"));
+    long num_bytes = (long) w * h * (grayscale ? 1 : 3) * 4;
+    
+    FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
     try {
-      write(out, data, w, h);
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, header.length + num_bytes);
+      buffer.put(header);
+      return buffer.slice().order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
     } finally {
-      out.close();
+      channel.close();
     }
   }
 
@@ -174,9 +270,6 @@ public final class DwPortableFloatMap {
     this.float_array = data;
 
 
-    // Write header text data. Must use Unix newlines, not universal style
-    PrintWriter pout = new PrintWriter(new OutputStreamWriter(out, "US-ASCII"));
-
     if (width <= 0 || height <= 0){
       throw new IllegalArgumentException("width/height invalid");
     }
@@ -188,10 +281,8 @@ public final class DwPortableFloatMap {
     else if(num_floats == num_pixels * 3) { grayscale = false; }
     else throw new IllegalStateException("f_array length does match neither format (Grayscale or RGB).");
 
-    pout.print((grayscale ? "Pf" : "PF") + "\n");
-    pout.print(width + " " + height + "\n");
-    pout.print((bigEndian ? "1.0" : "-1.0") + "\n");
-    pout.flush();
+    // header
+    out.write(getHeader().getBytes(Charset.forName("US-ASCII")));
 
     // realloc only when needed
     int num_bytes = num_floats * 4;
@@ -199,28 +290,12 @@ public final class DwPortableFloatMap {
       byte_array = new byte[num_bytes];
     }
 
-    // write float32 as 4 bytes
-    if(bigEndian){
-      for (int i = 0, bi = 0; i < num_floats; i++) {
-        int val = Float.floatToRawIntBits(float_array[i]);
-        byte_array[bi++] = (byte) ((val >> 24) & 0xFF);
-        byte_array[bi++] = (byte) ((val >> 16) & 0xFF);
-        byte_array[bi++] = (byte) ((val >>  8) & 0xFF);
-        byte_array[bi++] = (byte) ((val      ) & 0xFF);
-      }
-    } else {
-      for (int i = 0, bi = 0; i < num_floats; i++) {
-        int val = Float.floatToRawIntBits(float_array[i]);
-        byte_array[bi++] = (byte) ((val      ) & 0xFF);
-        byte_array[bi++] = (byte) ((val >>  8) & 0xFF);
-        byte_array[bi++] = (byte) ((val >> 16) & 0xFF);
-        byte_array[bi++] = (byte) ((val >> 24) & 0xFF);
-      }
-    }
+    // float32 as 4 bytes
+    ByteBuffer.wrap(byte_array).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(float_array);
 
     // output
-    BufferedOutputStream bout = new BufferedOutputStream(out);
-    bout.write(byte_array);
+    out.write(byte_array);
+    out.flush();
   }
 
 
@@ -0,0 +1,459 @@
+/**
+ *
+ * PixelFlow | Copyright (C) 2016 Thomas Diewald - http://thomasdiewald.com
+ *
+ * A Processing/Java library for high performance GPU-Computing (GLSL).
+ * MIT License: https://opensource.org/licenses/MIT
+ *
+ */
+
+
+package com.thomasdiewald.pixelflow.java.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ *
+ * PFM sequence, all frames of a float image sequence in one file.<br>
+ * <br>
+ * Each frame is a complete PFM file (header + data) of the same size, so
+ * frame N starts at N * frame_size and can be mapped directly. The header
+ * of each frame is padded to 16 bytes, (zeros in the scale value, e.g.
+ * "-1.000000"), so a frame cut out of the sequence is a valid PFM file.<br>
+ * <br>
+ * The frames are followed by an index (per frame: offset, tag) and a trailer
+ * (index offset, version, magic). If the trailer is missing, e.g. after a
+ * crash, the frames are found from the first frame header, up to the first
+ * frame without that header, (a single PFM file is read as a sequence of one
+ * frame).<br>
+ * <br>
+ * Writer: frames are copied into a small pool of direct buffers and written
+ * by a single thread. addFrame() blocks when all buffers are pending. The
+ * file is grown in large extents and trimmed by close().<br>
+ * Reader: O(1) access to any frame, as a mapped FloatBuffer (no copy) or
+ * copied into a float[], e.g. for scrubbing or replaying a flow field.<br>
+ *
+ * @author Thomas Diewald
+ *
+ */
+public class DwPortableFloatMapSequence {
+
+  static public final int INDEX_MAGIC   = 0x49465044; // "DPFI", little endian
+  static public final int INDEX_VERSION = 1;
+  static public final int INDEX_HEADER  = 8 * 4;      // magic, version, count, width, height, channels, bigEndian, header_size
+  static public final int TRAILER_SIZE  = 16;         // index offset, version, magic
+
+  static private final Charset ASCII = Charset.forName("US-ASCII");
+
+  // format
+  public int     width;
+  public int     height;
+  public boolean grayscale;
+  public boolean bigEndian = false;
+  public int     frame_count;
+
+  protected int  header_size;
+  protected long frame_size;
+  protected long[] frame_tag = new long[0];
+
+
+  public int getChannels(){
+    return grayscale ? 1 : 3;
+  }
+
+  public int getFloatsPerFrame(){
+    return width * height * getChannels();
+  }
+
+  public long getFrameSize(){
+    return frame_size;
+  }
+
+  public long getFrameOffset(int frame){
+    return frame * frame_size;
+  }
+
+  /**
+   * user value of the given frame, (e.g. time), frame index by default.
+   */
+  public long getFrameTag(int frame){
+    return frame_tag[frame];
+  }
+
+  protected ByteOrder getByteOrder(){
+    return bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+  }
+
+  /**
+   * PFM header of each frame, padded to a multiple of 16 bytes.
+   */
+  protected byte[] createHeader(){
+    String header = (grayscale ? "Pf" : "PF") + "\n" + width + " " + height + "\n";
+    String scale  = bigEndian ? "1.0" : "-1.0";
+    int len = header.length() + scale.length() + 1;
+    int pad = (16 - len % 16) % 16;
+    StringBuilder sb = new StringBuilder(header).append(scale);
+    for(int i = 0; i < pad; i++) sb.append('0');
+    return sb.append('\n').toString().getBytes(ASCII);
+  }
+
+  protected void setFormat(int w, int h, boolean grayscale){
+    if (w <= 0 || h <= 0){
+      throw new IllegalArgumentException("width/height invalid");
+    }
+    this.width       = w;
+    this.height      = h;
+    this.grayscale   = grayscale;
+    this.header_size = createHeader().length;
+    this.frame_size  = header_size + (long) getFloatsPerFrame() * 4;
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // WRITER
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public class Writer extends DwPortableFloatMapSequence {
+
+    public File file;
+
+    // number of frame buffers, (frames in flight)
+    public int num_buffers = 3;
+
+    // file growth, bytes
+    public long extent_size = 256L << 20;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private ExecutorService executor;
+    private ArrayBlockingQueue<ByteBuffer> buffers;
+    private long file_size;
+    private volatile IOException error;
+
+
+    public Writer(){
+    }
+
+    public void create(File file, int w, int h, boolean grayscale) throws IOException {
+      if (file == null){
+        throw new NullPointerException();
+      }
+      setFormat(w, h, grayscale);
+      this.file        = file;
+      this.frame_count = 0;
+      this.frame_tag   = new long[64];
+      this.error       = null;
+
+      byte[] header = createHeader();
+      buffers = new ArrayBlockingQueue<ByteBuffer>(num_buffers);
+      for(int i = 0; i < num_buffers; i++){
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) frame_size).order(getByteOrder());
+        buffer.put(header);
+        buffers.add(buffer);
+      }
+
+      raf = new RandomAccessFile(file, "rw");
+      raf.setLength(0);
+      channel = raf.getChannel();
+      file_size = 0;
+      executor = Executors.newSingleThreadExecutor();
+    }
+
+
+    public void addFrame(float[] data) throws IOException {
+      addFrame(FloatBuffer.wrap(data), frame_count);
+    }
+
+    public void addFrame(float[] data, long tag) throws IOException {
+      addFrame(FloatBuffer.wrap(data), tag);
+    }
+
+    public void addFrame(FloatBuffer data) throws IOException {
+      addFrame(data, frame_count);
+    }
+
+    /**
+     * copies the remaining floats of data, (getFloatsPerFrame()) and queues
+     * the frame for writing. Blocks when num_buffers frames are pending.
+     */
+    public void addFrame(FloatBuffer data, long tag) throws IOException {
+      if(error != null){
+        throw error;
+      }
+      if(data.remaining() != getFloatsPerFrame()){
+        throw new IllegalArgumentException("frame size: "+data.remaining()+" != "+getFloatsPerFrame()+" floats");
+      }
+
+      final ByteBuffer buffer;
+      try {
+        buffer = buffers.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted");
+      }
+      buffer.position(header_size);
+      buffer.asFloatBuffer().put(data);
+      buffer.position(0);
+
+      if(frame_count == frame_tag.length){
+        frame_tag = Arrays.copyOf(frame_tag, frame_count * 2);
+      }
+      frame_tag[frame_count] = tag;
+      final long offset = getFrameOffset(frame_count++);
+
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if(error == null){
+              writeFrame(buffer, offset);
+            }
+          } catch (IOException e) {
+            error = e;
+          } finally {
+            buffers.add(buffer);
+          }
+        }
+      });
+    }
+
+
+    // writer thread
+    private void writeFrame(ByteBuffer buffer, long offset) throws IOException {
+      long end = offset + buffer.remaining();
+      if(end > file_size){
+        file_size = Math.max(end, file_size + Math.max(extent_size, frame_size));
+        raf.setLength(file_size);
+      }
+      while(buffer.hasRemaining()){
+        offset += channel.write(buffer, offset);
+      }
+    }
+
+
+    /**
+     * waits for all pending frames, writes the index and closes the file.
+     */
+    public void close() throws IOException {
+      if(channel == null){
+        return;
+      }
+      executor.shutdown();
+      try {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      try {
+        if(error != null){
+          throw error;
+        }
+
+        long index_offset = getFrameOffset(frame_count);
+        ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER + frame_count * 16 + TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        index.putInt(INDEX_MAGIC);
+        index.putInt(INDEX_VERSION);
+        index.putInt(frame_count);
+        index.putInt(width);
+        index.putInt(height);
+        index.putInt(getChannels());
+        index.putInt(bigEndian ? 1 : 0);
+        index.putInt(header_size);
+        for(int i = 0; i < frame_count; i++){
+          index.putLong(getFrameOffset(i));
+          index.putLong(frame_tag[i]);
+        }
+        index.putLong(index_offset);
+        index.putInt(INDEX_VERSION);
+        index.putInt(INDEX_MAGIC);
+        index.flip();
+
+        raf.setLength(index_offset + index.remaining());
+        while(index.hasRemaining()){
+          index_offset += channel.write(index, index_offset);
+        }
+      } finally {
+        channel.close();
+        raf.close();
+        channel = null;
+        raf = null;
+        buffers = null;
+      }
+    }
+
+  }
+
+
+
+
+  //////////////////////////////////////////////////////////////////////////////
+  // READER
+  //////////////////////////////////////////////////////////////////////////////
+
+  static public class Reader extends DwPortableFloatMapSequence {
+
+    public File file;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+
+    public Reader(){
+    }
+
+    public void open(File file) throws IOException {
+      if (file == null){
+        throw new NullPointerException();
+      }
+      close();
+      this.file = file;
+      raf = new RandomAccessFile(file, "r");
+      channel = raf.getChannel();
+
+      if(!readIndex()){
+        readFrames();
+      }
+    }
+
+    private boolean readIndex() throws IOException {
+      long size = channel.size();
+      if(size < TRAILER_SIZE + INDEX_HEADER){
+        return false;
+      }
+      ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+      long index_offset = trailer.getLong();
+      int  version      = trailer.getInt();
+      int  magic        = trailer.getInt();
+      if(magic != INDEX_MAGIC || version != INDEX_VERSION || index_offset < 0 || index_offset > size - TRAILER_SIZE - INDEX_HEADER){
+        return false;
+      }
+
+      ByteBuffer index = read(index_offset, (int) (size - TRAILER_SIZE - index_offset));
+      if(index.getInt() != INDEX_MAGIC || index.getInt() != INDEX_VERSION){
+        return false;
+      }
+      int count    = index.getInt();
+      int w        = index.getInt();
+      int h        = index.getInt();
+      int channels = index.getInt();
+      bigEndian    = index.getInt() != 0;
+      int hsize    = index.getInt();
+      setFormat(w, h, channels == 1);
+      if(hsize != header_size || index.remaining() < count * 16){
+        throw new IOException("PFM sequence: invalid index");
+      }
+
+      frame_count = count;
+      frame_tag = new long[count];
+      for(int i = 0; i < count; i++){
+        index.getLong(); // offset, fixed frame size
+        frame_tag[i] = index.getLong();
+      }
+      return true;
+    }
+
+    // no index, frames from the first header
+    private void readFrames() throws IOException {
+      ByteBuffer header = read(0, (int) Math.min(channel.size(), 256));
+      String format     = readLine(header).trim();
+      String dimension  = readLine(header).trim();
+      String endianness = readLine(header).trim();
+      String[] tokens = dimension.split(" ", 2);
+      bigEndian = Double.parseDouble(endianness) > 0.0;
+      setFormat(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1].trim()), format.equals("Pf"));
+      
+      // also a single, unpadded PFM file
+      header_size = header.position();
+      frame_size  = header_size + (long) getFloatsPerFrame() * 4;
+
+      // the file may end in zeros, (unused part of the last extent), so the
+      // frames are counted up to the first one without the same header
+      byte[] header_bytes = Arrays.copyOf(header.array(), header_size);
+      int count_max = (int) (channel.size() / frame_size);
+      frame_count = Math.min(1, count_max);
+      while(frame_count < count_max){
+        ByteBuffer next = read(getFrameOffset(frame_count), header_size);
+        if(!Arrays.equals(next.array(), header_bytes)) break;
+        frame_count++;
+      }
+      frame_tag = new long[frame_count];
+      for(int i = 0; i < frame_count; i++){
+        frame_tag[i] = i;
+      }
+    }
+
+
+    /**
+     * float data of the given frame, mapped, (no copy, read-only).
+     */
+    public FloatBuffer getFrame(int frame) throws IOException {
+      if(frame < 0 || frame >= frame_count){
+        throw new IndexOutOfBoundsException("frame "+frame+", frame_count "+frame_count);
+      }
+      long offset = getFrameOffset(frame) + header_size;
+      return channel.map(FileChannel.MapMode.READ_ONLY, offset, frame_size - header_size).order(getByteOrder()).asFloatBuffer();
+    }
+
+    /**
+     * float data of the given frame, copied into dst, (realloc only when
+     * needed).
+     */
+    public float[] getFrame(int frame, float[] dst) throws IOException {
+      FloatBuffer data = getFrame(frame);
+      if(dst == null || dst.length < data.remaining()){
+        dst = new float[data.remaining()];
+      }
+      data.get(dst, 0, data.remaining());
+      return dst;
+    }
+
+    public void close() throws IOException {
+      if(channel != null){
+        channel.close();
+        raf.close();
+        channel = null;
+        raf = null;
+      }
+    }
+
+
+    private ByteBuffer read(long offset, int size) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      while(buffer.hasRemaining()){
+        if(channel.read(buffer, offset + buffer.position()) == -1){
+          throw new IOException("PFM sequence: unexpected end of file");
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+
+    private static String readLine(ByteBuffer in){
+      StringBuilder sb = new StringBuilder();
+      while(in.hasRemaining()){
+        int b = in.get();
+        if(b == '\n') break;
+        sb.append((char) (b & 0xFF));
+      }
+      return sb.toString();
+    }
+
+  }
+
+}
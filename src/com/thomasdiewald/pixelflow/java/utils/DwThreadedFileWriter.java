@@ -11,13 +11,23 @@ package com.thomasdiewald.pixelflow.java.utils;
 
 import java.io.File;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import processing.core.PApplet;
 
+
+/**
+ * 
+ * Base class for asynchronous frame writers.<br>
+ * <br>
+ * addFrame() queues a task for the worker threads. The queue is bounded, when
+ * it is full the queue policy decides between waiting (BLOCK, default) or
+ * dropping frames, (queue.policy, queue.getStats()).<br>
+ * 
+ * @author Thomas Diewald
+ *
+ */
 public abstract class DwThreadedFileWriter {
   
   public PApplet papplet;
@@ -25,7 +35,7 @@ public abstract class DwThreadedFileWriter {
 
   public String root_dir = "";
   
-  private ExecutorService executorService;
+  public DwFrameQueue<Frame> queue;
   private long start_ms = 0;
   private int frame_count = 0;
   
@@ -36,6 +46,14 @@ public abstract class DwThreadedFileWriter {
   public long usedMemory   ;
 
   public DwThreadedFileWriter(PApplet papplet, String root_dir){
+    this(papplet, root_dir, 2 * Runtime.getRuntime().availableProcessors(), DwFrameQueue.POLICY.BLOCK);
+  }
+  
+  /**
+   * @param num_buffers number of queued frames, (frames in flight)
+   * @param policy      what to do, when the queue is full
+   */
+  public DwThreadedFileWriter(PApplet papplet, String root_dir, int num_buffers, DwFrameQueue.POLICY policy){
     this.papplet = papplet;
     
     this.papplet.registerMethod("post", this);
@@ -67,7 +85,19 @@ public abstract class DwThreadedFileWriter {
 //      System.out.printf("UsableSpace: %5d gb \n", (root_UsableSpace>> 30));
 //    }
     
-    this.executorService = Executors.newFixedThreadPool(num_processors);
+    ArrayList<Frame> frames = new ArrayList<Frame>();
+    for(int i = 0; i < Math.max(1, num_buffers); i++){
+      frames.add(new Frame());
+    }
+    this.queue = new DwFrameQueue<Frame>(frames, num_processors, new DwFrameQueue.Encoder<Frame>() {
+      @Override
+      public void encode(Frame frame) {
+        Runnable task = frame.task;
+        frame.task = null;
+        task.run();
+      }
+    });
+    this.queue.policy = policy;
     
   }
    
@@ -89,14 +119,14 @@ public abstract class DwThreadedFileWriter {
     AUTO_CAPTURE = true;
   }
   
+  /**
+   * runs all pending frames, and stops the worker threads.
+   */
   public void stop(){
-    executorService.shutdown();
-    
-    try {
-      executorService.awaitTermination(1, TimeUnit.MINUTES);
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+    if(queue.isShutdown()){
+      return;
     }
+    queue.shutdown();
 
     if(AUTO_CAPTURE)
     {
@@ -116,11 +146,12 @@ public abstract class DwThreadedFileWriter {
   public void printFolderDump(){
     File dir = getDirectory();
     long size_dir  = folderSize(dir);
-    long size_file = size_dir/frame_count;
+    long size_file = size_dir/Math.max(1, frame_count);
     
     String size_dir_str  = NumberFormat.getNumberInstance(Locale.US).format(size_dir  >> 10);
     String size_file_str = NumberFormat.getNumberInstance(Locale.US).format(size_file >> 10);
     System.out.printf(">> Captured %d frames (%s kb)  > dir: \"%s\" (%s kb)\n", frame_count, size_file_str, dir, size_dir_str);
+    System.out.printf(">> %s\n", queue.getStats());
   }
 
   
@@ -143,15 +174,25 @@ public abstract class DwThreadedFileWriter {
   
   
   
-  public void addFrame(Runnable frame){
-    executorService.submit(frame);
-//    new Thread(frame).start();
+  /**
+   * queues a task for the worker threads.
+   * @return false, if the frame was dropped, (queue.policy DROP_NEWEST, or
+   *         stopped)
+   */
+  public boolean addFrame(Runnable task){
+    Frame frame = queue.acquire();
+    if(frame == null){
+      return false;
+    }
+    frame.task = task;
+    queue.submit(frame);
     
     freeMemory     = Runtime.getRuntime().freeMemory ();
     maxMemory      = Runtime.getRuntime().maxMemory  ();
     totalMemory    = Runtime.getRuntime().totalMemory();
     
     usedMemory =  totalMemory;
+    return true;
   }
   
   
@@ -186,6 +227,11 @@ public abstract class DwThreadedFileWriter {
   public File createFilename(){
     return createFilename("jpg");
   }
+  
+  
+  static public class Frame {
+    Runnable task;
+  }
 
 
   